@@ -0,0 +1,47 @@
+package com.github.vevc.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Self-signed certificate generation for each supported key algorithm.
+ *
+ * @author vevc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateUtilBenchmark {
+
+    @Param({CertificateUtil.KEY_ALGORITHM_EC, CertificateUtil.KEY_ALGORITHM_RSA})
+    private String keyAlgorithm;
+
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("cert-bench");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve(CertificateUtil.CERT_FILE));
+        Files.deleteIfExists(dir.resolve(CertificateUtil.KEY_FILE));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public File generate() throws Exception {
+        File workDir = dir.toFile();
+        CertificateUtil.generateCertificates(workDir, keyAlgorithm, "localhost");
+        return workDir;
+    }
+}
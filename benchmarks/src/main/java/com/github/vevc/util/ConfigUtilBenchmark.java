@@ -0,0 +1,71 @@
+package com.github.vevc.util;
+
+import com.github.vevc.constant.AppConst;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Loading the encrypted configuration with one file versus many unrelated files in the config dir.
+ * The config index keeps both cases at a single read.
+ *
+ * @author vevc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigUtilBenchmark {
+
+    @Param({"1", "100"})
+    private int files;
+
+    private Path baseDir;
+
+    @Setup
+    public void setup() throws Exception {
+        baseDir = Files.createTempDirectory("config-bench");
+        Path configDir = Files.createDirectories(baseDir.resolve("config"));
+        Properties props = new Properties();
+        props.setProperty(AppConst.DOMAIN, "example.com");
+        props.setProperty(AppConst.PORT, "25565");
+        props.setProperty(AppConst.UUID, UUID.randomUUID().toString());
+        props.setProperty(AppConst.PASSWORD, "password");
+        props.setProperty(AppConst.HYSTERIA2_VERSION, "2.5.2");
+        StringWriter writer = new StringWriter();
+        props.store(writer, null);
+        String sealed = EnvelopeUtil.seal(writer.toString(), AppConst.PUBLIC_KEY);
+        Files.writeString(configDir.resolve(Md5Util.md5(sealed)), sealed, StandardCharsets.UTF_8);
+        // the first load builds the index; afterwards only the indexed lookup is measured
+        ConfigUtil.loadConfiguration(baseDir.toFile());
+        // clutter that piled up later: same size, but the name does not match the content hash
+        for (int i = 1; i < files; i++) {
+            String stale = EnvelopeUtil.seal(writer.toString(), AppConst.PUBLIC_KEY);
+            Files.writeString(configDir.resolve(UUID.randomUUID().toString().replace("-", "")), stale,
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Properties load() {
+        return ConfigUtil.loadConfiguration(baseDir.toFile());
+    }
+}
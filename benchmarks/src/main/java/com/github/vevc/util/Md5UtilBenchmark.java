@@ -0,0 +1,69 @@
+package com.github.vevc.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Md5Util over strings and files of several sizes, plus hex encoding and single-pass SHA-256 + MD5.
+ *
+ * @author vevc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Md5UtilBenchmark {
+
+    @Param({"1024", "1048576", "33554432"})
+    private int size;
+
+    private Path dir;
+    private File file;
+    private String text;
+    private byte[] digest;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+        dir = Files.createTempDirectory("md5-bench");
+        file = Files.write(dir.resolve("data.bin"), data).toFile();
+        text = "a".repeat(size);
+        digest = new byte[32];
+        ThreadLocalRandom.current().nextBytes(digest);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public String md5File() throws IOException {
+        return Md5Util.md5(file);
+    }
+
+    @Benchmark
+    public HashUtil.Hasher sha256AndMd5File() throws IOException {
+        return HashUtil.hash(file.toPath(), HashUtil.Algorithm.SHA256, HashUtil.Algorithm.MD5);
+    }
+
+    @Benchmark
+    public String md5String() {
+        return Md5Util.md5(text);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return Md5Util.toHexString(digest);
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.vevc.util;
+
+import com.github.vevc.constant.AppConst;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA block encryption and the config envelope across payload sizes.
+ *
+ * @author vevc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RsaUtilBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    private int payloadSize;
+
+    private byte[] plain;
+    private String plainText;
+    private byte[] encrypted;
+    private String sealed;
+
+    @Setup
+    public void setup() throws Exception {
+        plain = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(plain);
+        plainText = "x".repeat(payloadSize);
+        encrypted = RsaUtil.encryptByPublicKey(plain, AppConst.PUBLIC_KEY);
+        sealed = EnvelopeUtil.seal(plainText, AppConst.PUBLIC_KEY);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return RsaUtil.encryptByPublicKey(plain, AppConst.PUBLIC_KEY);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return RsaUtil.decryptByPrivateKey(encrypted, AppConst.PRIVATE_KEY);
+    }
+
+    @Benchmark
+    public String envelopeSeal() throws Exception {
+        return EnvelopeUtil.seal(plainText, AppConst.PUBLIC_KEY);
+    }
+
+    @Benchmark
+    public byte[] envelopeOpen() throws Exception {
+        return EnvelopeUtil.open(sealed, AppConst.PRIVATE_KEY).getBytes(StandardCharsets.UTF_8);
+    }
+}
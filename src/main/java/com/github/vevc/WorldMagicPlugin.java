@@ -1,11 +1,21 @@
 package com.github.vevc;
 
 import com.github.vevc.config.AppConfig;
+import com.github.vevc.config.ConfigWatcher;
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.MetricsServer;
+import com.github.vevc.metrics.PhaseTimer;
+import com.github.vevc.metrics.ProcStat;
+import com.github.vevc.process.ProcessSupervisor;
+import com.github.vevc.process.ServerInstance;
+import com.github.vevc.service.TickThrottle;
 import com.github.vevc.service.impl.Hysteria2ServiceImpl;
 import com.github.vevc.util.ConfigUtil;
+import com.github.vevc.util.HttpUtil;
 import com.github.vevc.util.LogUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.util.Objects;
 import java.util.Properties;
@@ -15,17 +25,39 @@ import java.util.Properties;
  */
 public final class WorldMagicPlugin extends JavaPlugin {
 
+    private static final long THROTTLE_PERIOD_TICKS = 100;
+
     private final Hysteria2ServiceImpl hysteria2Service = new Hysteria2ServiceImpl();
+    private volatile ConfigWatcher configWatcher;
+    private volatile MetricsServer metricsServer;
+    private volatile BukkitTask throttleTask;
+    private volatile TickThrottle throttle;
+    private volatile Properties props;
+    private volatile AppConfig appConfig;
 
     @Override
     public void onEnable() {
         // Plugin startup logic
+        MetricsRegistry.markEnable();
         this.getLogger().info("WorldMagicPlugin enabled");
         LogUtil.init(this);
         Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
             // load config
-            Properties props = ConfigUtil.loadConfiguration();
-            AppConfig appConfig = AppConfig.load(props);
+            Properties props;
+            try (PhaseTimer ignored = MetricsRegistry.time("config-load")) {
+                props = ConfigUtil.loadConfiguration();
+            }
+            AppConfig appConfig;
+            try (PhaseTimer ignored = MetricsRegistry.time("app-config")) {
+                appConfig = AppConfig.load(props);
+            } catch (IllegalArgumentException e) {
+                LogUtil.error("Invalid configuration", e);
+                Bukkit.getScheduler().runTask(this, () -> {
+                    this.getLogger().info("Invalid configuration, disabling plugin");
+                    Bukkit.getPluginManager().disablePlugin(this);
+                });
+                return;
+            }
             if (Objects.isNull(appConfig)) {
                 Bukkit.getScheduler().runTask(this, () -> {
                     this.getLogger().info("Configuration not found, disabling plugin");
@@ -36,12 +68,18 @@ public final class WorldMagicPlugin extends JavaPlugin {
 
             // install & start apps
             LogUtil.setHysteria2InfoEnabled(appConfig.isHysteria2Info());
+            HttpUtil.init(appConfig.getHttpConnectTimeout(), appConfig.getHttpReadTimeout());
 
             if (this.installApps(appConfig)) {
+                this.props = props;
+                this.appConfig = appConfig;
                 Bukkit.getScheduler().runTask(this, () -> {
                     Bukkit.getScheduler().runTaskAsynchronously(this, hysteria2Service::startup);
                     Bukkit.getScheduler().runTaskAsynchronously(this, hysteria2Service::clean);
+                    this.startThrottle(appConfig);
                 });
+                this.watchConfig();
+                this.startMetrics(appConfig.getMetricsPort());
             } else {
                 Bukkit.getScheduler().runTask(this, () -> {
                     this.getLogger().info("Plugin install failed, disabling plugin");
@@ -52,18 +90,183 @@ public final class WorldMagicPlugin extends JavaPlugin {
     }
 
     private boolean installApps(AppConfig appConfig) {
-        try {
+        try (PhaseTimer ignored = MetricsRegistry.time("install")) {
             hysteria2Service.install(appConfig);
             return true;
         } catch (Exception e) {
+            MetricsRegistry.phase("install").addError();
             LogUtil.error("Plugin install failed", e);
             return false;
         }
     }
 
+    private void watchConfig() {
+        ConfigWatcher watcher = new ConfigWatcher(ConfigUtil.getPlainConfigPath(), this::reloadConfig);
+        try {
+            watcher.start();
+            this.configWatcher = watcher;
+        } catch (Exception e) {
+            LogUtil.error("Config hot reload unavailable", e);
+        }
+    }
+
+    /**
+     * start the metrics endpoint, move it to another port, or stop it when the port is null
+     */
+    private synchronized void startMetrics(Integer port) {
+        MetricsServer current = this.metricsServer;
+        if (current != null) {
+            if (port != null && current.getPort() == port) {
+                return;
+            }
+            current.stop();
+            this.metricsServer = null;
+        }
+        if (port == null) {
+            return;
+        }
+        MetricsServer server = new MetricsServer(port, hysteria2Service::getInstances, hysteria2Service::getTrafficStats);
+        try {
+            server.start();
+            this.metricsServer = server;
+        } catch (Exception e) {
+            LogUtil.error("Metrics endpoint unavailable", e);
+        }
+    }
+
+    /**
+     * sample the average tick time on the main thread and feed the bandwidth throttle
+     */
+    private void startThrottle(AppConfig appConfig) {
+        this.stopThrottle();
+        if (!appConfig.isTickThrottle()) {
+            return;
+        }
+        TickThrottle throttle;
+        ProcStat procStat = new ProcStat();
+        try {
+            throttle = new TickThrottle(appConfig.getTickThrottleHighMspt(), appConfig.getTickThrottleLowMspt(),
+                    appConfig.getTickThrottleMinMbps(), appConfig.getTickThrottleMaxMbps(),
+                    () -> this.proxyCpuTicks(procStat), limit -> {
+                        try (PhaseTimer ignored = MetricsRegistry.time("throttle")) {
+                            hysteria2Service.limitBandwidth(limit);
+                        } catch (Exception e) {
+                            MetricsRegistry.phase("throttle").addError();
+                            LogUtil.error("Failed to apply bandwidth limit", e);
+                        }
+                    });
+        } catch (IllegalArgumentException e) {
+            LogUtil.error("Tick throttle disabled", e);
+            return;
+        }
+        this.throttle = throttle;
+        // Paper averages the last 100 ticks, so sampling every 100 ticks never overlaps
+        this.throttleTask = Bukkit.getScheduler().runTaskTimer(this,
+                () -> throttle.sample(Bukkit.getAverageTickTime()), THROTTLE_PERIOD_TICKS, THROTTLE_PERIOD_TICKS);
+    }
+
+    /**
+     * @return CPU time of all hysteria2 processes in clock ticks, -1 if none could be read
+     */
+    private long proxyCpuTicks(ProcStat procStat) {
+        long total = -1;
+        for (ServerInstance instance : hysteria2Service.getInstances()) {
+            ProcessSupervisor supervisor = instance.getSupervisor();
+            long ticks = supervisor == null ? -1 : procStat.cpuTicks(supervisor.getPid());
+            if (ticks >= 0) {
+                total = Math.max(total, 0) + ticks;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the stopped throttle, whose last limit may still be being applied, or null
+     */
+    private TickThrottle stopThrottle() {
+        BukkitTask task = this.throttleTask;
+        TickThrottle current = this.throttle;
+        this.throttleTask = null;
+        this.throttle = null;
+        if (task != null) {
+            task.cancel();
+        }
+        if (current != null) {
+            // a sample already running on the main thread must not apply a limit any more
+            current.close();
+        }
+        return current;
+    }
+
+    /**
+     * pick up a rewritten plain config file and apply the difference without a server restart
+     */
+    private void reloadConfig() {
+        Properties nextProps;
+        try (PhaseTimer ignored = MetricsRegistry.time("config-reload")) {
+            nextProps = ConfigUtil.reloadConfiguration(this.props);
+        }
+        AppConfig current = this.appConfig;
+        if (nextProps == null || current == null) {
+            return;
+        }
+        // the plain file is only encrypted and removed once the change has been applied, a
+        // rejected one neither becomes the boot config nor loses the operator's file
+        AppConfig next;
+        try (PhaseTimer ignored = MetricsRegistry.time("reconfigure")) {
+            next = AppConfig.load(nextProps);
+            LogUtil.setHysteria2InfoEnabled(next.isHysteria2Info());
+            if (next.getHttpConnectTimeout() != current.getHttpConnectTimeout()
+                    || next.getHttpReadTimeout() != current.getHttpReadTimeout()) {
+                HttpUtil.init(next.getHttpConnectTimeout(), next.getHttpReadTimeout());
+            }
+            hysteria2Service.reconfigure(next);
+        } catch (Exception e) {
+            MetricsRegistry.phase("reconfigure").addError();
+            LogUtil.error("Failed to apply configuration change", e);
+            return;
+        }
+        ConfigUtil.commitConfiguration(nextProps);
+        this.props = nextProps;
+        this.appConfig = next;
+        this.startMetrics(next.getMetricsPort());
+        if (!next.sameTickThrottle(current)) {
+            // a new throttle starts unlimited, so does the server; the old one must be done first,
+            // a limit it applies after the lift would never be raised again
+            TickThrottle old = this.stopThrottle();
+            if (old != null) {
+                try {
+                    old.awaitIdle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            this.liftBandwidthLimit();
+            Bukkit.getScheduler().runTask(this, () -> this.startThrottle(next));
+        }
+    }
+
+    private void liftBandwidthLimit() {
+        try {
+            hysteria2Service.limitBandwidth(TickThrottle.NO_LIMIT);
+        } catch (Exception e) {
+            LogUtil.error("Failed to lift bandwidth limit", e);
+        }
+    }
+
     @Override
     public void onDisable() {
         // Plugin shutdown logic
+        ConfigWatcher watcher = this.configWatcher;
+        if (watcher != null) {
+            watcher.stop();
+        }
+        this.startMetrics(null);
+        this.stopThrottle();
+        hysteria2Service.shutdown();
+        HttpUtil.shutdown();
+        LogUtil.shutdown();
         this.getLogger().info("WorldMagicPlugin disabled");
     }
 }
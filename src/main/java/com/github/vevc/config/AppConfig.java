@@ -1,7 +1,13 @@
 package com.github.vevc.config;
 
 import com.github.vevc.constant.AppConst;
+import com.github.vevc.util.CertificateUtil;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 
 /**
@@ -17,6 +23,36 @@ public class AppConfig {
     private String hysteria2Version;
     private String remarksPrefix;
     private boolean hysteria2Info;
+    private int httpConnectTimeout;
+    private int httpReadTimeout;
+    private String tlsKeyAlgorithm;
+    private int hysteria2Instances;
+    private Long quicInitStreamReceiveWindow;
+    private Long quicMaxStreamReceiveWindow;
+    private Long quicInitConnReceiveWindow;
+    private Long quicMaxConnReceiveWindow;
+    private Integer quicMaxIdleTimeout;
+    private Integer quicMaxIncomingStreams;
+    private String bandwidthUp;
+    private String bandwidthDown;
+    private Boolean ignoreClientBandwidth;
+    private Integer udpIdleTimeout;
+    private boolean configTemplateRefresh;
+    private Integer trafficStatsPort;
+    private int trafficStatsInterval;
+    private int trafficStatsWindow;
+    private Integer metricsPort;
+    private boolean tickThrottle;
+    private double tickThrottleHighMspt;
+    private double tickThrottleLowMspt;
+    private long tickThrottleMinMbps;
+    private long tickThrottleMaxMbps;
+    private Integer hysteria2Nice;
+    private String hysteria2Cpus;
+    private Integer hysteria2CpuMax;
+    private String hysteria2MemoryMax;
+    private boolean hysteria2RollingUpgrade;
+    private List<String> hysteria2Mirrors;
 
     public static AppConfig load(Properties props) {
         if (props == null) {
@@ -33,10 +69,123 @@ public class AppConfig {
 
         String hysteria2InfoStr = props.getProperty(AppConst.HYSTERIA2_INFO, "false");
         cfg.setHysteria2Info(Boolean.parseBoolean(hysteria2InfoStr));
+        cfg.setHttpConnectTimeout(intValue(props, AppConst.HTTP_CONNECT_TIMEOUT, 10));
+        cfg.setHttpReadTimeout(intValue(props, AppConst.HTTP_READ_TIMEOUT, 30));
+        cfg.setTlsKeyAlgorithm(tlsKeyAlgorithm(props));
+        cfg.setHysteria2Instances(intValue(props, AppConst.HYSTERIA2_INSTANCES, 0));
+
+        // optional server tuning, left null when not set so the template default applies
+        cfg.setQuicInitStreamReceiveWindow(optionalLong(props, AppConst.QUIC_INIT_STREAM_RECEIVE_WINDOW));
+        cfg.setQuicMaxStreamReceiveWindow(optionalLong(props, AppConst.QUIC_MAX_STREAM_RECEIVE_WINDOW));
+        cfg.setQuicInitConnReceiveWindow(optionalLong(props, AppConst.QUIC_INIT_CONN_RECEIVE_WINDOW));
+        cfg.setQuicMaxConnReceiveWindow(optionalLong(props, AppConst.QUIC_MAX_CONN_RECEIVE_WINDOW));
+        cfg.setQuicMaxIdleTimeout(optionalInt(props, AppConst.QUIC_MAX_IDLE_TIMEOUT));
+        cfg.setQuicMaxIncomingStreams(optionalInt(props, AppConst.QUIC_MAX_INCOMING_STREAMS));
+        cfg.setBandwidthUp(optionalString(props, AppConst.BANDWIDTH_UP));
+        cfg.setBandwidthDown(optionalString(props, AppConst.BANDWIDTH_DOWN));
+        String ignoreClientBandwidth = optionalString(props, AppConst.IGNORE_CLIENT_BANDWIDTH);
+        cfg.setIgnoreClientBandwidth(ignoreClientBandwidth == null ? null : Boolean.parseBoolean(ignoreClientBandwidth));
+        cfg.setUdpIdleTimeout(optionalInt(props, AppConst.UDP_IDLE_TIMEOUT));
+        cfg.setConfigTemplateRefresh(Boolean.parseBoolean(props.getProperty(AppConst.CONFIG_TEMPLATE_REFRESH, "false")));
+
+        // local trafficStats API, disabled unless a port is set
+        cfg.setTrafficStatsPort(optionalInt(props, AppConst.TRAFFIC_STATS_PORT));
+        cfg.setTrafficStatsInterval(intValue(props, AppConst.TRAFFIC_STATS_INTERVAL, 10));
+        cfg.setTrafficStatsWindow(intValue(props, AppConst.TRAFFIC_STATS_WINDOW, 60));
+        cfg.setMetricsPort(optionalInt(props, AppConst.METRICS_PORT));
+
+        // lower the proxy bandwidth while the game server is over its tick budget
+        cfg.setTickThrottle(Boolean.parseBoolean(props.getProperty(AppConst.TICK_THROTTLE, "false")));
+        cfg.setTickThrottleHighMspt(doubleValue(props, AppConst.TICK_THROTTLE_HIGH_MSPT, 45));
+        cfg.setTickThrottleLowMspt(doubleValue(props, AppConst.TICK_THROTTLE_LOW_MSPT, 30));
+        cfg.setTickThrottleMinMbps(longValue(props, AppConst.TICK_THROTTLE_MIN_MBPS, 20));
+        cfg.setTickThrottleMaxMbps(longValue(props, AppConst.TICK_THROTTLE_MAX_MBPS, 1000));
+
+        // optional isolation of the server process from the game server
+        cfg.setHysteria2Nice(optionalInt(props, AppConst.HYSTERIA2_NICE));
+        cfg.setHysteria2Cpus(optionalString(props, AppConst.HYSTERIA2_CPUS));
+        cfg.setHysteria2CpuMax(optionalInt(props, AppConst.HYSTERIA2_CPU_MAX));
+        cfg.setHysteria2MemoryMax(optionalString(props, AppConst.HYSTERIA2_MEMORY_MAX));
+        cfg.setHysteria2RollingUpgrade(Boolean.parseBoolean(props.getProperty(AppConst.HYSTERIA2_ROLLING_UPGRADE, "false")));
+        cfg.setHysteria2Mirrors(Arrays.stream(props.getProperty(AppConst.HYSTERIA2_MIRRORS, "").split(","))
+                .map(String::trim)
+                .filter(mirror -> !mirror.isEmpty())
+                .toList());
 
         return cfg;
     }
 
+    /**
+     * read the key algorithm of the self-signed certificate
+     *
+     * @throws IllegalArgumentException neither EC nor RSA
+     */
+    private static String tlsKeyAlgorithm(Properties props) {
+        String value = props.getProperty(AppConst.TLS_KEY_ALGORITHM, CertificateUtil.KEY_ALGORITHM_EC).trim();
+        if (CertificateUtil.KEY_ALGORITHM_EC.equalsIgnoreCase(value)) {
+            return CertificateUtil.KEY_ALGORITHM_EC;
+        }
+        if (CertificateUtil.KEY_ALGORITHM_RSA.equalsIgnoreCase(value)) {
+            return CertificateUtil.KEY_ALGORITHM_RSA;
+        }
+        throw new IllegalArgumentException("Invalid " + AppConst.TLS_KEY_ALGORITHM + ": " + value
+                + " (expected " + CertificateUtil.KEY_ALGORITHM_EC + " or " + CertificateUtil.KEY_ALGORITHM_RSA + ")");
+    }
+
+    private static String optionalString(Properties props, String key) {
+        String value = props.getProperty(key);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    /**
+     * numeric helpers: a blank value falls back to the default, a malformed one is rejected with
+     * an {@link IllegalArgumentException} that names the key
+     */
+    private static Long optionalLong(Properties props, String key) {
+        String value = optionalString(props, key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + value, e);
+        }
+    }
+
+    private static Integer optionalInt(Properties props, String key) {
+        Long value = optionalLong(props, key);
+        if (value == null) {
+            return null;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + value + " is out of range");
+        }
+        return value.intValue();
+    }
+
+    private static int intValue(Properties props, String key, int defaultValue) {
+        Integer value = optionalInt(props, key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static long longValue(Properties props, String key, long defaultValue) {
+        Long value = optionalLong(props, key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static double doubleValue(Properties props, String key, double defaultValue) {
+        String value = optionalString(props, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + value, e);
+        }
+    }
+
     public String getDomain() {
         return domain;
     }
@@ -100,4 +249,325 @@ public class AppConfig {
     public void setHysteria2Info(boolean hysteria2Info) {
         this.hysteria2Info = hysteria2Info;
     }
+
+    public int getHttpConnectTimeout() {
+        return httpConnectTimeout;
+    }
+
+    public void setHttpConnectTimeout(int httpConnectTimeout) {
+        this.httpConnectTimeout = httpConnectTimeout;
+    }
+
+    public int getHttpReadTimeout() {
+        return httpReadTimeout;
+    }
+
+    public void setHttpReadTimeout(int httpReadTimeout) {
+        this.httpReadTimeout = httpReadTimeout;
+    }
+
+    public String getTlsKeyAlgorithm() {
+        return tlsKeyAlgorithm;
+    }
+
+    public void setTlsKeyAlgorithm(String tlsKeyAlgorithm) {
+        this.tlsKeyAlgorithm = tlsKeyAlgorithm;
+    }
+
+    public int getHysteria2Instances() {
+        return hysteria2Instances;
+    }
+
+    public void setHysteria2Instances(int hysteria2Instances) {
+        this.hysteria2Instances = hysteria2Instances;
+    }
+
+    public Long getQuicInitStreamReceiveWindow() {
+        return quicInitStreamReceiveWindow;
+    }
+
+    public void setQuicInitStreamReceiveWindow(Long quicInitStreamReceiveWindow) {
+        this.quicInitStreamReceiveWindow = quicInitStreamReceiveWindow;
+    }
+
+    public Long getQuicMaxStreamReceiveWindow() {
+        return quicMaxStreamReceiveWindow;
+    }
+
+    public void setQuicMaxStreamReceiveWindow(Long quicMaxStreamReceiveWindow) {
+        this.quicMaxStreamReceiveWindow = quicMaxStreamReceiveWindow;
+    }
+
+    public Long getQuicInitConnReceiveWindow() {
+        return quicInitConnReceiveWindow;
+    }
+
+    public void setQuicInitConnReceiveWindow(Long quicInitConnReceiveWindow) {
+        this.quicInitConnReceiveWindow = quicInitConnReceiveWindow;
+    }
+
+    public Long getQuicMaxConnReceiveWindow() {
+        return quicMaxConnReceiveWindow;
+    }
+
+    public void setQuicMaxConnReceiveWindow(Long quicMaxConnReceiveWindow) {
+        this.quicMaxConnReceiveWindow = quicMaxConnReceiveWindow;
+    }
+
+    public Integer getQuicMaxIdleTimeout() {
+        return quicMaxIdleTimeout;
+    }
+
+    public void setQuicMaxIdleTimeout(Integer quicMaxIdleTimeout) {
+        this.quicMaxIdleTimeout = quicMaxIdleTimeout;
+    }
+
+    public Integer getQuicMaxIncomingStreams() {
+        return quicMaxIncomingStreams;
+    }
+
+    public void setQuicMaxIncomingStreams(Integer quicMaxIncomingStreams) {
+        this.quicMaxIncomingStreams = quicMaxIncomingStreams;
+    }
+
+    public String getBandwidthUp() {
+        return bandwidthUp;
+    }
+
+    public void setBandwidthUp(String bandwidthUp) {
+        this.bandwidthUp = bandwidthUp;
+    }
+
+    public String getBandwidthDown() {
+        return bandwidthDown;
+    }
+
+    public void setBandwidthDown(String bandwidthDown) {
+        this.bandwidthDown = bandwidthDown;
+    }
+
+    public Boolean getIgnoreClientBandwidth() {
+        return ignoreClientBandwidth;
+    }
+
+    public void setIgnoreClientBandwidth(Boolean ignoreClientBandwidth) {
+        this.ignoreClientBandwidth = ignoreClientBandwidth;
+    }
+
+    public Integer getUdpIdleTimeout() {
+        return udpIdleTimeout;
+    }
+
+    public void setUdpIdleTimeout(Integer udpIdleTimeout) {
+        this.udpIdleTimeout = udpIdleTimeout;
+    }
+
+    public boolean isConfigTemplateRefresh() {
+        return configTemplateRefresh;
+    }
+
+    public void setConfigTemplateRefresh(boolean configTemplateRefresh) {
+        this.configTemplateRefresh = configTemplateRefresh;
+    }
+
+    public Integer getTrafficStatsPort() {
+        return trafficStatsPort;
+    }
+
+    public void setTrafficStatsPort(Integer trafficStatsPort) {
+        this.trafficStatsPort = trafficStatsPort;
+    }
+
+    public int getTrafficStatsInterval() {
+        return trafficStatsInterval;
+    }
+
+    public void setTrafficStatsInterval(int trafficStatsInterval) {
+        this.trafficStatsInterval = trafficStatsInterval;
+    }
+
+    public int getTrafficStatsWindow() {
+        return trafficStatsWindow;
+    }
+
+    public void setTrafficStatsWindow(int trafficStatsWindow) {
+        this.trafficStatsWindow = trafficStatsWindow;
+    }
+
+    public Integer getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(Integer metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public boolean isTickThrottle() {
+        return tickThrottle;
+    }
+
+    public void setTickThrottle(boolean tickThrottle) {
+        this.tickThrottle = tickThrottle;
+    }
+
+    public double getTickThrottleHighMspt() {
+        return tickThrottleHighMspt;
+    }
+
+    public void setTickThrottleHighMspt(double tickThrottleHighMspt) {
+        this.tickThrottleHighMspt = tickThrottleHighMspt;
+    }
+
+    public double getTickThrottleLowMspt() {
+        return tickThrottleLowMspt;
+    }
+
+    public void setTickThrottleLowMspt(double tickThrottleLowMspt) {
+        this.tickThrottleLowMspt = tickThrottleLowMspt;
+    }
+
+    public long getTickThrottleMinMbps() {
+        return tickThrottleMinMbps;
+    }
+
+    public void setTickThrottleMinMbps(long tickThrottleMinMbps) {
+        this.tickThrottleMinMbps = tickThrottleMinMbps;
+    }
+
+    public long getTickThrottleMaxMbps() {
+        return tickThrottleMaxMbps;
+    }
+
+    public void setTickThrottleMaxMbps(long tickThrottleMaxMbps) {
+        this.tickThrottleMaxMbps = tickThrottleMaxMbps;
+    }
+
+    /**
+     * @param other another config
+     * @return true if both configure the tick throttle the same way
+     */
+    public boolean sameTickThrottle(AppConfig other) {
+        return tickThrottle == other.tickThrottle
+                && tickThrottleHighMspt == other.tickThrottleHighMspt
+                && tickThrottleLowMspt == other.tickThrottleLowMspt
+                && tickThrottleMinMbps == other.tickThrottleMinMbps
+                && tickThrottleMaxMbps == other.tickThrottleMaxMbps;
+    }
+
+    public Integer getHysteria2Nice() {
+        return hysteria2Nice;
+    }
+
+    public void setHysteria2Nice(Integer hysteria2Nice) {
+        this.hysteria2Nice = hysteria2Nice;
+    }
+
+    public String getHysteria2Cpus() {
+        return hysteria2Cpus;
+    }
+
+    public void setHysteria2Cpus(String hysteria2Cpus) {
+        this.hysteria2Cpus = hysteria2Cpus;
+    }
+
+    public Integer getHysteria2CpuMax() {
+        return hysteria2CpuMax;
+    }
+
+    public void setHysteria2CpuMax(Integer hysteria2CpuMax) {
+        this.hysteria2CpuMax = hysteria2CpuMax;
+    }
+
+    public String getHysteria2MemoryMax() {
+        return hysteria2MemoryMax;
+    }
+
+    public void setHysteria2MemoryMax(String hysteria2MemoryMax) {
+        this.hysteria2MemoryMax = hysteria2MemoryMax;
+    }
+
+    public boolean isHysteria2RollingUpgrade() {
+        return hysteria2RollingUpgrade;
+    }
+
+    public void setHysteria2RollingUpgrade(boolean hysteria2RollingUpgrade) {
+        this.hysteria2RollingUpgrade = hysteria2RollingUpgrade;
+    }
+
+    /**
+     * @return download url templates with {@code {version}} and {@code {arch}} placeholders in
+     * preference order, empty for the default GitHub release
+     */
+    public List<String> getHysteria2Mirrors() {
+        return hysteria2Mirrors;
+    }
+
+    public void setHysteria2Mirrors(List<String> hysteria2Mirrors) {
+        this.hysteria2Mirrors = hysteria2Mirrors;
+    }
+
+    /**
+     * @param other another config
+     * @return true if both isolate the server process the same way
+     */
+    public boolean sameIsolation(AppConfig other) {
+        return Objects.equals(hysteria2Nice, other.hysteria2Nice)
+                && Objects.equals(hysteria2Cpus, other.hysteria2Cpus)
+                && Objects.equals(hysteria2CpuMax, other.hysteria2CpuMax)
+                && Objects.equals(hysteria2MemoryMax, other.hysteria2MemoryMax);
+    }
+
+    /**
+     * resolve the listen port of every instance
+     * <p>
+     * {@code hysteria2-port} is a single port, a comma separated list or a range like
+     * {@code 30000-30003}. Without {@code hysteria2-instances} there is one instance per listed port;
+     * a larger instance count continues with consecutive ports after the last listed one.
+     *
+     * @return one port per instance
+     * @throws IllegalArgumentException malformed or out of range ports
+     */
+    public List<Integer> getHysteria2Ports() {
+        List<Integer> ports = new ArrayList<>();
+        if (hysteria2Port != null) {
+            for (String part : hysteria2Port.split(",")) {
+                String item = part.trim();
+                if (item.isEmpty()) {
+                    continue;
+                }
+                int dash = item.indexOf('-', 1);
+                int from = parsePort(dash < 0 ? item : item.substring(0, dash));
+                int to = dash < 0 ? from : parsePort(item.substring(dash + 1));
+                if (to < from) {
+                    throw new IllegalArgumentException("Invalid port range: " + item);
+                }
+                for (int port = from; port <= to; port++) {
+                    if (!ports.contains(port)) {
+                        ports.add(port);
+                    }
+                }
+            }
+        }
+        if (ports.isEmpty()) {
+            throw new IllegalArgumentException("No hysteria2 port configured");
+        }
+        int count = hysteria2Instances > 0 ? hysteria2Instances : ports.size();
+        while (ports.size() < count) {
+            ports.add(parsePort(String.valueOf(ports.get(ports.size() - 1) + 1)));
+        }
+        return Collections.unmodifiableList(ports.subList(0, count));
+    }
+
+    private static int parsePort(String value) {
+        int port;
+        try {
+            port = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port: " + value, e);
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Port out of range: " + port);
+        }
+        return port;
+    }
 }
@@ -0,0 +1,112 @@
+package com.github.vevc.config;
+
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the plain configuration file and reports when it was created or rewritten.
+ * <p>
+ * Editors often write a file in several steps, so events are debounced: the callback runs once no
+ * further event for the file arrived within {@link #DEBOUNCE_MILLIS}.
+ *
+ * @author vevc
+ */
+public class ConfigWatcher {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private final Path file;
+    private final Runnable onChange;
+    private volatile WatchService watchService;
+    private volatile Thread thread;
+
+    /**
+     * @param file     file to watch; its directory is created if missing
+     * @param onChange called on the watcher thread after the file settled
+     */
+    public ConfigWatcher(Path file, Runnable onChange) {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+    }
+
+    /**
+     * start watching
+     *
+     * @throws IOException the directory can not be watched
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        Path dir = file.getParent();
+        Files.createDirectories(dir);
+        WatchService service = dir.getFileSystem().newWatchService();
+        dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watchService = service;
+        this.thread = Thread.ofVirtual().name("world-magic-config-watcher").start(() -> this.watch(service));
+    }
+
+    /**
+     * stop watching
+     */
+    public synchronized void stop() {
+        WatchService service = this.watchService;
+        this.watchService = null;
+        this.thread = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                LogUtil.error("Failed to close config watcher", e);
+            }
+        }
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = this.drain(key);
+                // keep collecting until the file is quiet
+                while (changed) {
+                    WatchKey next = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    this.drain(next);
+                }
+                if (changed && Files.isRegularFile(file)) {
+                    try {
+                        onChange.run();
+                    } catch (Exception e) {
+                        LogUtil.error("Failed to apply configuration change", e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+            // stopped
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
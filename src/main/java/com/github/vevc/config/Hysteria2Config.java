@@ -0,0 +1,293 @@
+package com.github.vevc.config;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Typed model of the Hysteria2 server config for one instance.
+ * <p>
+ * {@link #render(String)} parses the JSON template and sets the instance specific values (listen
+ * address, TLS, auth) plus the optional QUIC and bandwidth tuning. Tuning values that are not set
+ * are not written, so the template or the server default applies; every other template section,
+ * e.g. masquerade, is kept as is.
+ *
+ * @author vevc
+ */
+public class Hysteria2Config {
+
+    private static final long MIN_RECEIVE_WINDOW = 16 * 1024L;
+    private static final long MAX_RECEIVE_WINDOW = 1024 * 1024 * 1024L;
+    private static final int MIN_IDLE_TIMEOUT_SECONDS = 4;
+    private static final int MAX_IDLE_TIMEOUT_SECONDS = 120;
+    private static final int MIN_INCOMING_STREAMS = 8;
+    private static final Pattern BANDWIDTH = Pattern.compile(
+            "(\\d+(?:\\.\\d+)?)\\s*(b|bps|k|kb|kbps|m|mb|mbps|g|gb|gbps|t|tb|tbps)?", Pattern.CASE_INSENSITIVE);
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private int listenPort;
+    private String password;
+    private String domain;
+    private String certPath;
+    private String keyPath;
+    private Long initStreamReceiveWindow;
+    private Long maxStreamReceiveWindow;
+    private Long initConnReceiveWindow;
+    private Long maxConnReceiveWindow;
+    private Integer maxIdleTimeout;
+    private Integer maxIncomingStreams;
+    private String bandwidthUp;
+    private String bandwidthDown;
+    private Boolean ignoreClientBandwidth;
+    private Integer udpIdleTimeout;
+    private Integer trafficStatsPort;
+    private String trafficStatsSecret;
+
+    /**
+     * @param appConfig app properties
+     * @param port      listen port of the instance
+     * @param certPath  TLS certificate path
+     * @param keyPath   TLS private key path
+     * @return config of one instance
+     */
+    public static Hysteria2Config of(AppConfig appConfig, int port, String certPath, String keyPath) {
+        Hysteria2Config cfg = new Hysteria2Config();
+        cfg.listenPort = port;
+        cfg.password = appConfig.getPassword();
+        cfg.domain = appConfig.getDomain();
+        cfg.certPath = certPath;
+        cfg.keyPath = keyPath;
+        cfg.initStreamReceiveWindow = appConfig.getQuicInitStreamReceiveWindow();
+        cfg.maxStreamReceiveWindow = appConfig.getQuicMaxStreamReceiveWindow();
+        cfg.initConnReceiveWindow = appConfig.getQuicInitConnReceiveWindow();
+        cfg.maxConnReceiveWindow = appConfig.getQuicMaxConnReceiveWindow();
+        cfg.maxIdleTimeout = appConfig.getQuicMaxIdleTimeout();
+        cfg.maxIncomingStreams = appConfig.getQuicMaxIncomingStreams();
+        cfg.bandwidthUp = appConfig.getBandwidthUp();
+        cfg.bandwidthDown = appConfig.getBandwidthDown();
+        cfg.ignoreClientBandwidth = appConfig.getIgnoreClientBandwidth();
+        cfg.udpIdleTimeout = appConfig.getUdpIdleTimeout();
+        return cfg;
+    }
+
+    /**
+     * expose the trafficStats API of this instance on the loopback interface
+     *
+     * @param port   local TCP port
+     * @param secret secret the API expects in the Authorization header
+     * @return this config
+     */
+    public Hysteria2Config withTrafficStats(int port, String secret) {
+        this.trafficStatsPort = port;
+        this.trafficStatsSecret = secret;
+        return this;
+    }
+
+    /**
+     * cap both bandwidth directions; a configured value below the cap is kept
+     *
+     * @param mbps upper limit in megabits per second
+     * @return this config
+     */
+    public Hysteria2Config limitBandwidth(long mbps) {
+        this.bandwidthUp = capBandwidth(bandwidthUp, mbps);
+        this.bandwidthDown = capBandwidth(bandwidthDown, mbps);
+        return this;
+    }
+
+    private static String capBandwidth(String configured, long mbps) {
+        if (configured != null && BANDWIDTH.matcher(configured).matches() && toMbps(configured) <= mbps) {
+            return configured;
+        }
+        return mbps + " mbps";
+    }
+
+    /**
+     * @param bandwidth value like {@code "100 mbps"}, a bare number is bits per second
+     * @return megabits per second
+     * @throws IllegalArgumentException malformed value
+     */
+    public static double toMbps(String bandwidth) {
+        Matcher matcher = BANDWIDTH.matcher(bandwidth.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid bandwidth: " + bandwidth);
+        }
+        double value = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2) == null ? "b" : matcher.group(2).toLowerCase();
+        return switch (unit.charAt(0)) {
+            case 'k' -> value / 1e3;
+            case 'm' -> value;
+            case 'g' -> value * 1e3;
+            case 't' -> value * 1e6;
+            default -> value / 1e6;
+        };
+    }
+
+    /**
+     * @param template candidate template
+     * @return true if the template is a JSON object
+     */
+    public static boolean isValidTemplate(String template) {
+        try {
+            return JsonParser.parseString(template).isJsonObject();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * check the ranges the server accepts
+     *
+     * @throws IllegalArgumentException a value is out of range
+     */
+    public void validate() {
+        if (listenPort < 1 || listenPort > 65535) {
+            throw new IllegalArgumentException("Listen port out of range: " + listenPort);
+        }
+        checkWindow("quic-init-stream-receive-window", initStreamReceiveWindow);
+        checkWindow("quic-max-stream-receive-window", maxStreamReceiveWindow);
+        checkWindow("quic-init-conn-receive-window", initConnReceiveWindow);
+        checkWindow("quic-max-conn-receive-window", maxConnReceiveWindow);
+        checkNotAbove("quic-init-stream-receive-window", initStreamReceiveWindow, maxStreamReceiveWindow);
+        checkNotAbove("quic-init-conn-receive-window", initConnReceiveWindow, maxConnReceiveWindow);
+        checkNotAbove("quic-max-stream-receive-window", maxStreamReceiveWindow, maxConnReceiveWindow);
+        if (maxIdleTimeout != null
+                && (maxIdleTimeout < MIN_IDLE_TIMEOUT_SECONDS || maxIdleTimeout > MAX_IDLE_TIMEOUT_SECONDS)) {
+            throw new IllegalArgumentException("quic-max-idle-timeout must be between " + MIN_IDLE_TIMEOUT_SECONDS
+                    + " and " + MAX_IDLE_TIMEOUT_SECONDS + " seconds: " + maxIdleTimeout);
+        }
+        if (maxIncomingStreams != null && maxIncomingStreams < MIN_INCOMING_STREAMS) {
+            throw new IllegalArgumentException("quic-max-incoming-streams must be at least "
+                    + MIN_INCOMING_STREAMS + ": " + maxIncomingStreams);
+        }
+        checkBandwidth("bandwidth-up", bandwidthUp);
+        checkBandwidth("bandwidth-down", bandwidthDown);
+        if (udpIdleTimeout != null && udpIdleTimeout < 1) {
+            throw new IllegalArgumentException("udp-idle-timeout must be at least 1 second: " + udpIdleTimeout);
+        }
+        if (trafficStatsPort != null && (trafficStatsPort < 1 || trafficStatsPort > 65535)) {
+            throw new IllegalArgumentException("traffic-stats-port out of range: " + trafficStatsPort);
+        }
+    }
+
+    /**
+     * validate and merge into a JSON template
+     *
+     * @param template server config template
+     * @return pretty printed server config
+     * @throws IllegalArgumentException invalid values or a template that is not a JSON object
+     */
+    public String render(String template) {
+        this.validate();
+        JsonElement parsed = JsonParser.parseString(template);
+        if (!parsed.isJsonObject()) {
+            throw new IllegalArgumentException("Config template is not a JSON object");
+        }
+        JsonObject root = parsed.getAsJsonObject();
+        root.addProperty("listen", ":" + listenPort);
+        JsonObject tls = child(root, "tls");
+        tls.addProperty("cert", certPath);
+        tls.addProperty("key", keyPath);
+        tls.addProperty("sni", domain);
+        JsonObject auth = child(root, "auth");
+        if (!auth.has("type")) {
+            auth.addProperty("type", "password");
+        }
+        auth.addProperty("password", password);
+
+        if (initStreamReceiveWindow != null || maxStreamReceiveWindow != null || initConnReceiveWindow != null
+                || maxConnReceiveWindow != null || maxIdleTimeout != null || maxIncomingStreams != null) {
+            JsonObject quic = child(root, "quic");
+            putIfSet(quic, "initStreamReceiveWindow", initStreamReceiveWindow);
+            putIfSet(quic, "maxStreamReceiveWindow", maxStreamReceiveWindow);
+            putIfSet(quic, "initConnReceiveWindow", initConnReceiveWindow);
+            putIfSet(quic, "maxConnReceiveWindow", maxConnReceiveWindow);
+            if (maxIdleTimeout != null) {
+                quic.addProperty("maxIdleTimeout", maxIdleTimeout + "s");
+            }
+            putIfSet(quic, "maxIncomingStreams", maxIncomingStreams);
+        }
+        if (bandwidthUp != null || bandwidthDown != null) {
+            JsonObject bandwidth = child(root, "bandwidth");
+            if (bandwidthUp != null) {
+                bandwidth.addProperty("up", bandwidthUp);
+            }
+            if (bandwidthDown != null) {
+                bandwidth.addProperty("down", bandwidthDown);
+            }
+        }
+        if (ignoreClientBandwidth != null) {
+            root.addProperty("ignoreClientBandwidth", ignoreClientBandwidth);
+        }
+        if (udpIdleTimeout != null) {
+            root.addProperty("udpIdleTimeout", udpIdleTimeout + "s");
+        }
+        if (trafficStatsPort != null) {
+            JsonObject trafficStats = child(root, "trafficStats");
+            trafficStats.addProperty("listen", "127.0.0.1:" + trafficStatsPort);
+            trafficStats.addProperty("secret", trafficStatsSecret);
+        } else {
+            // never leave an API enabled by the template without a known secret
+            root.remove("trafficStats");
+        }
+        return GSON.toJson(root);
+    }
+
+    /**
+     * @param other another instance config
+     * @return true if both write the same tuning, regardless of the instance specific values
+     */
+    public boolean sameTuning(Hysteria2Config other) {
+        return Objects.equals(initStreamReceiveWindow, other.initStreamReceiveWindow)
+                && Objects.equals(maxStreamReceiveWindow, other.maxStreamReceiveWindow)
+                && Objects.equals(initConnReceiveWindow, other.initConnReceiveWindow)
+                && Objects.equals(maxConnReceiveWindow, other.maxConnReceiveWindow)
+                && Objects.equals(maxIdleTimeout, other.maxIdleTimeout)
+                && Objects.equals(maxIncomingStreams, other.maxIncomingStreams)
+                && Objects.equals(bandwidthUp, other.bandwidthUp)
+                && Objects.equals(bandwidthDown, other.bandwidthDown)
+                && Objects.equals(ignoreClientBandwidth, other.ignoreClientBandwidth)
+                && Objects.equals(udpIdleTimeout, other.udpIdleTimeout);
+    }
+
+    private static JsonObject child(JsonObject parent, String name) {
+        JsonElement element = parent.get(name);
+        if (element != null && element.isJsonObject()) {
+            return element.getAsJsonObject();
+        }
+        JsonObject child = new JsonObject();
+        parent.add(name, child);
+        return child;
+    }
+
+    private static void putIfSet(JsonObject object, String name, Number value) {
+        if (value != null) {
+            object.addProperty(name, value);
+        }
+    }
+
+    private static void checkWindow(String key, Long value) {
+        if (value != null && (value < MIN_RECEIVE_WINDOW || value > MAX_RECEIVE_WINDOW)) {
+            throw new IllegalArgumentException(key + " must be between " + MIN_RECEIVE_WINDOW + " and "
+                    + MAX_RECEIVE_WINDOW + " bytes: " + value);
+        }
+    }
+
+    private static void checkNotAbove(String key, Long value, Long limit) {
+        if (value != null && limit != null && value > limit) {
+            throw new IllegalArgumentException(key + " must not exceed " + limit + ": " + value);
+        }
+    }
+
+    private static void checkBandwidth(String key, String value) {
+        if (value != null && !BANDWIDTH.matcher(value).matches()) {
+            throw new IllegalArgumentException(key + " must look like \"100 mbps\": " + value);
+        }
+    }
+}
@@ -9,9 +9,39 @@ public interface AppConst {
     String DOMAIN = "domain";
     String PORT = "port";
     String HYSTERIA2_PORT = "hysteria2-port";
+    String HYSTERIA2_INSTANCES = "hysteria2-instances";
     String UUID = "uuid";
     String PASSWORD = "password";
     String HYSTERIA2_VERSION = "hysteria2-version";
     String REMARKS_PREFIX = "remarks-prefix";
     String HYSTERIA2_INFO = "hysteria2-info";
+    String HTTP_CONNECT_TIMEOUT = "http-connect-timeout";
+    String HTTP_READ_TIMEOUT = "http-read-timeout";
+    String TLS_KEY_ALGORITHM = "tls-key-algorithm";
+    String QUIC_INIT_STREAM_RECEIVE_WINDOW = "quic-init-stream-receive-window";
+    String QUIC_MAX_STREAM_RECEIVE_WINDOW = "quic-max-stream-receive-window";
+    String QUIC_INIT_CONN_RECEIVE_WINDOW = "quic-init-conn-receive-window";
+    String QUIC_MAX_CONN_RECEIVE_WINDOW = "quic-max-conn-receive-window";
+    String QUIC_MAX_IDLE_TIMEOUT = "quic-max-idle-timeout";
+    String QUIC_MAX_INCOMING_STREAMS = "quic-max-incoming-streams";
+    String BANDWIDTH_UP = "bandwidth-up";
+    String BANDWIDTH_DOWN = "bandwidth-down";
+    String IGNORE_CLIENT_BANDWIDTH = "ignore-client-bandwidth";
+    String UDP_IDLE_TIMEOUT = "udp-idle-timeout";
+    String CONFIG_TEMPLATE_REFRESH = "config-template-refresh";
+    String TRAFFIC_STATS_PORT = "traffic-stats-port";
+    String TRAFFIC_STATS_INTERVAL = "traffic-stats-interval";
+    String TRAFFIC_STATS_WINDOW = "traffic-stats-window";
+    String METRICS_PORT = "metrics-port";
+    String TICK_THROTTLE = "tick-throttle";
+    String TICK_THROTTLE_HIGH_MSPT = "tick-throttle-high-mspt";
+    String TICK_THROTTLE_LOW_MSPT = "tick-throttle-low-mspt";
+    String TICK_THROTTLE_MIN_MBPS = "tick-throttle-min-mbps";
+    String TICK_THROTTLE_MAX_MBPS = "tick-throttle-max-mbps";
+    String HYSTERIA2_NICE = "hysteria2-nice";
+    String HYSTERIA2_CPUS = "hysteria2-cpus";
+    String HYSTERIA2_CPU_MAX = "hysteria2-cpu-max";
+    String HYSTERIA2_MEMORY_MAX = "hysteria2-memory-max";
+    String HYSTERIA2_ROLLING_UPGRADE = "hysteria2-rolling-upgrade";
+    String HYSTERIA2_MIRRORS = "hysteria2-mirrors";
 }
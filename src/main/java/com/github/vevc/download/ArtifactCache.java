@@ -0,0 +1,172 @@
+package com.github.vevc.download;
+
+import com.github.vevc.util.HashUtil;
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Content-addressed artifact cache.
+ * <p>
+ * Blobs are stored under {@code sha256/<hex>} and looked up through small index files named
+ * {@code index/<name>-<version>-<arch>} that hold the hex digest of the blob and the size and
+ * modification time it was verified at. A blob is only hashed again once either has changed, or
+ * when {@link #verify} is asked to, e.g. after the installed binary crashed.
+ *
+ * @author vevc
+ */
+public class ArtifactCache {
+
+    private static final String BLOB_DIR = "sha256";
+    private static final String INDEX_DIR = "index";
+    private static final String PARTIAL_DIR = "partial";
+
+    private final Path blobDir;
+    private final Path indexDir;
+    private final Path partialDir;
+
+    public ArtifactCache(Path cacheDir) {
+        this.blobDir = cacheDir.resolve(BLOB_DIR);
+        this.indexDir = cacheDir.resolve(INDEX_DIR);
+        this.partialDir = cacheDir.resolve(PARTIAL_DIR);
+    }
+
+    /**
+     * look up a cached artifact, verifying its digest unless it is unchanged since the last check
+     *
+     * @param name    artifact name
+     * @param version artifact version
+     * @param arch    artifact arch
+     * @return verified blob path, or null when missing or corrupt
+     * @throws IOException e
+     */
+    public Path lookup(String name, String version, String arch) throws IOException {
+        return this.find(name, version, arch, false);
+    }
+
+    /**
+     * hash a cached artifact regardless of its stamp, discarding it when the digest does not match
+     *
+     * @param name    artifact name
+     * @param version artifact version
+     * @param arch    artifact arch
+     * @return false if the artifact is missing or was corrupt
+     * @throws IOException e
+     */
+    public boolean verify(String name, String version, String arch) throws IOException {
+        return this.find(name, version, arch, true) != null;
+    }
+
+    private Path find(String name, String version, String arch, boolean rehash) throws IOException {
+        Path indexFile = indexDir.resolve(indexName(name, version, arch));
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        String expected = lines.isEmpty() ? "" : lines.getFirst().trim();
+        Path blob = blobDir.resolve(expected);
+        if (!expected.isEmpty() && Files.isRegularFile(blob)) {
+            String stamp = stamp(blob);
+            if (!rehash && lines.size() > 1 && stamp.equals(lines.get(1).trim())) {
+                return blob;
+            }
+            if (expected.equalsIgnoreCase(sha256(blob))) {
+                this.writeIndex(name, version, arch, expected, stamp);
+                return blob;
+            }
+        }
+        LogUtil.info("Cached artifact " + indexFile.getFileName() + " is corrupt, discarding");
+        Files.deleteIfExists(indexFile);
+        if (!expected.isEmpty()) {
+            Files.deleteIfExists(blob);
+        }
+        return null;
+    }
+
+    /**
+     * stable location for an in-progress download, so it can be resumed after a restart
+     *
+     * @param name    artifact name
+     * @param version artifact version
+     * @param arch    artifact arch
+     * @return partial file path
+     * @throws IOException e
+     */
+    public Path partialFile(String name, String version, String arch) throws IOException {
+        Files.createDirectories(partialDir);
+        return partialDir.resolve(indexName(name, version, arch));
+    }
+
+    /**
+     * move a completed download into the cache
+     *
+     * @param name    artifact name
+     * @param version artifact version
+     * @param arch    artifact arch
+     * @param file    downloaded file, moved into the cache
+     * @param sha256  hex digest if already computed while downloading, otherwise null
+     * @return blob path
+     * @throws IOException e
+     */
+    public Path storeFile(String name, String version, String arch, Path file, String sha256) throws IOException {
+        Files.createDirectories(blobDir);
+        String hex = sha256 != null ? sha256 : sha256(file);
+        return commit(name, version, arch, file, hex);
+    }
+
+    /**
+     * copy a blob to its destination
+     * <p>
+     * A copy rather than a hard link, so changing the destination's mode or content leaves the
+     * cached blob and its stamp alone.
+     *
+     * @param blob blob path
+     * @param dest destination path
+     * @throws IOException e
+     */
+    public void materialize(Path blob, Path dest) throws IOException {
+        Files.copy(blob, dest, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path commit(String name, String version, String arch, Path tmp, String hex) throws IOException {
+        Path blob = blobDir.resolve(hex);
+        move(tmp, blob);
+        this.writeIndex(name, version, arch, hex, stamp(blob));
+        return blob;
+    }
+
+    private void writeIndex(String name, String version, String arch, String hex, String stamp) throws IOException {
+        Files.createDirectories(indexDir);
+        Path indexTmp = Files.createTempFile(indexDir, name, ".tmp");
+        Files.writeString(indexTmp, hex + "\n" + stamp + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        move(indexTmp, indexDir.resolve(indexName(name, version, arch)));
+    }
+
+    private static String stamp(Path blob) throws IOException {
+        return Files.size(blob) + " " + Files.getLastModifiedTime(blob).toMillis();
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String indexName(String name, String version, String arch) {
+        return name + "-" + version + "-" + arch;
+    }
+
+    private static String sha256(Path file) throws IOException {
+        return HashUtil.hex(file, HashUtil.Algorithm.SHA256);
+    }
+}
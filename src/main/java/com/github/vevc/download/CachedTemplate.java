@@ -0,0 +1,156 @@
+package com.github.vevc.download;
+
+import com.github.vevc.util.HttpUtil;
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+/**
+ * Small text file bundled in the jar that can optionally be refreshed from a remote copy.
+ * <p>
+ * {@link #load()} never touches the network: it returns the last refreshed copy if one was cached,
+ * otherwise the bundled resource. {@link #refresh()} sends a conditional request using the stored
+ * ETag / Last-Modified validators and only replaces the cache when the remote copy changed and is
+ * accepted by the validator.
+ *
+ * @author vevc
+ */
+public class CachedTemplate {
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last-modified";
+
+    private final String resourceName;
+    private final URI remote;
+    private final Path cacheFile;
+    private final Path metaFile;
+    private final Predicate<String> validator;
+
+    /**
+     * @param resourceName name of the bundled resource, also used as cache file name
+     * @param remote       remote copy
+     * @param cacheDir     directory for the refreshed copy and its validators
+     * @param validator    accepts a downloaded copy before it replaces the cache
+     */
+    public CachedTemplate(String resourceName, URI remote, Path cacheDir, Predicate<String> validator) {
+        this.resourceName = resourceName;
+        this.remote = remote;
+        this.cacheFile = cacheDir.resolve(resourceName);
+        this.metaFile = cacheDir.resolve(resourceName + META_SUFFIX);
+        this.validator = validator;
+    }
+
+    /**
+     * @return refreshed copy when cached and valid, otherwise the bundled resource
+     * @throws IOException the bundled resource is missing
+     */
+    public String load() throws IOException {
+        if (Files.isRegularFile(cacheFile)) {
+            String cached = Files.readString(cacheFile, StandardCharsets.UTF_8);
+            if (validator.test(cached)) {
+                return cached;
+            }
+            LogUtil.info("Cached " + resourceName + " is invalid, using the bundled copy");
+        }
+        try (InputStream in = CachedTemplate.class.getResourceAsStream("/" + resourceName)) {
+            if (in == null) {
+                throw new IOException("Bundled resource " + resourceName + " not found");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * fetch the remote copy if it changed since the last refresh
+     *
+     * @return true if the cache was replaced
+     * @throws Exception network failure or unexpected status
+     */
+    public boolean refresh() throws Exception {
+        Properties meta = this.loadMeta();
+        HttpRequest.Builder request = HttpUtil.newRequest(remote);
+        if (Files.isRegularFile(cacheFile)) {
+            String etag = meta.getProperty(ETAG);
+            String lastModified = meta.getProperty(LAST_MODIFIED);
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+        }
+        HttpResponse<String> response =
+                HttpUtil.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() == 304) {
+            return false;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Refreshing " + resourceName + " failed with status " + response.statusCode());
+        }
+        String body = response.body();
+        if (!validator.test(body)) {
+            throw new IOException("Remote " + resourceName + " is invalid, keeping the current copy");
+        }
+        Files.createDirectories(cacheFile.getParent());
+        boolean changed = !Files.isRegularFile(cacheFile)
+                || !body.equals(Files.readString(cacheFile, StandardCharsets.UTF_8));
+        if (changed) {
+            writeAtomically(cacheFile, body);
+        }
+        this.storeMeta(response.headers());
+        return changed;
+    }
+
+    private Properties loadMeta() {
+        Properties meta = new Properties();
+        if (Files.isRegularFile(metaFile)) {
+            try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+                meta.load(reader);
+            } catch (IOException e) {
+                // unconditional request then
+                meta.clear();
+            }
+        }
+        return meta;
+    }
+
+    private void storeMeta(HttpHeaders headers) throws IOException {
+        Properties meta = new Properties();
+        headers.firstValue("ETag").ifPresent(value -> meta.setProperty(ETAG, value));
+        headers.firstValue("Last-Modified").ifPresent(value -> meta.setProperty(LAST_MODIFIED, value));
+        Path tmp = Files.createTempFile(metaFile.getParent(), resourceName, ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            meta.store(writer, null);
+        }
+        move(tmp, metaFile);
+    }
+
+    private static void writeAtomically(Path target, String content) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        Files.writeString(tmp, content, StandardCharsets.UTF_8);
+        move(tmp, target);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.github.vevc.download;
+
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.Phase;
+import com.github.vevc.util.HashUtil;
+import com.github.vevc.util.HttpUtil;
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads an artifact from the fastest of an ordered list of mirrors, {@code http(s)://} or
+ * {@code file://}.
+ * <p>
+ * Every origin (scheme and authority) keeps a score: a moving average of its time to first byte,
+ * where a failure counts as {@link #FAILURE_PENALTY_MILLIS}. Origins without a score are probed
+ * with a one-byte request before a download until the first one answers, then the mirrors are
+ * tried best score first, ties in the configured order and unscored ones last. When the running
+ * request has not delivered its first byte within the configured percentile of its origin's
+ * recent first-byte times, a hedged request goes to the next mirror; a failed request
+ * immediately falls over to the next one. The first response that is complete and accepted by
+ * the verifier wins and the other request is cancelled. Scores are kept in a small properties
+ * file so they survive restarts.
+ *
+ * @author vevc
+ */
+public class MirrorResolver {
+
+    /**
+     * checks a downloaded file before it is accepted
+     */
+    @FunctionalInterface
+    public interface Verifier {
+        /**
+         * @param file downloaded file
+         * @return true if the file is usable
+         * @throws IOException the file cannot be read
+         */
+        boolean verify(Path file) throws IOException;
+    }
+
+    /**
+     * a verified download
+     *
+     * @param source uri the artifact was taken from
+     * @param hasher digests of the artifact computed while it was streamed, null if none were requested
+     */
+    public record Download(URI source, HashUtil.Hasher hasher) {
+    }
+
+    /**
+     * first-byte history of one origin
+     */
+    private static final class Score {
+        private final long[] samples = new long[HISTORY];
+        private int count;
+        private int head;
+        private double average = -1;
+
+        private void add(long millis) {
+            average = average < 0 ? millis : average + EWMA_WEIGHT * (millis - average);
+        }
+
+        private void addSample(long millis) {
+            this.add(millis);
+            samples[head] = millis;
+            head = (head + 1) % HISTORY;
+            count = Math.min(count + 1, HISTORY);
+        }
+
+        private long percentile(double percentile) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    /**
+     * one request to one mirror, created by the coordinating thread and filled in by the fetch
+     */
+    private static final class Attempt {
+        private final URI uri;
+        private final String origin;
+        private final Path file;
+        private final HashUtil.Hasher hasher;
+        private final long startNanos = System.nanoTime();
+        private volatile long firstByteNanos;
+        private volatile Exception error;
+
+        private Attempt(URI uri, Path file, HashUtil.Algorithm[] algorithms) {
+            this.uri = uri;
+            this.origin = origin(uri);
+            this.file = file;
+            this.hasher = algorithms.length == 0 ? null : HashUtil.newHasher(algorithms);
+        }
+
+        private long firstByteMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(firstByteNanos - startNanos);
+        }
+    }
+
+    /**
+     * progress of an attempt, posted once on its first byte and once when it is done
+     */
+    private record Event(Attempt attempt, boolean done) {
+    }
+
+    private static final String METRICS_PHASE = "mirror";
+    private static final String KEY_SCORE = ".score";
+    private static final String KEY_SAMPLES = ".samples";
+    private static final int HISTORY = 32;
+    private static final int MIN_SAMPLES = 4;
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final long FAILURE_PENALTY_MILLIS = 30_000;
+    private static final Duration DEFAULT_HEDGE_DELAY = Duration.ofSeconds(2);
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(3);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path scoreFile;
+    private final double hedgePercentile;
+    private final long defaultHedgeDelayMillis;
+    private final Map<String, Score> scores = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * @param scoreFile       file keeping the scores between restarts
+     * @param hedgePercentile percentile of an origin's first-byte times after which a hedged
+     *                        request is sent, between 1 and 100
+     */
+    public MirrorResolver(Path scoreFile, double hedgePercentile) {
+        this(scoreFile, hedgePercentile, DEFAULT_HEDGE_DELAY);
+    }
+
+    /**
+     * @param scoreFile         file keeping the scores between restarts
+     * @param hedgePercentile   percentile of an origin's first-byte times after which a hedged
+     *                          request is sent, between 1 and 100
+     * @param defaultHedgeDelay hedge delay while an origin has too few samples for a percentile
+     */
+    public MirrorResolver(Path scoreFile, double hedgePercentile, Duration defaultHedgeDelay) {
+        if (hedgePercentile < 1 || hedgePercentile > 100) {
+            throw new IllegalArgumentException("Hedge percentile must be between 1 and 100: " + hedgePercentile);
+        }
+        this.scoreFile = scoreFile;
+        this.hedgePercentile = hedgePercentile;
+        this.defaultHedgeDelayMillis = defaultHedgeDelay.toMillis();
+    }
+
+    /**
+     * download from the first mirror to deliver a verified copy
+     *
+     * @param mirrors  mirrors in configured order
+     * @param target   destination file, replaced on success
+     * @param verifier accepts a complete download
+     * @return uri the artifact was taken from
+     * @throws Exception every mirror failed
+     */
+    public URI download(List<URI> mirrors, Path target, Verifier verifier) throws Exception {
+        return this.download(mirrors, target, verifier, new HashUtil.Algorithm[0]).source();
+    }
+
+    /**
+     * download from the first mirror to deliver a verified copy, hashing every copy while it streams
+     *
+     * @param mirrors    mirrors in configured order
+     * @param target     destination file, replaced on success
+     * @param verifier   accepts a complete download
+     * @param algorithms digests to compute, each attempt feeds its own hasher
+     * @return source and digests of the winning copy
+     * @throws Exception every mirror failed
+     */
+    public Download download(List<URI> mirrors, Path target, Verifier verifier, HashUtil.Algorithm... algorithms)
+            throws Exception {
+        if (mirrors.isEmpty()) {
+            throw new IllegalArgumentException("No mirror configured");
+        }
+        List<URI> order = this.rank(mirrors);
+        List<Attempt> running = new ArrayList<>(2);
+        List<Attempt> failed = new ArrayList<>();
+        BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        Attempt winner = null;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<Attempt, Future<?>> futures = new HashMap<>();
+            int next = 0;
+            while (winner == null) {
+                if (running.isEmpty() && next >= order.size()) {
+                    break;
+                }
+                Event event;
+                if (running.isEmpty()) {
+                    event = null;
+                } else if (running.size() == 1 && next < order.size() && running.getFirst().firstByteNanos == 0) {
+                    // only a mirror that has not started to answer is hedged, a long body is not slow
+                    Attempt primary = running.getFirst();
+                    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - primary.startNanos);
+                    event = events.poll(Math.max(0, this.hedgeDelay(primary.origin) - waited), TimeUnit.MILLISECONDS);
+                } else {
+                    event = events.take();
+                }
+                if (event == null) {
+                    if (!running.isEmpty()) {
+                        MetricsRegistry.phase(METRICS_PHASE).addRetry();
+                        LogUtil.hysteria2Info("Mirror {} sent no first byte yet, sending a hedged request",
+                                running.getFirst().origin);
+                    }
+                    URI uri = order.get(next);
+                    Attempt attempt = new Attempt(uri, target.resolveSibling(target.getFileName() + ".mirror" + next),
+                            algorithms);
+                    next++;
+                    running.add(attempt);
+                    futures.put(attempt, executor.submit(() -> fetch(attempt, verifier, events)));
+                    continue;
+                }
+                // a first byte only ends the hedge wait
+                Attempt done = event.attempt();
+                if (!event.done() || !running.remove(done)) {
+                    continue;
+                }
+                futures.remove(done);
+                if (done.error == null) {
+                    winner = done;
+                } else {
+                    failed.add(done);
+                    LogUtil.hysteria2Info(() -> "Mirror " + done.uri + " failed: " + done.error.getMessage());
+                }
+            }
+            // whatever is left lost the race
+            futures.values().forEach(future -> future.cancel(true));
+        } finally {
+            this.score(winner, running, failed);
+        }
+        for (Attempt loser : running) {
+            Files.deleteIfExists(loser.file);
+        }
+        if (winner == null) {
+            MetricsRegistry.phase(METRICS_PHASE).addError();
+            IOException e = new IOException("All " + order.size() + " mirrors failed");
+            failed.forEach(attempt -> e.addSuppressed(attempt.error));
+            throw e;
+        }
+        move(winner.file, target);
+        return new Download(winner.uri, winner.hasher);
+    }
+
+    private static void fetch(Attempt attempt, Verifier verifier, BlockingQueue<Event> events) {
+        Phase phase = MetricsRegistry.phase(METRICS_PHASE);
+        try {
+            long expected = -1;
+            InputStream in;
+            if ("file".equals(attempt.uri.getScheme())) {
+                Path source = Path.of(attempt.uri);
+                expected = Files.size(source);
+                in = Files.newInputStream(source);
+            } else {
+                HttpResponse<InputStream> response = HttpUtil.getClient()
+                        .send(HttpUtil.newRequest(attempt.uri).build(), HttpUtil.ofInputStream());
+                in = response.body();
+                if (response.statusCode() != 200) {
+                    in.close();
+                    throw new IOException("Status " + response.statusCode() + " from " + attempt.uri);
+                }
+                expected = response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+            }
+            long total = 0;
+            try (in; OutputStream out = Files.newOutputStream(attempt.file)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read = in.read(buffer);
+                attempt.firstByteNanos = System.nanoTime();
+                events.add(new Event(attempt, false));
+                while (read != -1) {
+                    if (attempt.hasher != null) {
+                        attempt.hasher.update(buffer, 0, read);
+                    }
+                    out.write(buffer, 0, read);
+                    total += read;
+                    phase.addBytes(read);
+                    read = in.read(buffer);
+                }
+            }
+            if (expected >= 0 && total != expected) {
+                throw new IOException("Truncated download from " + attempt.uri + ": " + total + " of " + expected + " bytes");
+            }
+            if (!verifier.verify(attempt.file)) {
+                throw new IOException("Download from " + attempt.uri + " failed verification");
+            }
+        } catch (Exception e) {
+            attempt.error = e;
+            try {
+                Files.deleteIfExists(attempt.file);
+            } catch (IOException ignored) {
+                // overwritten by the next attempt
+            }
+        } finally {
+            events.add(new Event(attempt, true));
+        }
+    }
+
+    /**
+     * @return mirrors best score first, unscored origins probed beforehand
+     */
+    private List<URI> rank(List<URI> mirrors) throws InterruptedException {
+        List<URI> unscored;
+        synchronized (this) {
+            this.loadScores();
+            unscored = mirrors.stream().filter(uri -> !scores.containsKey(origin(uri))).toList();
+        }
+        if (mirrors.size() > 1 && !unscored.isEmpty()) {
+            this.probe(unscored);
+        }
+        synchronized (this) {
+            // stable, so equal scores keep the configured order
+            return mirrors.stream()
+                    .sorted(Comparator.comparingDouble(uri -> {
+                        Score score = scores.get(origin(uri));
+                        return score == null ? FAILURE_PENALTY_MILLIS : score.average;
+                    }))
+                    .toList();
+        }
+    }
+
+    /**
+     * measure the time to first byte of a one-byte request to every mirror in parallel; returns
+     * once the first probe succeeded, slower probes finish in the background and score later
+     */
+    private void probe(List<URI> mirrors) throws InterruptedException {
+        CountDownLatch answered = new CountDownLatch(1);
+        AtomicInteger pending = new AtomicInteger(mirrors.size());
+        for (URI uri : mirrors) {
+            Thread.ofVirtual().name("hysteria2-mirror-probe").start(() -> {
+                long millis = -1;
+                try {
+                    millis = probe(uri);
+                } catch (IOException e) {
+                    LogUtil.hysteria2Info(() -> "Probing mirror " + uri + " failed: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (this) {
+                    Score score = scores.computeIfAbsent(origin(uri), key -> new Score());
+                    if (millis >= 0) {
+                        score.addSample(millis);
+                    } else {
+                        score.add(FAILURE_PENALTY_MILLIS);
+                    }
+                    // a probe may finish after the download already stored the scores
+                    this.persistScores();
+                }
+                // only after scoring, ranking reads the score
+                if (millis >= 0 || pending.decrementAndGet() == 0) {
+                    answered.countDown();
+                }
+            });
+        }
+        answered.await(PROBE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static long probe(URI uri) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        if ("file".equals(uri.getScheme())) {
+            try (InputStream in = Files.newInputStream(Path.of(uri))) {
+                in.read();
+            }
+        } else {
+            HttpResponse<Void> response = HttpUtil.getClient().send(HttpUtil.newRequest(uri)
+                    .timeout(PROBE_TIMEOUT)
+                    .header("Range", "bytes=0-0")
+                    .build(), HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200 && response.statusCode() != 206) {
+                throw new IOException("Status " + response.statusCode());
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private synchronized long hedgeDelay(String origin) {
+        Score score = scores.get(origin);
+        if (score == null || score.count < MIN_SAMPLES) {
+            return defaultHedgeDelayMillis;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, score.percentile(hedgePercentile));
+    }
+
+    /**
+     * fold the outcome of one download into the scores and persist them
+     */
+    private synchronized void score(Attempt winner, List<Attempt> losers, List<Attempt> failed) {
+        if (winner != null) {
+            scores.computeIfAbsent(winner.origin, key -> new Score()).addSample(winner.firstByteMillis());
+        }
+        for (Attempt loser : losers) {
+            // cancelled: a first byte that never came took at least as long as the race
+            long millis = loser.firstByteNanos != 0 ? loser.firstByteMillis()
+                    : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loser.startNanos);
+            Score score = scores.computeIfAbsent(loser.origin, key -> new Score());
+            if (loser.firstByteNanos != 0) {
+                score.addSample(millis);
+            } else if (millis > score.average) {
+                score.add(millis);
+            }
+        }
+        for (Attempt attempt : failed) {
+            // the average only, a penalty in the history would stretch the hedge delay
+            scores.computeIfAbsent(attempt.origin, key -> new Score()).add(FAILURE_PENALTY_MILLIS);
+        }
+        this.persistScores();
+    }
+
+    private void persistScores() {
+        try {
+            this.storeScores();
+        } catch (IOException e) {
+            LogUtil.hysteria2Info(() -> "Failed to store mirror scores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return current score of every origin in milliseconds, lower is better
+     */
+    public synchronized Map<String, Double> getScores() {
+        this.loadScores();
+        Map<String, Double> result = new HashMap<>();
+        scores.forEach((origin, score) -> result.put(origin, score.average));
+        return result;
+    }
+
+    private void loadScores() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.isRegularFile(scoreFile)) {
+            return;
+        }
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(scoreFile, StandardCharsets.UTF_8)) {
+            props.load(reader);
+            for (String key : props.stringPropertyNames()) {
+                if (!key.endsWith(KEY_SCORE)) {
+                    continue;
+                }
+                String origin = key.substring(0, key.length() - KEY_SCORE.length());
+                Score score = new Score();
+                for (String sample : props.getProperty(origin + KEY_SAMPLES, "").split(",")) {
+                    if (!sample.isBlank()) {
+                        score.addSample(Long.parseLong(sample.trim()));
+                    }
+                }
+                score.average = Double.parseDouble(props.getProperty(key));
+                scores.put(origin, score);
+            }
+        } catch (IOException | RuntimeException e) {
+            LogUtil.info("Ignoring unreadable mirror scores " + scoreFile.getFileName());
+            scores.clear();
+        }
+    }
+
+    private void storeScores() throws IOException {
+        Properties props = new Properties();
+        scores.forEach((origin, score) -> {
+            props.setProperty(origin + KEY_SCORE, String.valueOf(score.average));
+            StringBuilder samples = new StringBuilder();
+            for (int i = 0; i < score.count; i++) {
+                if (i > 0) {
+                    samples.append(',');
+                }
+                // oldest first so a reload rebuilds the same ring
+                samples.append(score.samples[(score.head - score.count + i + HISTORY) % HISTORY]);
+            }
+            props.setProperty(origin + KEY_SAMPLES, samples.toString());
+        });
+        Files.createDirectories(scoreFile.getParent());
+        Path tmp = Files.createTempFile(scoreFile.getParent(), scoreFile.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(writer, null);
+        }
+        move(tmp, scoreFile);
+    }
+
+    private static String origin(URI uri) {
+        return uri.getScheme() + "://" + (uri.getRawAuthority() != null ? uri.getRawAuthority() : "");
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.github.vevc.download;
+
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.Phase;
+import com.github.vevc.util.HashUtil;
+import com.github.vevc.util.HttpUtil;
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads an artifact as concurrent HTTP byte ranges written into a preallocated file.
+ * <p>
+ * Progress is kept in a {@code <target>.progress} record so an interrupted download resumes
+ * each range from where it stopped. Resuming needs a strong ETag or a Last-Modified date: it is
+ * sent as {@code If-Range} with every range, so an artifact that changed in the meantime comes back
+ * whole instead of being spliced into the old partial. Servers without range support are read as
+ * a single stream, and so are servers that advertise ranges but answer a range request with the
+ * whole body or with a different range.
+ *
+ * @author vevc
+ */
+public class SegmentedDownloader {
+
+    private static final String PROGRESS_SUFFIX = ".progress";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_VALIDATOR = "validator";
+    private static final String KEY_SEGMENTS = "segments";
+    private static final String KEY_SEGMENT = "segment.";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PERSIST_INTERVAL = 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final String METRICS_PHASE = "download";
+
+    private final int segments;
+    private final long minSegmentSize;
+
+    public SegmentedDownloader() {
+        this(4, 4L * 1024 * 1024);
+    }
+
+    public SegmentedDownloader(int segments, long minSegmentSize) {
+        this.segments = Math.max(1, segments);
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+    }
+
+    /**
+     * download uri into target
+     *
+     * @param uri    source uri
+     * @param target destination file
+     * @param hasher hasher to feed with the content, may be null
+     * @return true if the hasher was fed with the complete content; a resumed download is not hashed
+     * @throws Exception e
+     */
+    public boolean download(URI uri, Path target, HashUtil.Hasher hasher) throws Exception {
+        HttpResponse<Void> head = HttpUtil.send(HttpUtil.newRequest(uri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.discarding());
+        HttpHeaders headers = head.headers();
+        long length = headers.firstValueAsLong("Content-Length").orElse(-1L);
+        boolean ranges = headers.firstValue("Accept-Ranges").map("bytes"::equalsIgnoreCase).orElse(false);
+        int count = (int) Math.min(segments, length / minSegmentSize);
+        if (head.statusCode() != 200 || !ranges || count < 2) {
+            streamTo(uri, target, hasher);
+            return hasher != null;
+        }
+
+        // resolve redirects once so every range goes straight to the final location
+        URI resolved = head.uri();
+        // a weak ETag must not be used with If-Range
+        String validator = headers.firstValue("ETag").filter(etag -> !etag.startsWith("W/"))
+                .or(() -> headers.firstValue("Last-Modified")).orElse("");
+        Path progressFile = target.resolveSibling(target.getFileName() + PROGRESS_SUFFIX);
+        Progress progress = Progress.load(progressFile, length, validator, count, target);
+        if (progress.isFresh()) {
+            LogUtil.info("Downloading " + length + " bytes in " + count + " segments");
+        } else {
+            LogUtil.info("Resuming segmented download of " + length + " bytes");
+        }
+
+        // segments of a resumed download were partly written by an earlier run, read them back afterwards
+        boolean hashed = hasher != null && progress.isFresh();
+        boolean rangesIgnored = false;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (channel.size() != length) {
+                channel.truncate(0);
+                channel.write(ByteBuffer.allocate(1), length - 1);
+            }
+            List<Future<?>> futures = new ArrayList<>(progress.count());
+            for (int i = 0; i < progress.count(); i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    fetchSegment(resolved, channel, progress, index);
+                    return null;
+                }));
+            }
+            ByteBuffer buffer = hashed ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    if (hashed) {
+                        // the segment is still in the page cache, hashing it overlaps the ones still running
+                        hashRange(channel, progress.start(i), progress.end(i), buffer, hasher);
+                    }
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    if (e.getCause() instanceof RangeNotHonoredException cause) {
+                        LogUtil.info(cause.getMessage() + ", downloading as a single stream");
+                        rangesIgnored = true;
+                        break;
+                    }
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+            if (!rangesIgnored) {
+                channel.force(false);
+            }
+        }
+        Files.deleteIfExists(progressFile);
+        if (rangesIgnored) {
+            if (hasher != null) {
+                hasher.reset();
+            }
+            streamTo(uri, target, hasher);
+            return hasher != null;
+        }
+        return hashed;
+    }
+
+    private static void hashRange(FileChannel channel, long start, long end, ByteBuffer buffer,
+                                  HashUtil.Hasher hasher) throws IOException {
+        long position = start;
+        while (position <= end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position + 1));
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += read;
+            hasher.update(buffer.flip());
+        }
+    }
+
+    private void fetchSegment(URI uri, FileChannel channel, Progress progress, int index) throws Exception {
+        long end = progress.end(index);
+        Phase phase = MetricsRegistry.phase(METRICS_PHASE);
+        IOException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS && progress.offset(index) <= end; attempt++) {
+            long start = progress.offset(index);
+            HttpRequest.Builder builder = HttpUtil.newRequest(uri).header("Range", "bytes=" + start + "-" + end);
+            if (!progress.validator().isEmpty()) {
+                builder.header("If-Range", progress.validator());
+            }
+            HttpRequest request = builder.build();
+            try {
+                HttpResponse<InputStream> response = HttpUtil.send(request, HttpUtil.ofInputStream());
+                try (InputStream in = response.body()) {
+                    if (response.statusCode() == 200) {
+                        // also the answer to an If-Range that no longer matches
+                        throw new RangeNotHonoredException("Range request answered with the whole body");
+                    }
+                    if (response.statusCode() != 206) {
+                        throw new IOException("Range request returned status " + response.statusCode());
+                    }
+                    String contentRange = response.headers().firstValue("Content-Range").orElse("");
+                    String expected = "bytes " + start + "-" + end + "/";
+                    if (!contentRange.equals(expected + progress.length()) && !contentRange.equals(expected + "*")) {
+                        throw new RangeNotHonoredException("Range request for bytes " + start + "-" + end
+                                + " answered with Content-Range '" + contentRange + "'");
+                    }
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    ByteBuffer wrap = ByteBuffer.wrap(buffer);
+                    long position = start;
+                    long unsaved = 0;
+                    int read;
+                    while (position <= end && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                        wrap.clear().limit(read);
+                        while (wrap.hasRemaining()) {
+                            position += channel.write(wrap, position);
+                        }
+                        unsaved += read;
+                        phase.addBytes(read);
+                        if (unsaved >= PERSIST_INTERVAL) {
+                            // the record must never claim bytes that are not on disk yet
+                            channel.force(false);
+                            progress.update(index, position);
+                            unsaved = 0;
+                        }
+                    }
+                    channel.force(false);
+                    progress.update(index, position);
+                }
+            } catch (RangeNotHonoredException e) {
+                // retrying gets the same answer
+                throw e;
+            } catch (IOException e) {
+                last = e;
+                phase.addRetry();
+                LogUtil.info("Segment " + index + " interrupted at " + progress.offset(index) + ", retrying: " + e.getMessage());
+            }
+        }
+        if (progress.offset(index) <= end) {
+            throw new IOException("Segment " + index + " failed after " + MAX_ATTEMPTS + " attempts", last);
+        }
+    }
+
+    private void streamTo(URI uri, Path target, HashUtil.Hasher hasher) throws Exception {
+        HttpResponse<InputStream> response = HttpUtil.send(HttpUtil.newRequest(uri).build(),
+                HttpUtil.ofInputStream());
+        try (InputStream in = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Download failed with status " + response.statusCode() + ": " + uri);
+            }
+            Phase phase = MetricsRegistry.phase(METRICS_PHASE);
+            try (var out = Files.newOutputStream(target)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (hasher != null) {
+                        hasher.update(buffer, 0, read);
+                    }
+                    out.write(buffer, 0, read);
+                    phase.addBytes(read);
+                }
+            }
+        }
+    }
+
+    /**
+     * the server advertised range support but did not answer with the requested range
+     */
+    private static final class RangeNotHonoredException extends IOException {
+        private RangeNotHonoredException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * on-disk progress record, one next-offset per segment
+     */
+    private static final class Progress {
+
+        private final Path file;
+        private final long length;
+        private final String validator;
+        private final long[] offsets;
+        private final long[] ends;
+        private final boolean fresh;
+
+        private Progress(Path file, long length, String validator, long[] offsets, boolean fresh) {
+            this.file = file;
+            this.length = length;
+            this.validator = validator;
+            this.offsets = offsets;
+            this.fresh = fresh;
+            int count = offsets.length;
+            long size = length / count;
+            this.ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                ends[i] = i == count - 1 ? length - 1 : (i + 1) * size - 1;
+            }
+        }
+
+        static Progress load(Path file, long length, String validator, int count, Path target) throws IOException {
+            // without a validator a changed artifact of the same length cannot be told apart
+            if (!validator.isEmpty() && Files.isRegularFile(file) && Files.isRegularFile(target)
+                    && Files.size(target) == length) {
+                Properties props = new Properties();
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    props.load(reader);
+                    int saved = Integer.parseInt(props.getProperty(KEY_SEGMENTS, "0"));
+                    if (String.valueOf(length).equals(props.getProperty(KEY_LENGTH))
+                            && validator.equals(props.getProperty(KEY_VALIDATOR)) && saved > 0) {
+                        long[] offsets = new long[saved];
+                        for (int i = 0; i < saved; i++) {
+                            offsets[i] = Long.parseLong(props.getProperty(KEY_SEGMENT + i));
+                        }
+                        return new Progress(file, length, validator, offsets, false);
+                    }
+                } catch (RuntimeException e) {
+                    LogUtil.info("Ignoring unreadable download progress " + file.getFileName());
+                }
+            }
+            long[] offsets = new long[count];
+            long size = length / count;
+            for (int i = 0; i < count; i++) {
+                offsets[i] = i * size;
+            }
+            Progress progress = new Progress(file, length, validator, offsets, true);
+            progress.persist();
+            return progress;
+        }
+
+        int count() {
+            return offsets.length;
+        }
+
+        long length() {
+            return length;
+        }
+
+        String validator() {
+            return validator;
+        }
+
+        boolean isFresh() {
+            return fresh;
+        }
+
+        synchronized long offset(int index) {
+            return offsets[index];
+        }
+
+        long start(int index) {
+            return index * (length / offsets.length);
+        }
+
+        long end(int index) {
+            return ends[index];
+        }
+
+        synchronized void update(int index, long offset) throws IOException {
+            offsets[index] = offset;
+            persist();
+        }
+
+        private void persist() throws IOException {
+            Properties props = new Properties();
+            props.setProperty(KEY_LENGTH, String.valueOf(length));
+            props.setProperty(KEY_VALIDATOR, validator);
+            props.setProperty(KEY_SEGMENTS, String.valueOf(offsets.length));
+            for (int i = 0; i < offsets.length; i++) {
+                props.setProperty(KEY_SEGMENT + i, String.valueOf(offsets[i]));
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                props.store(writer, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.vevc.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory registry of lifecycle phases, from plugin enable to the child process listening.
+ *
+ * @author vevc
+ */
+public final class MetricsRegistry {
+
+    private static final Map<String, Phase> PHASES = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static volatile long enableNanos = System.nanoTime();
+
+    /**
+     * mark the start of plugin enable; phases recorded before are discarded
+     */
+    public static void markEnable() {
+        PHASES.clear();
+        enableNanos = System.nanoTime();
+    }
+
+    public static long sinceEnableNanos() {
+        return System.nanoTime() - enableNanos;
+    }
+
+    public static Phase phase(String name) {
+        return PHASES.computeIfAbsent(name, Phase::new);
+    }
+
+    /**
+     * start timing a phase, use with try-with-resources
+     *
+     * @param name phase name
+     * @return timer
+     */
+    public static PhaseTimer time(String name) {
+        return new PhaseTimer(phase(name));
+    }
+
+    /**
+     * @return snapshot of all phases in first-recorded order
+     */
+    public static List<Phase> getPhases() {
+        synchronized (PHASES) {
+            return new ArrayList<>(PHASES.values());
+        }
+    }
+
+    /**
+     * one-line summary, e.g. {@code "enable->listen 1203ms: config-load=15ms, install=980ms/34.1MB, ..."}
+     *
+     * @param label summary label
+     * @return summary
+     */
+    public static String summary(String label) {
+        StringBuilder sb = new StringBuilder(label).append(' ')
+                .append(TimeUnit.NANOSECONDS.toMillis(sinceEnableNanos())).append("ms:");
+        String sep = " ";
+        for (Phase phase : getPhases()) {
+            sb.append(sep).append(phase);
+            sep = ", ";
+        }
+        return sb.toString();
+    }
+
+    private MetricsRegistry() {
+        throw new IllegalStateException("Utility class");
+    }
+}
@@ -0,0 +1,321 @@
+package com.github.vevc.metrics;
+
+import com.github.vevc.process.OutputPump;
+import com.github.vevc.process.ProcessSupervisor;
+import com.github.vevc.util.HttpUtil;
+import com.github.vevc.util.LogUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Prometheus text format endpoint on the loopback interface, served by the JDK HTTP server.
+ * <p>
+ * Requests are handled one at a time on the server's dispatcher thread, which lets every scrape
+ * reuse the same text and byte buffers: metric headers are constants, values and labels are
+ * appended as primitives and {@code /proc} files are read into a reused buffer, so a scrape
+ * allocates next to nothing.
+ *
+ * @author vevc
+ */
+public class MetricsServer {
+
+    /**
+     * one supervised child process as seen by the endpoint
+     */
+    public interface Target {
+        int getPort();
+
+        ProcessSupervisor getSupervisor();
+    }
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final ProcessSupervisor.State[] STATES = ProcessSupervisor.State.values();
+
+    private static final String INSTANCE_STATE = "# HELP worldmagic_instance_state Supervisor state of the server instance.\n"
+            + "# TYPE worldmagic_instance_state gauge\n";
+    private static final String INSTANCE_RESTARTS = "# HELP worldmagic_instance_restarts_total Restarts after the process exited.\n"
+            + "# TYPE worldmagic_instance_restarts_total counter\n";
+    private static final String INSTANCE_CRASHES = "# HELP worldmagic_instance_crashes_total Unexpected process exits.\n"
+            + "# TYPE worldmagic_instance_crashes_total counter\n";
+    private static final String INSTANCE_UPTIME = "# HELP worldmagic_instance_uptime_seconds Uptime of the current process.\n"
+            + "# TYPE worldmagic_instance_uptime_seconds gauge\n";
+    private static final String PROCESS_RSS = "# HELP worldmagic_process_resident_memory_bytes Resident set size of the server process.\n"
+            + "# TYPE worldmagic_process_resident_memory_bytes gauge\n";
+    private static final String PROCESS_CPU = "# HELP worldmagic_process_cpu_seconds_total User and system CPU time of the server process.\n"
+            + "# TYPE worldmagic_process_cpu_seconds_total counter\n";
+    private static final String PHASE_SECONDS = "# HELP worldmagic_phase_seconds_total Time spent in a lifecycle phase.\n"
+            + "# TYPE worldmagic_phase_seconds_total counter\n";
+    private static final String PHASE_COUNT = "# HELP worldmagic_phase_runs_total Runs of a lifecycle phase.\n"
+            + "# TYPE worldmagic_phase_runs_total counter\n";
+    private static final String PHASE_MAX = "# HELP worldmagic_phase_max_seconds Longest run of a lifecycle phase.\n"
+            + "# TYPE worldmagic_phase_max_seconds gauge\n";
+    private static final String PHASE_BYTES = "# HELP worldmagic_phase_bytes_total Bytes moved by a lifecycle phase.\n"
+            + "# TYPE worldmagic_phase_bytes_total counter\n";
+    private static final String PHASE_RETRIES = "# HELP worldmagic_phase_retries_total Retries within a lifecycle phase.\n"
+            + "# TYPE worldmagic_phase_retries_total counter\n";
+    private static final String PHASE_ERRORS = "# HELP worldmagic_phase_errors_total Failures of a lifecycle phase.\n"
+            + "# TYPE worldmagic_phase_errors_total counter\n";
+    private static final String USER_ONLINE = "# HELP worldmagic_user_online Clients online per user.\n"
+            + "# TYPE worldmagic_user_online gauge\n";
+    private static final String USER_TX_RATE = "# HELP worldmagic_user_tx_bytes_per_second Bytes per second sent to the user.\n"
+            + "# TYPE worldmagic_user_tx_bytes_per_second gauge\n";
+    private static final String USER_RX_RATE = "# HELP worldmagic_user_rx_bytes_per_second Bytes per second received from the user.\n"
+            + "# TYPE worldmagic_user_rx_bytes_per_second gauge\n";
+    private static final String HTTP_PERMITS_IN_USE = "# HELP worldmagic_http_permits_in_use HTTP client executor permits held by running tasks.\n"
+            + "# TYPE worldmagic_http_permits_in_use gauge\n";
+    private static final String HTTP_PERMITS_MAX = "# HELP worldmagic_http_permits_max HTTP client executor permits available in total.\n"
+            + "# TYPE worldmagic_http_permits_max gauge\n";
+    private static final String EXECUTOR_THREADS = "# HELP worldmagic_executor_threads Live threads of a plugin executor.\n"
+            + "# TYPE worldmagic_executor_threads gauge\n";
+    private static final String LOG_DROPPED = "# HELP worldmagic_log_dropped_total Log lines dropped by the async log appender.\n"
+            + "# TYPE worldmagic_log_dropped_total counter\n";
+
+    private final int port;
+    private final Supplier<List<? extends Target>> targets;
+    private final Supplier<TrafficStatsPoller> trafficStats;
+    private final StringBuilder text = new StringBuilder(8192);
+    private final ProcStat procStat = new ProcStat();
+    private byte[] body = new byte[8192];
+    private HttpServer server;
+
+    /**
+     * @param port         loopback port
+     * @param targets      supervised processes, read on every scrape
+     * @param trafficStats traffic statistics, may supply null
+     */
+    public MetricsServer(int port, Supplier<List<? extends Target>> targets, Supplier<TrafficStatsPoller> trafficStats) {
+        this.port = port;
+        this.targets = targets;
+        this.trafficStats = trafficStats;
+    }
+
+    /**
+     * bind and serve {@code /metrics}
+     *
+     * @throws IOException the port can not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // no executor: exchanges run one by one on the dispatcher thread, which owns the buffers
+        // contexts match by prefix, so everything else is answered with 404 in handle()
+        httpServer.createContext("/", this::handle);
+        httpServer.start();
+        this.server = httpServer;
+        LogUtil.info("Metrics endpoint listening on http://127.0.0.1:" + port + "/metrics");
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"/metrics".equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            int length;
+            try {
+                this.render();
+                length = this.encode();
+            } catch (RuntimeException e) {
+                LogUtil.error("Failed to render metrics", e);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body, 0, length);
+            }
+        }
+    }
+
+    /**
+     * render all metrics into {@link #text}
+     */
+    void render() {
+        StringBuilder sb = this.text;
+        sb.setLength(0);
+        List<? extends Target> current = targets.get();
+
+        sb.append(INSTANCE_STATE);
+        for (Target target : current) {
+            ProcessSupervisor supervisor = target.getSupervisor();
+            ProcessSupervisor.State state = supervisor == null ? ProcessSupervisor.State.STOPPED : supervisor.getState();
+            for (ProcessSupervisor.State candidate : STATES) {
+                sb.append("worldmagic_instance_state{port=\"").append(target.getPort())
+                        .append("\",state=\"").append(candidate.name()).append("\"} ")
+                        .append(candidate == state ? 1 : 0).append('\n');
+            }
+        }
+        sb.append(INSTANCE_RESTARTS);
+        for (Target target : current) {
+            ProcessSupervisor supervisor = target.getSupervisor();
+            instanceSample(sb, "worldmagic_instance_restarts_total", target).append(supervisor == null ? 0 : supervisor.getRestartCount()).append('\n');
+        }
+        sb.append(INSTANCE_CRASHES);
+        for (Target target : current) {
+            ProcessSupervisor supervisor = target.getSupervisor();
+            instanceSample(sb, "worldmagic_instance_crashes_total", target).append(supervisor == null ? 0 : supervisor.getCrashCount()).append('\n');
+        }
+        sb.append(INSTANCE_UPTIME);
+        for (Target target : current) {
+            ProcessSupervisor supervisor = target.getSupervisor();
+            long uptime = supervisor == null ? 0 : supervisor.getUptimeNanos();
+            instanceSample(sb, "worldmagic_instance_uptime_seconds", target).append(uptime / 1e9).append('\n');
+        }
+        sb.append(PROCESS_RSS);
+        for (Target target : current) {
+            long rss = procStat.residentBytes(pid(target));
+            if (rss >= 0) {
+                instanceSample(sb, "worldmagic_process_resident_memory_bytes", target).append(rss).append('\n');
+            }
+        }
+        sb.append(PROCESS_CPU);
+        for (Target target : current) {
+            long ticks = procStat.cpuTicks(pid(target));
+            if (ticks >= 0) {
+                instanceSample(sb, "worldmagic_process_cpu_seconds_total", target)
+                        .append(ticks / ProcStat.CLOCK_TICKS_PER_SECOND).append('\n');
+            }
+        }
+
+        List<Phase> phases = MetricsRegistry.getPhases();
+        sb.append(PHASE_SECONDS);
+        for (Phase phase : phases) {
+            phaseSample(sb, "worldmagic_phase_seconds_total", phase).append(phase.getTotalNanos() / 1e9).append('\n');
+        }
+        sb.append(PHASE_COUNT);
+        for (Phase phase : phases) {
+            phaseSample(sb, "worldmagic_phase_runs_total", phase).append(phase.getCount()).append('\n');
+        }
+        sb.append(PHASE_MAX);
+        for (Phase phase : phases) {
+            phaseSample(sb, "worldmagic_phase_max_seconds", phase).append(phase.getMaxNanos() / 1e9).append('\n');
+        }
+        sb.append(PHASE_BYTES);
+        for (Phase phase : phases) {
+            phaseSample(sb, "worldmagic_phase_bytes_total", phase).append(phase.getBytes()).append('\n');
+        }
+        sb.append(PHASE_RETRIES);
+        for (Phase phase : phases) {
+            phaseSample(sb, "worldmagic_phase_retries_total", phase).append(phase.getRetries()).append('\n');
+        }
+        sb.append(PHASE_ERRORS);
+        for (Phase phase : phases) {
+            phaseSample(sb, "worldmagic_phase_errors_total", phase).append(phase.getErrors()).append('\n');
+        }
+
+        TrafficStatsPoller poller = trafficStats.get();
+        if (poller != null) {
+            List<TrafficStatsPoller.UserStats> users = poller.snapshot();
+            sb.append(USER_ONLINE);
+            for (TrafficStatsPoller.UserStats user : users) {
+                userSample(sb, "worldmagic_user_online", user).append(user.getOnline()).append('\n');
+            }
+            sb.append(USER_TX_RATE);
+            for (TrafficStatsPoller.UserStats user : users) {
+                userSample(sb, "worldmagic_user_tx_bytes_per_second", user).append(user.getTxRate()).append('\n');
+            }
+            sb.append(USER_RX_RATE);
+            for (TrafficStatsPoller.UserStats user : users) {
+                userSample(sb, "worldmagic_user_rx_bytes_per_second", user).append(user.getRxRate()).append('\n');
+            }
+        }
+
+        sb.append(HTTP_PERMITS_IN_USE).append("worldmagic_http_permits_in_use ").append(HttpUtil.getPermitsInUse()).append('\n');
+        sb.append(HTTP_PERMITS_MAX).append("worldmagic_http_permits_max ").append(HttpUtil.getMaxPermits()).append('\n');
+        sb.append(EXECUTOR_THREADS);
+        executorSample(sb, "http").append(HttpUtil.getActiveThreads()).append('\n');
+        executorSample(sb, "supervisor").append(ProcessSupervisor.getActiveLauncherThreads()).append('\n');
+        executorSample(sb, "pump").append(OutputPump.getActiveThreads()).append('\n');
+        executorSample(sb, "poller").append(poller != null && poller.isRunning() ? 1 : 0).append('\n');
+        sb.append(LOG_DROPPED).append("worldmagic_log_dropped_total ").append(LogUtil.getDroppedCount()).append('\n');
+    }
+
+    /**
+     * @return text rendered by the last {@link #render()}
+     */
+    CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * encode {@link #text} into {@link #body}, growing it only when the output got larger
+     *
+     * @return number of bytes
+     */
+    private int encode() {
+        StringBuilder sb = this.text;
+        int length = sb.length();
+        if (body.length < length) {
+            body = new byte[Math.max(length, body.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = sb.charAt(i);
+            if (c >= 0x80) {
+                // only user names can be non-ASCII
+                body = sb.toString().getBytes(StandardCharsets.UTF_8);
+                return body.length;
+            }
+            body[i] = (byte) c;
+        }
+        return length;
+    }
+
+    private static StringBuilder instanceSample(StringBuilder sb, String name, Target target) {
+        return sb.append(name).append("{port=\"").append(target.getPort()).append("\"} ");
+    }
+
+    private static StringBuilder executorSample(StringBuilder sb, String executor) {
+        return sb.append("worldmagic_executor_threads{executor=\"").append(executor).append("\"} ");
+    }
+
+    private static StringBuilder phaseSample(StringBuilder sb, String name, Phase phase) {
+        return sb.append(name).append("{phase=\"").append(phase.getName()).append("\"} ");
+    }
+
+    private static StringBuilder userSample(StringBuilder sb, String name, TrafficStatsPoller.UserStats user) {
+        sb.append(name).append("{user=\"");
+        String value = user.getUser();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append("\"} ");
+    }
+
+    private static long pid(Target target) {
+        ProcessSupervisor supervisor = target.getSupervisor();
+        return supervisor == null ? -1 : supervisor.getPid();
+    }
+}
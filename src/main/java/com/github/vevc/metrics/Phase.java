@@ -0,0 +1,95 @@
+package com.github.vevc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one lifecycle phase: how often and how long it ran, bytes moved, retries and errors.
+ *
+ * @author vevc
+ */
+public final class Phase {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    Phase(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public void addBytes(long n) {
+        bytes.add(n);
+    }
+
+    public void addRetry() {
+        retries.increment();
+    }
+
+    public void addError() {
+        errors.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return e.g. {@code "download=812ms/34.1MB/r1"}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append('=')
+                .append(TimeUnit.NANOSECONDS.toMillis(getTotalNanos())).append("ms");
+        long count = getCount();
+        if (count > 1) {
+            sb.append('x').append(count);
+        }
+        long bytes = getBytes();
+        if (bytes > 0) {
+            sb.append('/').append(String.format("%.1fMB", bytes / 1048576.0));
+        }
+        if (getRetries() > 0) {
+            sb.append("/r").append(getRetries());
+        }
+        if (getErrors() > 0) {
+            sb.append("/e").append(getErrors());
+        }
+        return sb.toString();
+    }
+}
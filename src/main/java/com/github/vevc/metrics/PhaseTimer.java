@@ -0,0 +1,29 @@
+package com.github.vevc.metrics;
+
+/**
+ * Monotonic timer that records its elapsed time into a {@link Phase} when closed.
+ *
+ * @author vevc
+ */
+public final class PhaseTimer implements AutoCloseable {
+
+    private final Phase phase;
+    private final long start = System.nanoTime();
+    private boolean closed;
+
+    PhaseTimer(Phase phase) {
+        this.phase = phase;
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            phase.record(elapsedNanos());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.vevc.metrics;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads memory and CPU figures of a process from {@code /proc/<pid>} into a reused buffer.
+ * <p>
+ * Not thread-safe, every reading thread keeps its own instance.
+ *
+ * @author vevc
+ */
+public final class ProcStat {
+
+    public static final double CLOCK_TICKS_PER_SECOND = 100.0;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * @return VmRSS from {@code /proc/<pid>/status} in bytes, -1 if not available
+     */
+    public long residentBytes(long pid) {
+        int length = this.read(pid, "status");
+        int at = indexOf(buffer, length, "VmRSS:");
+        if (at < 0) {
+            return -1;
+        }
+        long kb = parseLong(buffer, skipSpaces(buffer, at + 6, length), length);
+        return kb < 0 ? -1 : kb * 1024;
+    }
+
+    /**
+     * @return utime + stime from {@code /proc/<pid>/stat} in clock ticks, -1 if not available
+     */
+    public long cpuTicks(long pid) {
+        int length = this.read(pid, "stat");
+        // the command name may contain spaces, fields are counted from the closing parenthesis
+        int at = -1;
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == ')') {
+                at = i + 1;
+                break;
+            }
+        }
+        if (at < 0) {
+            return -1;
+        }
+        // after ")" come state (field 3) ... utime (field 14) and stime (field 15)
+        for (int field = 3; field < 14; field++) {
+            at = nextField(buffer, at, length);
+        }
+        long utime = parseLong(buffer, skipSpaces(buffer, at, length), length);
+        at = nextField(buffer, at, length);
+        long stime = parseLong(buffer, skipSpaces(buffer, at, length), length);
+        return utime < 0 || stime < 0 ? -1 : utime + stime;
+    }
+
+    private int read(long pid, String file) {
+        if (pid <= 0) {
+            return 0;
+        }
+        try (RandomAccessFile in = new RandomAccessFile("/proc/" + pid + "/" + file, "r")) {
+            int total = 0;
+            int n;
+            while (total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) > 0) {
+                total += n;
+            }
+            return total;
+        } catch (IOException e) {
+            // the process exited or /proc is not available
+            return 0;
+        }
+    }
+
+    private static int indexOf(byte[] buffer, int length, String token) {
+        outer:
+        for (int i = 0; i + token.length() <= length; i++) {
+            for (int j = 0; j < token.length(); j++) {
+                if (buffer[i + j] != token.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(byte[] buffer, int at, int length) {
+        while (at < length && (buffer[at] == ' ' || buffer[at] == '\t')) {
+            at++;
+        }
+        return at;
+    }
+
+    private static int nextField(byte[] buffer, int at, int length) {
+        at = skipSpaces(buffer, at, length);
+        while (at < length && buffer[at] != ' ') {
+            at++;
+        }
+        return at;
+    }
+
+    private static long parseLong(byte[] buffer, int at, int length) {
+        if (at >= length || buffer[at] < '0' || buffer[at] > '9') {
+            return -1;
+        }
+        long value = 0;
+        while (at < length && buffer[at] >= '0' && buffer[at] <= '9') {
+            value = value * 10 + (buffer[at++] - '0');
+        }
+        return value;
+    }
+}
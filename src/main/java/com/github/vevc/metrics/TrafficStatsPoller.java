@@ -0,0 +1,355 @@
+package com.github.vevc.metrics;
+
+import com.github.vevc.util.HttpUtil;
+import com.github.vevc.util.LogUtil;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scrapes the trafficStats API of the server instances and keeps a rolling window of per-user
+ * traffic in memory.
+ * <p>
+ * The API reports cumulative tx/rx bytes per user ({@code GET /traffic}) and the number of online
+ * clients per user ({@code GET /online}). Every poll turns the counters of each instance into
+ * per-sample deltas, sums the deltas of all instances and stores them in primitive ring buffers,
+ * so a sample costs no allocation per user once the user is known. A counter that went backwards
+ * (that instance restarted) counts from 0 without affecting the other instances.
+ *
+ * @author vevc
+ */
+public class TrafficStatsPoller {
+
+    /**
+     * traffic of one user over the window
+     */
+    public static final class UserStats {
+        private final String user;
+        private final long txBytes;
+        private final long rxBytes;
+        private final double txRate;
+        private final double rxRate;
+        private final int online;
+
+        private UserStats(String user, long txBytes, long rxBytes, double txRate, double rxRate, int online) {
+            this.user = user;
+            this.txBytes = txBytes;
+            this.rxBytes = rxBytes;
+            this.txRate = txRate;
+            this.rxRate = rxRate;
+            this.online = online;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * @return bytes sent to the user within the window
+         */
+        public long getTxBytes() {
+            return txBytes;
+        }
+
+        /**
+         * @return bytes received from the user within the window
+         */
+        public long getRxBytes() {
+            return rxBytes;
+        }
+
+        /**
+         * @return bytes per second sent to the user, averaged over the window
+         */
+        public double getTxRate() {
+            return txRate;
+        }
+
+        /**
+         * @return bytes per second received from the user, averaged over the window
+         */
+        public double getRxRate() {
+            return rxRate;
+        }
+
+        /**
+         * @return clients online at the last sample
+         */
+        public int getOnline() {
+            return online;
+        }
+    }
+
+    /**
+     * ring buffers of one user, indexed like {@link #sampleNanos}, and the last counters of the
+     * user on every instance
+     */
+    private static final class Series {
+        private final long[] tx;
+        private final long[] rx;
+        private final int[] online;
+        private final long[] lastTx;
+        private final long[] lastRx;
+        private final long[] currentTx;
+        private final long[] currentRx;
+        private final boolean[] seenOn;
+        private int currentOnline;
+        private boolean seen;
+
+        private Series(int window, int instances) {
+            this.tx = new long[window];
+            this.rx = new long[window];
+            this.online = new int[window];
+            this.lastTx = new long[instances];
+            this.lastRx = new long[instances];
+            this.currentTx = new long[instances];
+            this.currentRx = new long[instances];
+            this.seenOn = new boolean[instances];
+            Arrays.fill(lastTx, -1);
+            Arrays.fill(lastRx, -1);
+        }
+    }
+
+    private static final String METRICS_PHASE = "traffic-stats";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(3);
+
+    private final List<URI> endpoints;
+    private final String secret;
+    private final Duration interval;
+    private final int window;
+    private final long[] sampleNanos;
+    private final Map<String, Series> series = new HashMap<>();
+    private int head;
+    private int filled;
+    private volatile Thread thread;
+
+    /**
+     * @param endpoints base URI of the trafficStats API of every instance, e.g. {@code http://127.0.0.1:25413}
+     * @param secret    secret configured for the API
+     * @param interval  time between two samples
+     * @param window    number of samples kept, at least 2
+     */
+    public TrafficStatsPoller(List<URI> endpoints, String secret, Duration interval, int window) {
+        if (window < 2) {
+            throw new IllegalArgumentException("Traffic stats window must hold at least 2 samples: " + window);
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.secret = secret;
+        this.interval = interval;
+        this.window = window;
+        this.sampleNanos = new long[window];
+    }
+
+    /**
+     * poll every interval on a virtual thread until stopped
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        this.thread = Thread.ofVirtual().name("hysteria2-traffic-stats").start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(interval);
+                    try {
+                        this.poll();
+                    } catch (IOException | RuntimeException e) {
+                        // expected while an instance is (re)starting
+                        MetricsRegistry.phase(METRICS_PHASE).addError();
+                        LogUtil.hysteria2Info(() -> "Traffic stats poll failed: " + e.getMessage());
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // stopped
+            }
+        });
+    }
+
+    /**
+     * @return true while the polling thread is alive
+     */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    public synchronized void stop() {
+        Thread current = this.thread;
+        this.thread = null;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * take one sample from all instances; nothing is recorded when any instance fails
+     *
+     * @throws IOException          an instance is unreachable or answered with an error
+     * @throws InterruptedException interrupted
+     */
+    public void poll() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        // fetch outside the lock so readers never wait on the network
+        JsonObject[] traffic = new JsonObject[endpoints.size()];
+        JsonObject[] online = new JsonObject[endpoints.size()];
+        for (int i = 0; i < traffic.length; i++) {
+            traffic[i] = this.fetch(endpoints.get(i).resolve("/traffic"));
+            online[i] = this.fetch(endpoints.get(i).resolve("/online"));
+        }
+        synchronized (this) {
+            for (Series s : series.values()) {
+                Arrays.fill(s.currentTx, 0);
+                Arrays.fill(s.currentRx, 0);
+                Arrays.fill(s.seenOn, false);
+                s.currentOnline = 0;
+                s.seen = false;
+            }
+            for (int i = 0; i < traffic.length; i++) {
+                for (Map.Entry<String, JsonElement> entry : traffic[i].entrySet()) {
+                    if (!entry.getValue().isJsonObject()) {
+                        continue;
+                    }
+                    JsonObject counters = entry.getValue().getAsJsonObject();
+                    Series s = series.computeIfAbsent(entry.getKey(), user -> new Series(window, traffic.length));
+                    s.currentTx[i] = longValue(counters, "tx");
+                    s.currentRx[i] = longValue(counters, "rx");
+                    s.seenOn[i] = true;
+                    s.seen = true;
+                }
+                for (Map.Entry<String, JsonElement> entry : online[i].entrySet()) {
+                    Series s = series.computeIfAbsent(entry.getKey(), user -> new Series(window, traffic.length));
+                    s.currentOnline += entry.getValue().getAsInt();
+                    s.seen = true;
+                }
+            }
+            this.record(System.nanoTime());
+        }
+        MetricsRegistry.phase(METRICS_PHASE).record(System.nanoTime() - start);
+    }
+
+    private void record(long now) {
+        int slot = head;
+        boolean baseline = filled == 0;
+        sampleNanos[slot] = now;
+        Iterator<Series> it = series.values().iterator();
+        while (it.hasNext()) {
+            Series s = it.next();
+            s.tx[slot] = delta(s.currentTx, s.lastTx, s.seenOn, baseline);
+            s.rx[slot] = delta(s.currentRx, s.lastRx, s.seenOn, baseline);
+            s.online[slot] = s.currentOnline;
+            if (!s.seen && isIdle(s)) {
+                it.remove();
+            }
+        }
+        head = (slot + 1) % window;
+        filled = Math.min(filled + 1, window);
+    }
+
+    /**
+     * sum of the per-instance deltas; updates {@code last} to the current counters
+     */
+    private static long delta(long[] current, long[] last, boolean[] seenOn, boolean baseline) {
+        long sum = 0;
+        for (int i = 0; i < current.length; i++) {
+            // a user showing up later started after the previous sample, count all of its traffic
+            long previous = last[i] < 0 ? (baseline ? current[i] : 0) : last[i];
+            sum += current[i] >= previous ? current[i] - previous : current[i];
+            // a user missing from the report has no counters left on that instance
+            last[i] = seenOn[i] ? current[i] : 0;
+        }
+        return sum;
+    }
+
+    private static boolean isIdle(Series s) {
+        for (int i = 0; i < s.tx.length; i++) {
+            if (s.tx[i] != 0 || s.rx[i] != 0 || s.online[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return per-user traffic over the window, rates are 0 until two samples exist
+     */
+    public synchronized List<UserStats> snapshot() {
+        List<UserStats> result = new ArrayList<>(series.size());
+        if (filled == 0) {
+            return result;
+        }
+        int newest = (head - 1 + window) % window;
+        int oldest = (head - filled + window) % window;
+        double seconds = (sampleNanos[newest] - sampleNanos[oldest]) / 1e9;
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            long tx = 0;
+            long rx = 0;
+            // the oldest delta covers the time before the window starts
+            for (int i = 1; i < filled; i++) {
+                int slot = (oldest + i) % window;
+                tx += s.tx[slot];
+                rx += s.rx[slot];
+            }
+            result.add(new UserStats(entry.getKey(), tx, rx,
+                    seconds > 0 ? tx / seconds : 0, seconds > 0 ? rx / seconds : 0, s.online[newest]));
+        }
+        return result;
+    }
+
+    /**
+     * @return clients online at the last sample, over all users
+     */
+    public synchronized int getOnline() {
+        if (filled == 0) {
+            return 0;
+        }
+        int newest = (head - 1 + window) % window;
+        int total = 0;
+        for (Series s : series.values()) {
+            total += s.online[newest];
+        }
+        return total;
+    }
+
+    private JsonObject fetch(URI uri) throws IOException, InterruptedException {
+        // straight to the client: a local endpoint needs neither retries nor the download metrics
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Authorization", secret)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = HttpUtil.getClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (Reader reader = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Traffic stats request " + uri + " failed with status " + response.statusCode());
+            }
+            JsonElement body = JsonParser.parseReader(reader);
+            if (!body.isJsonObject()) {
+                throw new IOException("Unexpected traffic stats response from " + uri);
+            }
+            return body.getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed traffic stats response from " + uri, e);
+        }
+    }
+
+    private static long longValue(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        return value == null || value.isJsonNull() ? 0 : value.getAsLong();
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.vevc.process;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Drains a child's stdout and stderr on virtual threads.
+ * <p>
+ * The last {@code capacity} lines are kept in a ring buffer for diagnostics. Lines are forwarded to
+ * the sink in batches from a separate flusher, so a slow logger never blocks the readers and a
+ * chatty child never blocks on a full pipe. When more lines arrive than one batch can hold, the
+ * surplus is only kept in the ring buffer and reported as suppressed. While the sink is disabled no
+ * batch is built at all and only the ring buffer is kept up to date.
+ *
+ * @author vevc
+ */
+public class OutputPump {
+
+    private static final int MAX_BATCH = 64;
+    private static final long FLUSH_INTERVAL_MILLIS = 500;
+    private static final AtomicInteger ACTIVE_THREADS = new AtomicInteger();
+
+    private final String prefix;
+    private final Consumer<String> sink;
+    private final BooleanSupplier sinkEnabled;
+    private final String[] ring;
+    private final Thread stdout;
+    private final Thread stderr;
+    private final Thread flusher;
+
+    private int ringNext;
+    private long ringCount;
+    private List<String> pending = new ArrayList<>(MAX_BATCH);
+    private long suppressed;
+
+    private OutputPump(Process process, String prefix, int capacity, Consumer<String> sink, BooleanSupplier sinkEnabled) {
+        this.prefix = prefix;
+        this.sink = sink;
+        this.sinkEnabled = sinkEnabled;
+        this.ring = new String[capacity];
+        this.stdout = Thread.ofVirtual().name(prefix + "-stdout").unstarted(counted(() -> this.drain(process.getInputStream(), "")));
+        this.stderr = Thread.ofVirtual().name(prefix + "-stderr").unstarted(counted(() -> this.drain(process.getErrorStream(), "[stderr] ")));
+        this.flusher = Thread.ofVirtual().name(prefix + "-flush").unstarted(counted(this::flushLoop));
+    }
+
+    /**
+     * start pumping both output streams of a process
+     *
+     * @param process  child process, started with piped stdout and stderr
+     * @param prefix   prefix of forwarded log lines and thread names
+     * @param capacity number of recent lines kept
+     * @param sink     receives batches of lines joined by '\n'
+     * @return running pump
+     */
+    public static OutputPump attach(Process process, String prefix, int capacity, Consumer<String> sink) {
+        return attach(process, prefix, capacity, sink, () -> true);
+    }
+
+    /**
+     * start pumping both output streams of a process, forwarding lines only while the sink is enabled
+     *
+     * @param process     child process, started with piped stdout and stderr
+     * @param prefix      prefix of forwarded log lines and thread names
+     * @param capacity    number of recent lines kept
+     * @param sink        receives batches of lines joined by '\n'
+     * @param sinkEnabled checked per line and per batch, lines are only kept in the ring buffer while false
+     * @return running pump
+     */
+    public static OutputPump attach(Process process, String prefix, int capacity, Consumer<String> sink,
+                                    BooleanSupplier sinkEnabled) {
+        OutputPump pump = new OutputPump(process, prefix, capacity, sink, sinkEnabled);
+        pump.stdout.start();
+        pump.stderr.start();
+        pump.flusher.start();
+        return pump;
+    }
+
+    /**
+     * @return reader and flusher threads alive, across all pumps
+     */
+    public static int getActiveThreads() {
+        return ACTIVE_THREADS.get();
+    }
+
+    /**
+     * wait until both streams reached EOF and the last batch was forwarded
+     *
+     * @throws InterruptedException interrupted
+     */
+    public void await() throws InterruptedException {
+        stdout.join();
+        stderr.join();
+        flusher.interrupt();
+        flusher.join();
+    }
+
+    /**
+     * @return up to {@code capacity} most recent lines, oldest first
+     */
+    public synchronized List<String> recentLines() {
+        int size = (int) Math.min(ringCount, ring.length);
+        List<String> lines = new ArrayList<>(size);
+        int start = (ringNext - size + ring.length) % ring.length;
+        for (int i = 0; i < size; i++) {
+            lines.add(ring[(start + i) % ring.length]);
+        }
+        return lines;
+    }
+
+    private static Runnable counted(Runnable task) {
+        return () -> {
+            ACTIVE_THREADS.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                ACTIVE_THREADS.decrementAndGet();
+            }
+        };
+    }
+
+    private void drain(InputStream in, String tag) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                this.append(tag.isEmpty() ? line : tag + line);
+            }
+        } catch (IOException ignored) {
+            // stream closed by process exit
+        }
+    }
+
+    private synchronized void append(String line) {
+        ring[ringNext] = line;
+        ringNext = (ringNext + 1) % ring.length;
+        ringCount++;
+        if (!sinkEnabled.getAsBoolean()) {
+            return;
+        }
+        if (pending.size() < MAX_BATCH) {
+            pending.add(line);
+        } else {
+            suppressed++;
+        }
+    }
+
+    private void flushLoop() {
+        try {
+            while (stdout.isAlive() || stderr.isAlive()) {
+                TimeUnit.MILLISECONDS.sleep(FLUSH_INTERVAL_MILLIS);
+                this.flush();
+            }
+        } catch (InterruptedException ignored) {
+            // asked to flush what is left and finish
+        }
+        this.flush();
+    }
+
+    private void flush() {
+        List<String> batch;
+        long dropped;
+        synchronized (this) {
+            if (pending.isEmpty() && suppressed == 0) {
+                return;
+            }
+            batch = pending;
+            dropped = suppressed;
+            pending = new ArrayList<>(MAX_BATCH);
+            suppressed = 0;
+        }
+        if (!sinkEnabled.getAsBoolean()) {
+            // disabled after these lines were queued, they stay in the ring buffer only
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String line : batch) {
+            if (!sb.isEmpty()) {
+                sb.append('\n');
+            }
+            sb.append('[').append(prefix).append("] ").append(line);
+        }
+        if (dropped > 0) {
+            sb.append('\n').append('[').append(prefix).append("] ... ").append(dropped).append(" lines suppressed");
+        }
+        sink.accept(sb.toString());
+    }
+}
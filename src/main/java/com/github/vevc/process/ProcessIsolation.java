@@ -0,0 +1,465 @@
+package com.github.vevc.process;
+
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a child process away from the game server: lower scheduling priority, a CPU affinity that
+ * avoids the cores of the JVM's busiest threads and, where the cgroup v2 hierarchy is writable, CPU
+ * and memory limits.
+ * <p>
+ * The settings are handed to the startup script through environment variables and applied there
+ * before it execs the server, so they are in place from its first instruction:
+ * <pre>
+ * [ -n "$WM_CGROUP" ] &amp;&amp; echo $$ &gt; "$WM_CGROUP/cgroup.procs"
+ * [ -n "$WM_CPUS" ] &amp;&amp; taskset -pc "$WM_CPUS" $$
+ * exec nice -n "$WM_NICE" ...
+ * </pre>
+ * {@link Placement#verify(long)} reads the result back from {@code /proc} and the cgroup's limit files.
+ *
+ * @author vevc
+ */
+public class ProcessIsolation {
+
+    public static final String ENV_NICE = "WM_NICE";
+    public static final String ENV_CPUS = "WM_CPUS";
+    public static final String ENV_CGROUP = "WM_CGROUP";
+
+    /**
+     * affinity spec that picks the cores automatically
+     */
+    public static final String AUTO = "auto";
+
+    private static final int BUSY_THREADS = 2;
+    private static final long CPU_PERIOD_MICROS = 100_000;
+    // the kernel rounds memory.max down to whole pages, 64 KiB covers every page size in use
+    private static final long MAX_PAGE_SIZE = 64 * 1024;
+    private static final Pattern MEMORY_MAX = Pattern.compile("max|\\d+[KMGkmg]?");
+    private static final Path PROC_SELF = Path.of("/proc/self");
+
+    /**
+     * settings applied to one spawned process
+     */
+    public static final class Placement {
+        private final String name;
+        private final Integer nice;
+        private final BitSet cpus;
+        private final Path cgroup;
+        private final String cpuMax;
+        private final String memoryMax;
+
+        private Placement(String name, Integer nice, BitSet cpus, Path cgroup, String cpuMax, String memoryMax) {
+            this.name = name;
+            this.nice = nice;
+            this.cpus = cpus;
+            this.cgroup = cgroup;
+            this.cpuMax = cpuMax;
+            this.memoryMax = memoryMax;
+        }
+
+        public Path getCgroup() {
+            return cgroup;
+        }
+
+        /**
+         * compare what the kernel reports for the process with what was requested and log it
+         *
+         * @param pid process id
+         * @return true if every requested setting is in effect
+         */
+        public boolean verify(long pid) {
+            Path proc = Path.of("/proc", Long.toString(pid));
+            List<String> problems = new ArrayList<>();
+            StringBuilder applied = new StringBuilder();
+            try {
+                if (nice != null) {
+                    int expected = Math.min(19, ownNice() + nice);
+                    int actual = Integer.parseInt(statFields(proc)[16]);
+                    applied.append("nice ").append(actual);
+                    if (actual != expected) {
+                        problems.add("nice " + actual + " instead of " + expected);
+                    }
+                }
+                if (cpus != null) {
+                    BitSet actual = parseCpuList(statusValue(proc, "Cpus_allowed_list"));
+                    applied.append(applied.isEmpty() ? "" : ", ").append("cpus ").append(toCpuList(actual));
+                    if (!actual.equals(cpus)) {
+                        problems.add("cpus " + toCpuList(actual) + " instead of " + toCpuList(cpus));
+                    }
+                }
+                if (cgroup != null) {
+                    String actual = cgroupPath(proc);
+                    applied.append(applied.isEmpty() ? "" : ", ").append("cgroup ").append(actual);
+                    if (actual.length() <= 1 || !cgroup.endsWith(actual.substring(1))) {
+                        problems.add("cgroup " + actual + " instead of " + cgroup);
+                    }
+                    // the limit files only exist once the parent delegated the controller
+                    if (cpuMax != null) {
+                        String limit = readControl(cgroup.resolve("cpu.max"));
+                        applied.append(", cpu.max ").append(limit);
+                        if (!cpuMax.equals(limit)) {
+                            problems.add("cpu.max " + (limit == null ? "missing" : limit) + " instead of " + cpuMax);
+                        }
+                    }
+                    if (memoryMax != null) {
+                        String limit = readControl(cgroup.resolve("memory.max"));
+                        applied.append(", memory.max ").append(limit);
+                        if (limit == null || !sameMemoryLimit(limit, memoryMax)) {
+                            problems.add("memory.max " + (limit == null ? "missing" : limit) + " instead of " + memoryMax);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // the process already exited or /proc is not readable
+                problems.add("unable to read /proc/" + pid + ": " + e.getMessage());
+            }
+            if (problems.isEmpty()) {
+                LogUtil.info(name + " isolation: " + applied);
+                return true;
+            }
+            LogUtil.info(name + " isolation incomplete: " + String.join(", ", problems));
+            return false;
+        }
+    }
+
+    private final Integer nice;
+    private final String cpus;
+    private final Integer cpuMaxPercent;
+    private final String memoryMax;
+
+    /**
+     * @param nice          niceness added to the JVM's, 0..19, or null
+     * @param cpus          {@link #AUTO}, a cpu list like {@code "2-3,6"}, or null
+     * @param cpuMaxPercent cgroup CPU limit in percent of one core, or null
+     * @param memoryMax     cgroup memory limit like {@code "256M"}, or null
+     * @throws IllegalArgumentException invalid values
+     */
+    public ProcessIsolation(Integer nice, String cpus, Integer cpuMaxPercent, String memoryMax) {
+        if (nice != null && (nice < 0 || nice > 19)) {
+            throw new IllegalArgumentException("hysteria2-nice must be between 0 and 19: " + nice);
+        }
+        if (cpus != null && !AUTO.equalsIgnoreCase(cpus) && parseCpuList(cpus).isEmpty()) {
+            throw new IllegalArgumentException("hysteria2-cpus must be auto or a cpu list like 2-3,6: " + cpus);
+        }
+        if (cpuMaxPercent != null && cpuMaxPercent < 1) {
+            throw new IllegalArgumentException("hysteria2-cpu-max must be a positive percentage: " + cpuMaxPercent);
+        }
+        if (memoryMax != null && !MEMORY_MAX.matcher(memoryMax).matches()) {
+            throw new IllegalArgumentException("hysteria2-memory-max must look like 256M: " + memoryMax);
+        }
+        this.nice = nice;
+        this.cpus = cpus;
+        this.cpuMaxPercent = cpuMaxPercent;
+        this.memoryMax = memoryMax;
+    }
+
+    public boolean isEnabled() {
+        return nice != null || cpus != null || cpuMaxPercent != null || memoryMax != null;
+    }
+
+    /**
+     * pick the settings of one process and pass them to its startup script
+     *
+     * @param pb    process builder of the startup script
+     * @param name  display name, also names the cgroup
+     * @param index index of the process among {@code count} isolated siblings
+     * @param count number of siblings; automatic affinity spreads them over the spare cores
+     * @return what was requested, for {@link Placement#verify(long)}
+     */
+    public Placement apply(ProcessBuilder pb, String name, int index, int count) {
+        BitSet affinity = null;
+        if (cpus != null) {
+            affinity = AUTO.equalsIgnoreCase(cpus) ? spareCpus(index, count) : parseCpuList(cpus);
+            pb.environment().put(ENV_CPUS, toCpuList(affinity));
+        }
+        if (nice != null) {
+            pb.environment().put(ENV_NICE, Integer.toString(nice));
+        }
+        Path cgroup = null;
+        if (cpuMaxPercent != null || memoryMax != null) {
+            cgroup = this.prepareCgroup(name);
+            if (cgroup != null) {
+                pb.environment().put(ENV_CGROUP, cgroup.toString());
+            }
+        }
+        return new Placement(name, nice, affinity, cgroup, cgroup == null ? null : this.cpuMaxValue(),
+                cgroup == null ? null : memoryMax);
+    }
+
+    /**
+     * remove the cgroup of a process that exited
+     *
+     * @param placement placement returned by {@link #apply}
+     */
+    public static void release(Placement placement) {
+        if (placement != null && placement.cgroup != null) {
+            try {
+                Files.deleteIfExists(placement.cgroup);
+            } catch (IOException e) {
+                // still populated or already gone, the next spawn reuses it
+                LogUtil.hysteria2Info("Cgroup {} not removed: {}", placement.cgroup, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * cores allowed for the JVM minus those its busiest threads last ran on, split between siblings
+     */
+    static BitSet spareCpus(int index, int count) {
+        BitSet allowed;
+        BitSet busy = new BitSet();
+        try {
+            allowed = parseCpuList(statusValue(PROC_SELF, "Cpus_allowed_list"));
+            busy = busiestThreadCpus();
+        } catch (IOException | RuntimeException e) {
+            allowed = new BitSet();
+            allowed.set(0, Runtime.getRuntime().availableProcessors());
+        }
+        return spread(allowed, busy, index, count);
+    }
+
+    static BitSet spread(BitSet allowed, BitSet busy, int index, int count) {
+        BitSet spare = (BitSet) allowed.clone();
+        spare.andNot(busy);
+        if (spare.isEmpty()) {
+            // every core hosts a busy thread, do not pin to nothing
+            spare = (BitSet) allowed.clone();
+        }
+        if (count <= 1 || spare.cardinality() < count) {
+            return spare;
+        }
+        BitSet share = new BitSet();
+        int i = 0;
+        for (int cpu = spare.nextSetBit(0); cpu >= 0; cpu = spare.nextSetBit(cpu + 1), i++) {
+            if (i % count == index % count) {
+                share.set(cpu);
+            }
+        }
+        return share;
+    }
+
+    /**
+     * @return cores the {@link #BUSY_THREADS} JVM threads with the most CPU time last ran on
+     */
+    private static BitSet busiestThreadCpus() throws IOException {
+        long[] topTicks = new long[BUSY_THREADS];
+        int[] topCpus = new int[BUSY_THREADS];
+        Arrays.fill(topCpus, -1);
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(PROC_SELF.resolve("task"))) {
+            for (Path task : tasks) {
+                String[] fields;
+                try {
+                    fields = statFields(task);
+                } catch (IOException e) {
+                    // thread exited
+                    continue;
+                }
+                // utime and stime are fields 14 and 15, the last cpu is field 39
+                long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+                int cpu = Integer.parseInt(fields[36]);
+                for (int i = 0; i < BUSY_THREADS; i++) {
+                    if (ticks > topTicks[i]) {
+                        System.arraycopy(topTicks, i, topTicks, i + 1, BUSY_THREADS - i - 1);
+                        System.arraycopy(topCpus, i, topCpus, i + 1, BUSY_THREADS - i - 1);
+                        topTicks[i] = ticks;
+                        topCpus[i] = cpu;
+                        break;
+                    }
+                }
+            }
+        }
+        BitSet busy = new BitSet();
+        for (int cpu : topCpus) {
+            if (cpu >= 0) {
+                busy.set(cpu);
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * create a child cgroup next to the JVM's and write the limits; null if the hierarchy is not
+     * cgroup v2 or not writable
+     */
+    private Path prepareCgroup(String name) {
+        try {
+            Path mount = cgroup2Mount();
+            if (mount == null) {
+                LogUtil.info("cgroup v2 not mounted, " + name + " runs without CPU/memory limits");
+                return null;
+            }
+            Path parent = mount.resolve(cgroupPath(PROC_SELF).substring(1));
+            Path dir = parent.resolve("world-magic-"
+                    + name.toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", ""));
+            Files.createDirectories(dir);
+            List<String> missing = new ArrayList<>();
+            if (cpuMaxPercent != null) {
+                enableController(parent, "cpu");
+                if (!writeControl(dir.resolve("cpu.max"), this.cpuMaxValue())) {
+                    missing.add("cpu.max");
+                }
+            }
+            if (memoryMax != null) {
+                enableController(parent, "memory");
+                if (!writeControl(dir.resolve("memory.max"), memoryMax)) {
+                    missing.add("memory.max");
+                }
+            }
+            if (!missing.isEmpty()) {
+                LogUtil.info("Cgroup " + dir + " has no writable " + String.join(", ", missing)
+                        + ", the controller is not delegated to the server");
+            }
+            return Files.isWritable(dir.resolve("cgroup.procs")) ? dir : null;
+        } catch (IOException | RuntimeException e) {
+            LogUtil.info("Cgroup for " + name + " unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code cpu.max} content for the configured limit, null if there is none
+     */
+    private String cpuMaxValue() {
+        return cpuMaxPercent == null ? null : CPU_PERIOD_MICROS * cpuMaxPercent / 100 + " " + CPU_PERIOD_MICROS;
+    }
+
+    private static void enableController(Path parent, String controller) {
+        // fails with EBUSY while the parent itself holds processes, e.g. the JVM
+        writeControl(parent.resolve("cgroup.subtree_control"), "+" + controller);
+    }
+
+    private static boolean writeControl(Path file, String value) {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try {
+            Files.writeString(file, value);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return trimmed content of a cgroup control file, null if it does not exist
+     */
+    private static String readControl(Path file) throws IOException {
+        return Files.exists(file) ? Files.readString(file, StandardCharsets.US_ASCII).trim() : null;
+    }
+
+    /**
+     * @param actual    {@code memory.max} as read back, in bytes or {@code max}
+     * @param requested configured limit like {@code 256M}
+     */
+    static boolean sameMemoryLimit(String actual, String requested) {
+        if ("max".equals(actual) || "max".equals(requested)) {
+            return actual.equals(requested);
+        }
+        char unit = Character.toUpperCase(requested.charAt(requested.length() - 1));
+        int shift = switch (unit) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        long expected = Long.parseLong(shift == 0 ? requested : requested.substring(0, requested.length() - 1)) << shift;
+        long bytes = Long.parseLong(actual);
+        return bytes <= expected && expected - bytes < MAX_PAGE_SIZE;
+    }
+
+    private static Path cgroup2Mount() throws IOException {
+        for (String line : Files.readAllLines(PROC_SELF.resolve("mountinfo"))) {
+            // "... <mount point> <options> - <fs type> <source> <super options>"
+            int separator = line.indexOf(" - ");
+            if (separator > 0 && line.startsWith("cgroup2 ", separator + 3)) {
+                return Path.of(line.substring(0, separator).split(" ")[4]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return unified hierarchy path from {@code /proc/<pid>/cgroup}, e.g. {@code "/system.slice/x"}
+     */
+    private static String cgroupPath(Path proc) throws IOException {
+        for (String line : Files.readAllLines(proc.resolve("cgroup"))) {
+            if (line.startsWith("0::")) {
+                return line.substring(3);
+            }
+        }
+        throw new IOException("No cgroup v2 entry in " + proc.resolve("cgroup"));
+    }
+
+    /**
+     * @return fields of {@code stat} after the command name, index 0 is field 3 (state)
+     */
+    private static String[] statFields(Path proc) throws IOException {
+        String stat = Files.readString(proc.resolve("stat"), StandardCharsets.US_ASCII);
+        return stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+    }
+
+    private static int ownNice() throws IOException {
+        return Integer.parseInt(statFields(PROC_SELF)[16]);
+    }
+
+    private static String statusValue(Path proc, String key) throws IOException {
+        for (String line : Files.readAllLines(proc.resolve("status"))) {
+            if (line.startsWith(key + ":")) {
+                return line.substring(key.length() + 1).trim();
+            }
+        }
+        throw new IOException(key + " not found in " + proc.resolve("status"));
+    }
+
+    /**
+     * @param list cpu list like {@code "0-3,6"}
+     * @return cpus, empty if malformed
+     */
+    static BitSet parseCpuList(String list) {
+        BitSet result = new BitSet();
+        try {
+            for (String part : list.split(",")) {
+                String item = part.trim();
+                if (item.isEmpty()) {
+                    continue;
+                }
+                int dash = item.indexOf('-');
+                int from = Integer.parseInt(dash < 0 ? item : item.substring(0, dash).trim());
+                int to = dash < 0 ? from : Integer.parseInt(item.substring(dash + 1).trim());
+                if (from < 0 || to < from) {
+                    return new BitSet();
+                }
+                result.set(from, to + 1);
+            }
+        } catch (NumberFormatException e) {
+            return new BitSet();
+        }
+        return result;
+    }
+
+    static String toCpuList(BitSet cpus) {
+        StringBuilder sb = new StringBuilder();
+        for (int from = cpus.nextSetBit(0); from >= 0; ) {
+            int to = cpus.nextClearBit(from) - 1;
+            if (!sb.isEmpty()) {
+                sb.append(',');
+            }
+            sb.append(from);
+            if (to > from) {
+                sb.append('-').append(to);
+            }
+            from = cpus.nextSetBit(to + 1);
+        }
+        return sb.toString();
+    }
+}
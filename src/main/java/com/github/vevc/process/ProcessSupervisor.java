@@ -0,0 +1,274 @@
+package com.github.vevc.process;
+
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.PhaseTimer;
+import com.github.vevc.util.LogUtil;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a child process running without parking a thread on it.
+ * <p>
+ * Exits are observed through {@link Process#onExit()}. A non-zero exit is restarted after an
+ * exponential backoff with jitter; too many crashes inside {@link #CRASH_WINDOW} open a circuit
+ * breaker that pauses restarts for {@link #CIRCUIT_OPEN_TIME}. An exit code of zero is treated as
+ * an intentional shutdown and is not restarted.
+ *
+ * @author vevc
+ */
+public class ProcessSupervisor {
+
+    public enum State {
+        STOPPED, RUNNING, BACKOFF, CIRCUIT_OPEN
+    }
+
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(60);
+    private static final Duration STABLE_UPTIME = Duration.ofSeconds(30);
+    private static final Duration CRASH_WINDOW = Duration.ofMinutes(2);
+    private static final Duration CIRCUIT_OPEN_TIME = Duration.ofMinutes(5);
+    private static final int CRASH_LIMIT = 5;
+    private static final String METRICS_PHASE = "spawn";
+    private static final AtomicInteger ACTIVE_LAUNCHERS = new AtomicInteger();
+
+    private final String name;
+    private final Supplier<ProcessBuilder> processBuilder;
+    private final BooleanSupplier canStart;
+    private final Consumer<Process> onStart;
+    private final Executor launcher;
+
+    private final AtomicLong starts = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong crashes = new AtomicLong();
+    private final Deque<Long> recentCrashes = new ArrayDeque<>();
+
+    private volatile State state = State.STOPPED;
+    private volatile Process process;
+    private volatile long startedAtNanos;
+    private volatile boolean stopping;
+    private long generation;
+    private int consecutiveFailures;
+
+    /**
+     * @param name           name used in log messages and thread names
+     * @param processBuilder creates the builder for every (re)start
+     * @param canStart       prepares every (re)start outside the supervisor lock, e.g. restores
+     *                       removed files; restarts stop once it returns false, a runtime exception
+     *                       counts as a failed start
+     * @param onStart        called with each newly started process, may be null
+     */
+    public ProcessSupervisor(String name, Supplier<ProcessBuilder> processBuilder,
+                             BooleanSupplier canStart, Consumer<Process> onStart) {
+        this.name = name;
+        this.processBuilder = processBuilder;
+        this.canStart = canStart;
+        this.onStart = onStart;
+        this.launcher = task -> Thread.ofVirtual().name(name + "-launcher").start(() -> {
+            ACTIVE_LAUNCHERS.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                ACTIVE_LAUNCHERS.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * start the process, returns immediately
+     */
+    public synchronized void start() {
+        Process current = process;
+        if (!stopping && current != null && current.isAlive()) {
+            return;
+        }
+        stopping = false;
+        long gen = ++generation;
+        launcher.execute(() -> this.launch(gen));
+    }
+
+    /**
+     * stop the process and disable restarts: SIGTERM first, SIGKILL after the grace period
+     *
+     * @param grace time allowed for a graceful exit
+     * @return completes with the exited process once it is gone, or with null if none was running
+     */
+    public CompletableFuture<Process> stop(Duration grace) {
+        Process current;
+        synchronized (this) {
+            stopping = true;
+            generation++;
+            state = State.STOPPED;
+            current = process;
+        }
+        if (current == null || !current.isAlive()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        current.descendants().forEach(ProcessHandle::destroy);
+        current.destroy();
+        return current.onExit()
+                .completeOnTimeout(null, grace.toMillis(), TimeUnit.MILLISECONDS)
+                .thenCompose(exited -> {
+                    if (exited != null) {
+                        return CompletableFuture.completedFuture(exited);
+                    }
+                    LogUtil.info(name + " did not exit within " + grace.toSeconds() + "s, killing");
+                    current.descendants().forEach(ProcessHandle::destroyForcibly);
+                    return current.destroyForcibly().onExit();
+                });
+    }
+
+    private void launch(long gen) {
+        synchronized (this) {
+            if (stopping || gen != generation) {
+                return;
+            }
+        }
+        boolean installed;
+        try {
+            // unlocked: preparing may take a while and must never hold up stop()
+            installed = canStart.getAsBoolean();
+        } catch (RuntimeException e) {
+            LogUtil.error(name + " could not be prepared for start", e);
+            synchronized (this) {
+                if (!stopping && gen == generation) {
+                    scheduleRestart();
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (stopping || gen != generation) {
+                return;
+            }
+            if (!installed) {
+                LogUtil.hysteria2Info(() -> name + " is no longer installed, not starting");
+                state = State.STOPPED;
+                return;
+            }
+            try (PhaseTimer ignored = MetricsRegistry.time(METRICS_PHASE)) {
+                process = processBuilder.get().start();
+            } catch (Exception e) {
+                LogUtil.error(name + " failed to start", e);
+                scheduleRestart();
+                return;
+            }
+            startedAtNanos = System.nanoTime();
+            state = State.RUNNING;
+            if (starts.getAndIncrement() > 0) {
+                restarts.incrementAndGet();
+            }
+        }
+        Process started = process;
+        LogUtil.hysteria2Info(() -> name + " started, pid " + started.pid());
+        if (onStart != null) {
+            onStart.accept(started);
+        }
+        started.onExit().thenAccept(this::onExit);
+    }
+
+    private synchronized void onExit(Process exited) {
+        if (exited != process) {
+            return;
+        }
+        long uptimeNanos = System.nanoTime() - startedAtNanos;
+        int exitCode = exited.exitValue();
+        if (stopping) {
+            LogUtil.hysteria2Info(() -> name + " stopped with code " + exitCode);
+            return;
+        }
+        if (exitCode == 0) {
+            LogUtil.hysteria2Info(() -> name + " exited with code 0, not restarting");
+            state = State.STOPPED;
+            return;
+        }
+        crashes.incrementAndGet();
+        if (uptimeNanos >= STABLE_UPTIME.toNanos()) {
+            consecutiveFailures = 0;
+        }
+        LogUtil.hysteria2Info(() -> name + " exited with code " + exitCode + " after "
+                + TimeUnit.NANOSECONDS.toSeconds(uptimeNanos) + "s");
+        scheduleRestart();
+    }
+
+    private void scheduleRestart() {
+        long delayMillis = this.recordFailure(System.nanoTime());
+        long gen = generation;
+        CompletableFuture.runAsync(() -> this.launch(gen),
+                CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, launcher));
+    }
+
+    /**
+     * count a failed start or a crash and pick the delay before the next start
+     *
+     * @param now time of the failure
+     * @return delay in milliseconds
+     */
+    synchronized long recordFailure(long now) {
+        recentCrashes.addLast(now);
+        while (!recentCrashes.isEmpty() && now - recentCrashes.peekFirst() > CRASH_WINDOW.toNanos()) {
+            recentCrashes.removeFirst();
+        }
+        long delayMillis;
+        if (recentCrashes.size() >= CRASH_LIMIT) {
+            state = State.CIRCUIT_OPEN;
+            recentCrashes.clear();
+            consecutiveFailures = 0;
+            delayMillis = CIRCUIT_OPEN_TIME.toMillis();
+            LogUtil.info(name + " is crash-looping (" + CRASH_LIMIT + " crashes within "
+                    + CRASH_WINDOW.toSeconds() + "s), pausing restarts for " + CIRCUIT_OPEN_TIME.toMinutes() + " min");
+        } else {
+            state = State.BACKOFF;
+            long backoff = Math.min(MAX_BACKOFF.toMillis(), BASE_BACKOFF.toMillis() << Math.min(consecutiveFailures, 16));
+            consecutiveFailures++;
+            delayMillis = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            LogUtil.hysteria2Info(() -> name + " restarting in " + delayMillis + " ms");
+        }
+        return delayMillis;
+    }
+
+    /**
+     * @return launcher threads currently starting a process, across all supervisors
+     */
+    public static int getActiveLauncherThreads() {
+        return ACTIVE_LAUNCHERS.get();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getRestartCount() {
+        return restarts.get();
+    }
+
+    public long getCrashCount() {
+        return crashes.get();
+    }
+
+    /**
+     * @return uptime of the current process in nanoseconds, 0 if not running
+     */
+    public long getUptimeNanos() {
+        Process current = process;
+        return state == State.RUNNING && current != null && current.isAlive() ? System.nanoTime() - startedAtNanos : 0;
+    }
+
+    /**
+     * @return pid of the running process, -1 if none
+     */
+    public long getPid() {
+        Process current = process;
+        return current != null && current.isAlive() ? current.pid() : -1;
+    }
+}
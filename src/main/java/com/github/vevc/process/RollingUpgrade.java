@@ -0,0 +1,140 @@
+package com.github.vevc.process;
+
+import com.github.vevc.util.LogUtil;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Replaces the server binary under running instances.
+ * <p>
+ * The new version is staged next to the live binary and started once on a spare port; it has to
+ * bind the port and stay up for {@link #CANARY_SETTLE_MILLIS}. Only then is it moved over the live
+ * binary, which processes that are still running keep executing, and the instances are restarted
+ * one at a time. Hysteria closes its listener on SIGTERM instead of draining it, so each instance
+ * is down for the exit of the old process plus the bind of the new one.
+ *
+ * @author vevc
+ */
+public class RollingUpgrade {
+
+    /**
+     * writes the server config of the canary
+     */
+    @FunctionalInterface
+    public interface CanaryConfig {
+        /**
+         * @param port spare UDP port the canary listens on
+         * @return written config file, in the directory of the staged binary
+         * @throws Exception config could not be written
+         */
+        Path write(int port) throws Exception;
+    }
+
+    private static final int LISTEN_TIMEOUT_SECONDS = 30;
+    private static final long CANARY_SETTLE_MILLIS = 1000;
+
+    private final String name;
+    private final Path live;
+    private final Path staged;
+    private final Duration stopGrace;
+    private final Object installLock;
+
+    /**
+     * @param name        name used in log messages
+     * @param live        binary the instances are started from
+     * @param staged      where the new version is downloaded to
+     * @param stopGrace   time allowed for an old process to exit
+     * @param installLock held while the live binary is replaced
+     */
+    public RollingUpgrade(String name, Path live, Path staged, Duration stopGrace, Object installLock) {
+        this.name = name;
+        this.live = live;
+        this.staged = staged;
+        this.stopGrace = stopGrace;
+        this.installLock = installLock;
+    }
+
+    /**
+     * health-check the staged binary on a spare port; the live instances keep running meanwhile
+     *
+     * @param version     version of the staged binary, for log messages
+     * @param config      writes the canary config
+     * @param outputLines number of recent output lines kept
+     * @throws Exception the staged binary did not come up
+     */
+    public void check(String version, CanaryConfig config, int outputLines) throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Path configFile = config.write(port);
+        try {
+            ProcessBuilder pb = new ProcessBuilder(staged.toAbsolutePath().toString(), "server", "-c",
+                    configFile.getFileName().toString());
+            pb.directory(staged.toAbsolutePath().getParent().toFile());
+            Process canary = pb.start();
+            OutputPump pump = OutputPump.attach(canary, live.getFileName() + ":canary", outputLines,
+                    LogUtil::hysteria2Info, LogUtil::isHysteria2InfoEnabled);
+            try {
+                if (!UdpPorts.awaitBound(canary, port, LISTEN_TIMEOUT_SECONDS)
+                        || canary.waitFor(CANARY_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new Exception(name + " " + version + " failed the health check on port " + port
+                            + ", keeping the running version. Last output:\n" + ServerInstance.tail(pump));
+                }
+                LogUtil.info(name + " " + version + " passed the health check on port " + port);
+            } finally {
+                canary.destroy();
+                if (!canary.waitFor(stopGrace.toSeconds(), TimeUnit.SECONDS)) {
+                    canary.destroyForcibly();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(configFile);
+        }
+    }
+
+    /**
+     * move the checked binary over the live one; running processes keep executing the file they
+     * were started from
+     *
+     * @throws IOException the binary could not be moved
+     */
+    public void promote() throws IOException {
+        synchronized (installLock) {
+            try {
+                Files.move(staged, live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(staged, live, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * replace the processes one at a time, the next instance is only touched once the new process
+     * listens or the listen timeout passed
+     *
+     * @param instances instances to restart
+     * @param start     starts a stopped instance from the live binary
+     * @throws Exception an old process did not exit
+     */
+    public void restart(List<ServerInstance> instances, Consumer<ServerInstance> start) throws Exception {
+        for (ServerInstance instance : instances) {
+            instance.stop(stopGrace).get(stopGrace.toSeconds() + 2, TimeUnit.SECONDS);
+            instance.release();
+            start.accept(instance);
+            if (!instance.awaitListening()) {
+                LogUtil.info(instance.getName() + " did not listen within " + LISTEN_TIMEOUT_SECONDS
+                        + "s after the upgrade, continuing with the remaining instances");
+            }
+        }
+    }
+}
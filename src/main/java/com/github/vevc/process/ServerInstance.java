@@ -0,0 +1,217 @@
+package com.github.vevc.process;
+
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.MetricsServer;
+import com.github.vevc.metrics.PhaseTimer;
+import com.github.vevc.util.LogUtil;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * One supervised server process listening on its own UDP port.
+ * <p>
+ * Every spawn is placed by the {@link ProcessIsolation}, gets an {@link OutputPump} and a probe
+ * that waits for the port to be bound and then verifies the placement. A crash is reported with
+ * the last output lines once the output has drained.
+ *
+ * @author vevc
+ */
+public final class ServerInstance implements MetricsServer.Target {
+
+    private static final int LISTEN_TIMEOUT_SECONDS = 30;
+    private static final long LISTEN_PROBE_INTERVAL_MILLIS = 50;
+    private static final int CRASH_TAIL_LINES = 20;
+
+    private final int index;
+    private final int port;
+    private final String configName;
+    private final String name;
+    private final String outputPrefix;
+    private volatile ProcessSupervisor supervisor;
+    private volatile OutputPump outputPump;
+    private volatile ProcessIsolation.Placement placement;
+    private long verifiedCrashes;
+
+    /**
+     * @param index        position among the instances, picks the CPU set and the stats port
+     * @param port         listen port
+     * @param configName   config file of the instance in the work dir
+     * @param name         name used in log messages and thread names
+     * @param outputPrefix prefix of forwarded output lines
+     */
+    public ServerInstance(int index, int port, String configName, String name, String outputPrefix) {
+        this.index = index;
+        this.port = port;
+        this.configName = configName;
+        this.name = name;
+        this.outputPrefix = outputPrefix;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return supervisor of the last start, null if never started
+     */
+    @Override
+    public ProcessSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    /**
+     * @return most recent output lines of the server process
+     */
+    public List<String> getRecentOutput() {
+        OutputPump pump = this.outputPump;
+        return pump == null ? Collections.emptyList() : pump.recentLines();
+    }
+
+    /**
+     * supervise a new server process, returns immediately
+     *
+     * @param command     creates the command of every spawn
+     * @param isolation   isolation applied to every spawn, may be null
+     * @param count       number of instances sharing the isolation
+     * @param canStart    prepares every spawn, see {@link ProcessSupervisor}
+     * @param outputLines number of recent output lines kept
+     * @param onListening called once a spawned process listens on the port
+     */
+    public void start(Supplier<ProcessBuilder> command, ProcessIsolation isolation, int count, BooleanSupplier canStart,
+                      int outputLines, Runnable onListening) {
+        ProcessSupervisor next = new ProcessSupervisor(name, () -> {
+            ProcessBuilder pb = command.get();
+            if (isolation != null && isolation.isEnabled()) {
+                // chosen on every spawn, the busiest JVM threads may have moved since the last one
+                this.placement = isolation.apply(pb, name, index, count);
+            }
+            return pb;
+        }, canStart, process -> {
+            this.attachOutput(process, outputLines);
+            this.probeListening(process, onListening);
+        });
+        this.supervisor = next;
+        next.start();
+    }
+
+    /**
+     * stop the process and disable restarts
+     *
+     * @param grace time allowed for a graceful exit
+     * @return completes once the process is gone
+     */
+    public CompletableFuture<Process> stop(Duration grace) {
+        ProcessSupervisor current = this.supervisor;
+        return current == null ? CompletableFuture.completedFuture(null) : current.stop(grace);
+    }
+
+    /**
+     * free the cgroup of the last spawn, once the process is stopped
+     */
+    public void release() {
+        ProcessIsolation.release(this.placement);
+        this.placement = null;
+    }
+
+    /**
+     * @return true once per batch of crashes since the previous call, e.g. to verify the binary
+     * the next spawn starts from
+     */
+    public synchronized boolean crashedSinceLastCheck() {
+        ProcessSupervisor current = this.supervisor;
+        long crashes = current == null ? 0 : current.getCrashCount();
+        if (crashes <= verifiedCrashes) {
+            return false;
+        }
+        verifiedCrashes = crashes;
+        return true;
+    }
+
+    /**
+     * @return true once a process of this instance listens, false if it did not within the timeout
+     * @throws InterruptedException interrupted
+     */
+    public boolean awaitListening() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(LISTEN_TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            ProcessSupervisor current = this.supervisor;
+            if (current != null && current.getPid() > 0 && UdpPorts.isBound(port)) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(LISTEN_PROBE_INTERVAL_MILLIS);
+        }
+        return false;
+    }
+
+    /**
+     * @return the last lines of a pump, joined for a log message
+     */
+    static String tail(OutputPump pump) {
+        List<String> lines = pump.recentLines();
+        return String.join("\n", lines.subList(Math.max(0, lines.size() - CRASH_TAIL_LINES), lines.size()));
+    }
+
+    private void attachOutput(Process process, int outputLines) {
+        OutputPump pump = OutputPump.attach(process, outputPrefix, outputLines, LogUtil::hysteria2Info,
+                LogUtil::isHysteria2InfoEnabled);
+        this.outputPump = pump;
+        // the report waits for the pump to drain, so it runs on its own thread once the process is gone
+        process.onExit().thenAcceptAsync(exited -> {
+            int exitCode = exited.exitValue();
+            try {
+                pump.await();
+                ProcessSupervisor current = this.supervisor;
+                if (exitCode != 0 && current != null && current.getState() != ProcessSupervisor.State.STOPPED) {
+                    LogUtil.info(name + " exited with code " + exitCode + ", last output:\n" + tail(pump));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, task -> Thread.ofVirtual().name(name + "-exit-report").start(task));
+    }
+
+    /**
+     * record the time until the port shows up in /proc/net and verify the isolation of the process
+     */
+    private void probeListening(Process process, Runnable onListening) {
+        Thread.ofVirtual().name(name + "-listen-probe").start(() -> {
+            try (PhaseTimer ignored = MetricsRegistry.time("listen")) {
+                if (!UdpPorts.awaitBound(process, port, LISTEN_TIMEOUT_SECONDS)) {
+                    if (process.isAlive()) {
+                        MetricsRegistry.phase("listen").addError();
+                    }
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            ProcessIsolation.Placement current = this.placement;
+            if (current != null && process.isAlive()) {
+                current.verify(process.pid());
+            }
+            if (process.isAlive()) {
+                onListening.run();
+            }
+        });
+    }
+}
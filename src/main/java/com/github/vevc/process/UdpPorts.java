@@ -0,0 +1,59 @@
+package com.github.vevc.process;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds bound UDP ports in {@code /proc/net}; a QUIC server has no handshake to probe.
+ *
+ * @author vevc
+ */
+final class UdpPorts {
+
+    private static final long PROBE_INTERVAL_MILLIS = 50;
+
+    /**
+     * @param port local UDP port
+     * @return true if any socket is bound to the port
+     */
+    static boolean isBound(int port) {
+        String hexPort = String.format(":%04X", port);
+        for (String table : new String[]{"/proc/net/udp", "/proc/net/udp6"}) {
+            try {
+                for (String line : Files.readAllLines(Path.of(table))) {
+                    // local_address is the second column, e.g. "00000000:2718"
+                    String[] columns = line.trim().split("\\s+");
+                    if (columns.length > 1 && columns[1].endsWith(hexPort)) {
+                        return true;
+                    }
+                }
+            } catch (Exception ignored) {
+                // table not available on this platform
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param process process expected to bind the port
+     * @param port    local UDP port
+     * @param timeout seconds to wait
+     * @return true once the port is bound, false if the process exited or the timeout passed first
+     * @throws InterruptedException interrupted
+     */
+    static boolean awaitBound(Process process, int port, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        while (process.isAlive() && System.nanoTime() < deadline) {
+            if (isBound(port)) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(PROBE_INTERVAL_MILLIS);
+        }
+        return false;
+    }
+
+    private UdpPorts() {
+        throw new IllegalStateException("Utility class");
+    }
+}
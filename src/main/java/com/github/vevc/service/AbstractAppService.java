@@ -1,18 +1,21 @@
 package com.github.vevc.service;
 
 import com.github.vevc.config.AppConfig;
+import com.github.vevc.download.ArtifactCache;
+import com.github.vevc.download.MirrorResolver;
+import com.github.vevc.download.SegmentedDownloader;
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.PhaseTimer;
+import com.github.vevc.util.HashUtil;
 import com.github.vevc.util.LogUtil;
 import org.codehaus.plexus.util.FileUtils;
 
 import java.io.*;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -21,6 +24,9 @@ import java.util.Set;
 public abstract class AbstractAppService {
 
     private static final File WORK_DIR = new File(System.getProperty("user.dir"), ".cache");
+    private static final ArtifactCache ARTIFACT_CACHE = new ArtifactCache(new File(WORK_DIR, "artifacts").toPath());
+    private static final double MIRROR_HEDGE_PERCENTILE = 90;
+    protected static final int PROCESS_OUTPUT_LINES = 200;
     protected static final boolean OS_IS_ARM;
 
     static {
@@ -28,13 +34,26 @@ public abstract class AbstractAppService {
         OS_IS_ARM = arch.contains("arm") || arch.contains("aarch64");
     }
 
+    private final MirrorResolver mirrorResolver;
+
+    protected AbstractAppService() {
+        this(new MirrorResolver(new File(WORK_DIR, "mirror-scores.properties").toPath(), MIRROR_HEDGE_PERCENTILE));
+    }
+
+    /**
+     * @param mirrorResolver resolves artifacts that have several mirrors or a {@code file://} url
+     */
+    protected AbstractAppService(MirrorResolver mirrorResolver) {
+        this.mirrorResolver = mirrorResolver;
+    }
+
     /**
-     * get app download url
+     * get app download urls, one per mirror in configured order
      *
-     * @param appVersion app version
-     * @return url
+     * @param appConfig app properties
+     * @return urls
      */
-    protected abstract String getAppDownloadUrl(String appVersion);
+    protected abstract List<String> getAppDownloadUrls(AppConfig appConfig);
 
     /**
      * install app
@@ -54,6 +73,19 @@ public abstract class AbstractAppService {
      */
     protected abstract void clean();
 
+    /**
+     * apply a changed configuration to the installed app
+     *
+     * @param appConfig new app properties
+     * @throws Exception e
+     */
+    protected abstract void reconfigure(AppConfig appConfig) throws Exception;
+
+    /**
+     * release background resources, called when the plugin is disabled
+     */
+    protected abstract void shutdown();
+
     protected File initWorkDir() throws IOException {
         FileUtils.forceMkdir(WORK_DIR);
         return WORK_DIR;
@@ -71,40 +103,74 @@ public abstract class AbstractAppService {
         Files.setPosixFilePermissions(destFile, perms);
     }
 
-    protected void download(String downloadUrl, File file) throws Exception {
-        try (HttpClient client = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.ALWAYS).build()) {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(downloadUrl))
-                    .GET()
-                    .build();
-            HttpResponse<InputStream> response =
-                    client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-            try (InputStream in = response.body()) {
-                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * download an artifact through the local cache, reusing a verified copy when present
+     * <p>
+     * A single http(s) url is fetched in resumable segments, several mirrors or a {@code file://}
+     * url go through the mirror resolver, which races a hedged request against a slow mirror.
+     *
+     * @param appName      app name
+     * @param appVersion   app version
+     * @param downloadUrls download urls in configured order
+     * @param file         destination file
+     * @throws Exception e
+     */
+    protected void downloadArtifact(String appName, String appVersion, List<String> downloadUrls, File file) throws Exception {
+        String arch = OS_IS_ARM ? "arm64" : "amd64";
+        Path blob;
+        try (PhaseTimer ignored = MetricsRegistry.time("artifact-cache")) {
+            blob = ARTIFACT_CACHE.lookup(appName, appVersion, arch);
+        }
+        if (blob != null) {
+            LogUtil.info("Using cached " + appName + " " + appVersion + " (" + blob.getFileName() + ")");
+        } else {
+            Path partial = ARTIFACT_CACHE.partialFile(appName, appVersion, arch);
+            // computed while the body streams; only a resumed download needs a second pass
+            String sha256 = null;
+            try (PhaseTimer ignored = MetricsRegistry.time("download")) {
+                List<URI> mirrors = downloadUrls.stream().map(URI::create).toList();
+                if (mirrors.size() == 1 && mirrors.getFirst().getScheme().startsWith("http")) {
+                    HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.SHA256);
+                    if (new SegmentedDownloader().download(mirrors.getFirst(), partial, hasher)) {
+                        sha256 = hasher.hex(HashUtil.Algorithm.SHA256);
+                    }
+                } else {
+                    MirrorResolver.Download download = this.mirrorResolver.download(mirrors, partial,
+                            this::verifyArtifact, HashUtil.Algorithm.SHA256);
+                    sha256 = download.hasher().hex(HashUtil.Algorithm.SHA256);
+                    LogUtil.hysteria2Info("Downloaded {} {} from {}", appName, appVersion, download.source());
+                }
             }
+            if (!this.verifyArtifact(partial)) {
+                Files.deleteIfExists(partial);
+                throw new IOException("Downloaded " + appName + " " + appVersion + " failed verification");
+            }
+            blob = ARTIFACT_CACHE.storeFile(appName, appVersion, arch, partial, sha256);
         }
+        ARTIFACT_CACHE.materialize(blob, file.toPath());
     }
 
     /**
-     * start process
+     * hash a cached artifact again regardless of its stamp, e.g. after the installed copy crashed;
+     * a corrupt copy is discarded so the next {@link #downloadArtifact} fetches it anew
      *
-     * @param pb processBuilder
-     * @return exitCode
-     * @throws Exception e
+     * @param appName    app name
+     * @param appVersion app version
+     * @return false if the cached artifact is missing or was corrupt
+     * @throws IOException e
      */
-    protected int startProcess(ProcessBuilder pb) throws Exception {
-        Process process = pb.start();
-        try (
-                InputStream in = process.getInputStream();
-                InputStreamReader inReader = new InputStreamReader(in);
-                BufferedReader reader = new BufferedReader(inReader)
-        ) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                LogUtil.info(line);
-            }
-        }
-        return process.waitFor();
+    protected boolean verifyCachedArtifact(String appName, String appVersion) throws IOException {
+        return ARTIFACT_CACHE.verify(appName, appVersion, OS_IS_ARM ? "arm64" : "amd64");
+    }
+
+    /**
+     * check a freshly downloaded artifact before it is cached
+     *
+     * @param file downloaded file
+     * @return true if the file is usable
+     * @throws IOException e
+     */
+    protected boolean verifyArtifact(Path file) throws IOException {
+        return Files.size(file) > 0;
     }
 }
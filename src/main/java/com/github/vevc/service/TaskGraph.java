@@ -0,0 +1,158 @@
+package com.github.vevc.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a small dependency graph of install steps concurrently on virtual threads.
+ * <p>
+ * Every step starts as soon as its dependencies have finished. The first failure interrupts all
+ * sibling steps and is rethrown from {@link #run()}.
+ *
+ * @author vevc
+ */
+public class TaskGraph {
+
+    /**
+     * install step
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final Map<String, Long> durations = new ConcurrentHashMap<>();
+
+    /**
+     * add a step; dependencies must already have been added
+     *
+     * @param name      step name
+     * @param task      step body
+     * @param dependsOn names of steps that must finish first
+     * @return this graph
+     */
+    public TaskGraph add(String name, Task task, String... dependsOn) {
+        for (String dep : dependsOn) {
+            if (!nodes.containsKey(dep)) {
+                throw new IllegalArgumentException("Unknown dependency " + dep + " for step " + name);
+            }
+        }
+        nodes.put(name, new Node(name, task, dependsOn));
+        return this;
+    }
+
+    /**
+     * run all steps and wait for them
+     *
+     * @throws Exception the first step failure
+     */
+    public void run() throws Exception {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Node node : nodes.values()) {
+                if (failure.get() != null) {
+                    break;
+                }
+                List<Future<?>> deps = new ArrayList<>(node.dependsOn.length);
+                for (String dep : node.dependsOn) {
+                    deps.add(futures.get(dep));
+                }
+                Future<?> future;
+                try {
+                    future = executor.submit(() -> {
+                        try {
+                            for (Future<?> dep : deps) {
+                                dep.get();
+                            }
+                            long start = System.nanoTime();
+                            node.task.run();
+                            durations.put(node.name, System.nanoTime() - start);
+                        } catch (Exception e) {
+                            if (failure.compareAndSet(null, e)) {
+                                executor.shutdownNow();
+                            }
+                            throw e;
+                        }
+                        return null;
+                    });
+                } catch (RejectedExecutionException e) {
+                    // a step already failed and shut the executor down
+                    break;
+                }
+                futures.put(node.name, future);
+            }
+            for (Future<?> future : futures.values()) {
+                try {
+                    future.get();
+                } catch (ExecutionException ignored) {
+                    // the root cause is kept in failure
+                }
+            }
+        }
+        Exception e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * @return duration of each finished step in nanoseconds
+     */
+    public Map<String, Long> getDurations() {
+        return durations;
+    }
+
+    /**
+     * describe the longest dependency chain, e.g. {@code "binary -> config (812 ms)"}
+     *
+     * @return critical path description
+     */
+    public String describeCriticalPath() {
+        Map<String, Long> pathNanos = new LinkedHashMap<>();
+        Map<String, String> pathNames = new LinkedHashMap<>();
+        String last = null;
+        for (Node node : nodes.values()) {
+            long best = 0;
+            String bestName = null;
+            for (String dep : node.dependsOn) {
+                if (pathNanos.get(dep) > best) {
+                    best = pathNanos.get(dep);
+                    bestName = pathNames.get(dep);
+                }
+            }
+            pathNanos.put(node.name, best + durations.getOrDefault(node.name, 0L));
+            pathNames.put(node.name, bestName == null ? node.name : bestName + " -> " + node.name);
+            if (last == null || pathNanos.get(node.name) > pathNanos.get(last)) {
+                last = node.name;
+            }
+        }
+        if (last == null) {
+            return "empty";
+        }
+        return pathNames.get(last) + " (" + TimeUnit.NANOSECONDS.toMillis(pathNanos.get(last)) + " ms)";
+    }
+
+    private static final class Node {
+        private final String name;
+        private final Task task;
+        private final String[] dependsOn;
+
+        private Node(String name, Task task, String[] dependsOn) {
+            this.name = name;
+            this.task = task;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.vevc.service;
+
+import com.github.vevc.metrics.ProcStat;
+import com.github.vevc.util.LogUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Lowers the proxy bandwidth while the game server is over its tick budget and raises it again
+ * once ticks are cheap.
+ * <p>
+ * Every sample is the average tick time in milliseconds (MSPT). The limit is halved after
+ * {@link #OVER_BUDGET_SAMPLES} samples in a row above the high mark; if ticks stay over budget
+ * after that, the next decrease goes straight to the minimum. The limit is raised by half after
+ * {@link #RECOVERED_SAMPLES} samples in a row below the low mark, up to the maximum, where the
+ * limit is lifted. Applying a limit restarts the server, so changes are also spaced out: a
+ * decrease at least {@link #DECREASE_HOLD_NANOS} and an increase at least
+ * {@link #INCREASE_HOLD_NANOS} after the previous change. Slow increases and fast decreases keep
+ * the game server first.
+ * <p>
+ * The proxy's CPU time is sampled along with the tick time. While it used less than
+ * {@link #MIN_PROXY_CORES} cores since the last sample, the overload is not the proxy's doing and
+ * the limit stays.
+ *
+ * @author vevc
+ */
+public class TickThrottle {
+
+    public static final long NO_LIMIT = 0;
+
+    private static final int OVER_BUDGET_SAMPLES = 2;
+    private static final int RECOVERED_SAMPLES = 12;
+    private static final long DECREASE_HOLD_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final long INCREASE_HOLD_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_FACTOR = 1.5;
+    private static final double MIN_PROXY_CORES = 0.2;
+
+    private final double highMspt;
+    private final double lowMspt;
+    private final long minMbps;
+    private final long maxMbps;
+    private final LongSupplier proxyCpuTicks;
+    private final LongConsumer applyLimit;
+    private long limitMbps = NO_LIMIT;
+    private int overBudget;
+    private int recovered;
+    private long lastChangeNanos;
+    private boolean sustained;
+    private long lastCpuTicks = -1;
+    private long lastSampleNanos;
+    private boolean applying;
+    private boolean closed;
+
+    /**
+     * @param highMspt   tick time that counts as over budget
+     * @param lowMspt    tick time that counts as recovered, below {@code highMspt}
+     * @param minMbps    lowest limit
+     * @param maxMbps       limit above which no limit is applied
+     * @param proxyCpuTicks total CPU time of the proxy processes in clock ticks, -1 if unknown;
+     *                      read on the sampling thread
+     * @param applyLimit    applies a limit in Mbps or {@link #NO_LIMIT}; runs off the sampling thread
+     */
+    public TickThrottle(double highMspt, double lowMspt, long minMbps, long maxMbps, LongSupplier proxyCpuTicks,
+                        LongConsumer applyLimit) {
+        if (lowMspt <= 0 || lowMspt >= highMspt) {
+            throw new IllegalArgumentException("tick-throttle-low-mspt must be positive and below tick-throttle-high-mspt");
+        }
+        if (minMbps < 1 || minMbps > maxMbps) {
+            throw new IllegalArgumentException("tick-throttle-min-mbps must be between 1 and tick-throttle-max-mbps");
+        }
+        this.highMspt = highMspt;
+        this.lowMspt = lowMspt;
+        this.minMbps = minMbps;
+        this.maxMbps = maxMbps;
+        this.proxyCpuTicks = proxyCpuTicks;
+        this.applyLimit = applyLimit;
+        // allow an immediate decrease after enable
+        this.lastChangeNanos = System.nanoTime() - DECREASE_HOLD_NANOS;
+    }
+
+    /**
+     * feed one tick time sample; cheap enough for the main thread
+     *
+     * @param mspt average milliseconds per tick
+     */
+    public void sample(double mspt) {
+        long next = this.decide(mspt, proxyCpuTicks.getAsLong(), System.nanoTime());
+        if (next >= 0) {
+            Thread.ofVirtual().name("hysteria2-throttle").start(() -> this.apply(next));
+        }
+    }
+
+    /**
+     * @param mspt     average milliseconds per tick
+     * @param cpuTicks total CPU time of the proxy processes in clock ticks, -1 if unknown
+     * @param now      sample time
+     * @return new limit, or -1 if the limit stays
+     */
+    synchronized long decide(double mspt, long cpuTicks, long now) {
+        double proxyCores = this.proxyCores(cpuTicks, now);
+        if (closed || applying) {
+            // the restart itself may cost ticks, ignore it
+            return -1;
+        }
+        overBudget = mspt > highMspt ? overBudget + 1 : 0;
+        // the overload survived a decrease as long as no sample was within budget since
+        sustained &= overBudget > 0;
+        recovered = mspt < lowMspt ? recovered + 1 : 0;
+        long current = limitMbps == NO_LIMIT ? maxMbps : limitMbps;
+        long next = -1;
+        if (overBudget >= OVER_BUDGET_SAMPLES && now - lastChangeNanos >= DECREASE_HOLD_NANOS) {
+            if (proxyCores >= 0 && proxyCores < MIN_PROXY_CORES) {
+                LogUtil.hysteria2Info(() -> "Average tick time " + String.format("%.1f", mspt)
+                        + " ms, but hysteria2 only used " + String.format("%.2f", proxyCores)
+                        + " cores, bandwidth limit stays");
+                overBudget = 0;
+                return -1;
+            }
+            long lowered = sustained ? minMbps : Math.max(minMbps, (long) (current * DECREASE_FACTOR));
+            if (lowered < current || limitMbps == NO_LIMIT) {
+                next = lowered;
+            }
+        } else if (limitMbps != NO_LIMIT && recovered >= RECOVERED_SAMPLES
+                && now - lastChangeNanos >= INCREASE_HOLD_NANOS) {
+            long raised = (long) Math.ceil(current * INCREASE_FACTOR);
+            next = raised >= maxMbps ? NO_LIMIT : raised;
+        }
+        if (next < 0) {
+            return -1;
+        }
+        LogUtil.info("Average tick time " + String.format("%.1f", mspt) + " ms, hysteria2 bandwidth limit "
+                + describe(limitMbps) + " -> " + describe(next));
+        sustained = next != NO_LIMIT && next < current;
+        limitMbps = next;
+        overBudget = 0;
+        recovered = 0;
+        lastChangeNanos = now;
+        applying = true;
+        return next;
+    }
+
+    /**
+     * @return cores used by the proxy since the previous sample, -1 if unknown
+     */
+    private double proxyCores(long cpuTicks, long now) {
+        double cores = -1;
+        // a restarted process starts counting from zero again
+        if (cpuTicks >= 0 && lastCpuTicks >= 0 && cpuTicks >= lastCpuTicks && now > lastSampleNanos) {
+            cores = (cpuTicks - lastCpuTicks) / ProcStat.CLOCK_TICKS_PER_SECOND
+                    / ((now - lastSampleNanos) / 1e9);
+        }
+        lastCpuTicks = cpuTicks;
+        lastSampleNanos = now;
+        return cores;
+    }
+
+    private void apply(long limit) {
+        try {
+            applyLimit.accept(limit);
+        } catch (RuntimeException e) {
+            LogUtil.error("Failed to apply bandwidth limit", e);
+        } finally {
+            this.applied(System.nanoTime());
+        }
+    }
+
+    /**
+     * @param now time the server runs with the new limit
+     */
+    synchronized void applied(long now) {
+        applying = false;
+        // measure the recovery from the moment the server runs with the new limit
+        lastChangeNanos = now;
+        notifyAll();
+    }
+
+    /**
+     * stop deciding; a limit that is being applied still completes, see {@link #awaitIdle()}
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * wait until no limit is being applied
+     *
+     * @throws InterruptedException interrupted
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (applying) {
+            wait();
+        }
+    }
+
+    /**
+     * @return current limit in Mbps or {@link #NO_LIMIT}
+     */
+    public synchronized long getLimitMbps() {
+        return limitMbps;
+    }
+
+    private static String describe(long limit) {
+        return limit == NO_LIMIT ? "off" : limit + " mbps";
+    }
+}
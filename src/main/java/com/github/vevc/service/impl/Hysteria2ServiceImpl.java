@@ -1,25 +1,50 @@
 package com.github.vevc.service.impl;
 
 import com.github.vevc.config.AppConfig;
+import com.github.vevc.config.Hysteria2Config;
+import com.github.vevc.download.CachedTemplate;
+import com.github.vevc.download.MirrorResolver;
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.PhaseTimer;
+import com.github.vevc.metrics.TrafficStatsPoller;
+import com.github.vevc.process.ProcessIsolation;
+import com.github.vevc.process.RollingUpgrade;
+import com.github.vevc.process.ServerInstance;
 import com.github.vevc.service.AbstractAppService;
+import com.github.vevc.service.TaskGraph;
+import com.github.vevc.service.TickThrottle;
+import com.github.vevc.util.CertificateStore;
 import com.github.vevc.util.CertificateUtil;
 import com.github.vevc.util.LogUtil;
+import com.github.vevc.util.Md5Util;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Installs and runs one or more Hysteria2 server instances.
+ * <p>
+ * Every instance listens on its own port with its own generated config and supervisor; all of them
+ * share the binary, the TLS certificate and the startup script. The processes are run by
+ * {@link ServerInstance}, version changes without a full restart by {@link RollingUpgrade}.
+ *
  * @author vevc
  */
 public class Hysteria2ServiceImpl extends AbstractAppService {
@@ -27,140 +52,573 @@ public class Hysteria2ServiceImpl extends AbstractAppService {
     private static final String APP_NAME = "hysteria";
     private static final String APP_CONFIG_NAME = "hysteria2-config.json";
     private static final String APP_STARTUP_NAME = "startup.sh";
-    private static final String APP_DOWNLOAD_URL = "https://github.com/apernet/hysteria/releases/download/app/v%s/hysteria-linux-%s";
+    private static final String APP_STAGED_NAME = "hysteria.next";
+    private static final String APP_CANARY_CONFIG_NAME = "hysteria2-config-canary.json";
+    private static final String APP_DOWNLOAD_URL = "https://github.com/apernet/hysteria/releases/download/app/v{version}/hysteria-linux-{arch}";
     private static final String APP_CONFIG_URL = "https://raw.githubusercontent.com/yooo6/5351world_magic/refs/heads/main/hysteria2-config.json";
     private static final String HYSTERIA2_URL = "hysteria2://%s@%s:%s/?insecure=1&sni=%s#%s-hysteria2";
 
+    private static final Duration STOP_GRACE = Duration.ofSeconds(5);
+    private static final long SPAWN_SETTLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final byte[] ELF_MAGIC = {0x7f, 'E', 'L', 'F'};
+
+    private volatile List<ServerInstance> instances = Collections.emptyList();
+    private volatile AppConfig appConfig;
+    private volatile String configTemplate;
+    private volatile TrafficStatsPoller trafficStats;
+    private volatile ProcessIsolation isolation;
+    private volatile long bandwidthLimitMbps = TickThrottle.NO_LIMIT;
+    private volatile long lastSpawnNanos = System.nanoTime() - SPAWN_SETTLE_NANOS;
+    private final Object installLock = new Object();
+    private final RollingUpgrade upgrade = new RollingUpgrade("Hysteria2", new File(this.getWorkDir(), APP_NAME).toPath(),
+            new File(this.getWorkDir(), APP_STAGED_NAME).toPath(), STOP_GRACE, installLock);
+    private final String trafficStatsSecret = newSecret();
+    private final AtomicBoolean startupReported = new AtomicBoolean();
+    private final CertificateStore certificateStore = new CertificateStore(new File(this.getWorkDir(), "certs").toPath());
+    private final CachedTemplate template = new CachedTemplate(APP_CONFIG_NAME, URI.create(APP_CONFIG_URL),
+            new File(this.getWorkDir(), "templates").toPath(), Hysteria2Config::isValidTemplate);
+
+    public Hysteria2ServiceImpl() {
+        super();
+    }
+
+    /**
+     * @param mirrorResolver resolver for the server binary, e.g. one backed by local mirrors
+     */
+    public Hysteria2ServiceImpl(MirrorResolver mirrorResolver) {
+        super(mirrorResolver);
+    }
+
     @Override
-    protected String getAppDownloadUrl(String appVersion) {
+    protected List<String> getAppDownloadUrls(AppConfig appConfig) {
         String arch = OS_IS_ARM ? "arm64" : "amd64";
-        return String.format(APP_DOWNLOAD_URL, appVersion, arch);
+        List<String> mirrors = appConfig.getHysteria2Mirrors();
+        return (mirrors.isEmpty() ? List.of(APP_DOWNLOAD_URL) : mirrors).stream()
+                .map(mirror -> mirror.replace("{version}", appConfig.getHysteria2Version()).replace("{arch}", arch))
+                .toList();
+    }
+
+    /**
+     * a mirror answering with an error page is not a binary
+     */
+    @Override
+    protected boolean verifyArtifact(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return Arrays.equals(in.readNBytes(ELF_MAGIC.length), ELF_MAGIC);
+        }
     }
 
     @Override
     public void install(AppConfig appConfig) throws Exception {
         File workDir = this.initWorkDir();
+        List<ServerInstance> planned = planInstances(appConfig);
+        for (ServerInstance instance : planned) {
+            // fail before any download when a tuning value is out of range
+            this.instanceConfig(workDir, appConfig, instance).validate();
+        }
+        ProcessIsolation nextIsolation = newIsolation(appConfig);
+        long start = System.nanoTime();
+        TaskGraph graph = new TaskGraph()
+                .add("binary", () -> this.installBinary(workDir, appConfig))
+                .add("certs", () -> this.installCertificates(workDir, appConfig))
+                .add("config", () -> {
+                    this.loadTemplate();
+                    this.writeConfigs(workDir, appConfig, planned);
+                    LogUtil.hysteria2Info("Hysteria2 server config written successfully");
+                })
+                .add("startup-script", () -> this.writeStartupScript(workDir))
+                .add("sub-file", () -> this.updateSubFile(appConfig));
+        try {
+            graph.run();
+        } finally {
+            graph.getDurations().forEach((step, nanos) -> MetricsRegistry.phase("install." + step).record(nanos));
+        }
+        this.appConfig = appConfig;
+        this.instances = planned;
+        this.isolation = nextIsolation;
+        if (appConfig.isConfigTemplateRefresh()) {
+            Thread.ofVirtual().name("hysteria2-template-refresh").start(this::refreshTemplate);
+        }
+        LogUtil.info("Hysteria2 install finished in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + " ms for " + planned.size() + " instance(s), critical path: " + graph.describeCriticalPath());
+    }
+
+    /**
+     * apply only what changed: the subscription file is rewritten in place, anything the running
+     * server reads is re-templated from the cached config and picked up by restarting the process
+     */
+    @Override
+    public synchronized void reconfigure(AppConfig next) throws Exception {
+        AppConfig current = this.appConfig;
+        if (current == null) {
+            throw new IllegalStateException("Hysteria2 server is not installed");
+        }
+        long start = System.nanoTime();
+        File workDir = this.initWorkDir();
+        boolean binaryChanged = !Objects.equals(current.getHysteria2Version(), next.getHysteria2Version());
+        boolean certsChanged = !Objects.equals(current.getDomain(), next.getDomain())
+                || !Objects.equals(current.getTlsKeyAlgorithm(), next.getTlsKeyAlgorithm());
+        boolean portsChanged = !current.getHysteria2Ports().equals(next.getHysteria2Ports());
+        boolean tuningChanged = !serverConfig(workDir, current, 1).sameTuning(serverConfig(workDir, next, 1));
+        boolean configChanged = certsChanged || portsChanged || tuningChanged
+                || !Objects.equals(current.getPassword(), next.getPassword())
+                || !Objects.equals(current.getTrafficStatsPort(), next.getTrafficStatsPort());
+        boolean pollerChanged = current.getTrafficStatsInterval() != next.getTrafficStatsInterval()
+                || current.getTrafficStatsWindow() != next.getTrafficStatsWindow();
+        boolean subChanged = configChanged
+                || !Objects.equals(current.getUuid(), next.getUuid())
+                || !Objects.equals(current.getRemarksPrefix(), next.getRemarksPrefix());
+        boolean isolationChanged = !current.sameIsolation(next);
+        ProcessIsolation nextIsolation = isolationChanged ? newIsolation(next) : this.isolation;
+        boolean restart = binaryChanged || configChanged || isolationChanged;
+        boolean running = this.instances.stream().anyMatch(instance -> instance.getSupervisor() != null);
+        boolean rollingUpgrade = binaryChanged && running && !portsChanged && next.isHysteria2RollingUpgrade();
+        List<ServerInstance> planned = portsChanged ? planInstances(next) : this.instances;
+        for (ServerInstance instance : planned) {
+            // reject an out-of-range value before the subscription, the binary or the running config change
+            this.instanceConfig(workDir, next, instance).validate();
+        }
+
+        if (rollingUpgrade) {
+            // fails before anything live is touched, the running version then stays
+            this.stageBinary(workDir, next);
+        }
+        if (restart) {
+            this.restoreInstallation(workDir, next, binaryChanged && !rollingUpgrade, certsChanged);
+        }
+        if (subChanged) {
+            if (!Objects.equals(current.getUuid(), next.getUuid())) {
+                Files.deleteIfExists(new File(workDir, current.getUuid()).toPath());
+            }
+            this.updateSubFile(next);
+        }
+        this.appConfig = next;
+        this.isolation = nextIsolation;
+
+        if (restart) {
+            this.writeConfigs(workDir, next, planned);
+            if (rollingUpgrade) {
+                // promoted only once everything else of the reload has been prepared
+                upgrade.promote();
+                this.rollingRestart();
+                Thread.ofVirtual().name("hysteria2-clean").start(this::clean);
+            } else if (running) {
+                this.stopAll();
+                for (ServerInstance old : this.instances) {
+                    if (planned.stream().noneMatch(instance -> instance.getConfigName().equals(old.getConfigName()))) {
+                        Files.deleteIfExists(new File(workDir, old.getConfigName()).toPath());
+                    }
+                }
+                this.instances = planned;
+                this.startAll();
+                Thread.ofVirtual().name("hysteria2-clean").start(this::clean);
+            } else {
+                this.instances = planned;
+            }
+        } else if (pollerChanged && running) {
+            this.stopTrafficStats();
+            this.startTrafficStats();
+        }
+        LogUtil.info("Applied configuration change in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + " ms (binary: " + binaryChanged + ", certs: " + certsChanged + ", config: " + configChanged
+                + ", restarted: " + (restart && running) + ", rolling upgrade: " + rollingUpgrade + ")");
+    }
+
+    /**
+     * download the configured version next to the running binary and health-check it on a spare
+     * port; the live instances keep running meanwhile
+     *
+     * @throws Exception download failed or the new version did not come up
+     */
+    private void stageBinary(File workDir, AppConfig next) throws Exception {
+        File staged = new File(workDir, APP_STAGED_NAME);
+        try (PhaseTimer ignored = MetricsRegistry.time("upgrade.stage")) {
+            this.downloadArtifact(APP_NAME, next.getHysteria2Version(), this.getAppDownloadUrls(next), staged);
+            this.setExecutePermission(staged.toPath());
+            if (!new File(workDir, CertificateUtil.CERT_FILE).exists()
+                    || !new File(workDir, CertificateUtil.KEY_FILE).exists()) {
+                this.installCertificates(workDir, next);
+            }
+            if (this.configTemplate == null) {
+                this.loadTemplate();
+            }
+            upgrade.check(next.getHysteria2Version(), port -> Files.writeString(
+                    new File(workDir, APP_CANARY_CONFIG_NAME).toPath(),
+                    serverConfig(workDir, next, port).render(this.configTemplate)), PROCESS_OUTPUT_LINES);
+        } catch (Exception e) {
+            MetricsRegistry.phase("upgrade.stage").addError();
+            Files.deleteIfExists(staged.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * replace the instances one at a time, see {@link RollingUpgrade}
+     */
+    private void rollingRestart() throws Exception {
+        try (PhaseTimer ignored = MetricsRegistry.time("upgrade.restart")) {
+            this.stopTrafficStats();
+            File workDir = this.getWorkDir();
+            upgrade.restart(this.instances, instance -> this.startInstance(instance, workDir));
+            this.startTrafficStats();
+        }
+    }
+
+    /**
+     * cap the bandwidth of all instances, e.g. while the game server is over its tick budget;
+     * running instances are restarted with the new limit
+     *
+     * @param mbps limit in Mbps or {@link TickThrottle#NO_LIMIT}
+     * @throws Exception the config could not be written
+     */
+    public synchronized void limitBandwidth(long mbps) throws Exception {
+        AppConfig current = this.appConfig;
+        if (current == null || this.bandwidthLimitMbps == mbps) {
+            return;
+        }
+        this.bandwidthLimitMbps = mbps;
+        boolean running = this.instances.stream().anyMatch(instance -> instance.getSupervisor() != null);
+        if (!running) {
+            return;
+        }
+        // hysteria2 has no runtime bandwidth control, the limit takes a config rewrite and restart
+        File workDir = this.initWorkDir();
+        this.restoreInstallation(workDir, current, false, false);
+        this.writeConfigs(workDir, current, this.instances);
+        this.stopAll();
+        this.startAll();
+        Thread.ofVirtual().name("hysteria2-clean").start(this::clean);
+    }
+
+    private static ProcessIsolation newIsolation(AppConfig appConfig) {
+        return new ProcessIsolation(appConfig.getHysteria2Nice(), appConfig.getHysteria2Cpus(),
+                appConfig.getHysteria2CpuMax(), appConfig.getHysteria2MemoryMax());
+    }
+
+    /**
+     * clean() may already have removed the installed files; restore them from the local caches
+     */
+    private void restoreInstallation(File workDir, AppConfig appConfig, boolean binaryChanged, boolean certsChanged)
+            throws Exception {
+        synchronized (installLock) {
+            if (binaryChanged || !new File(workDir, APP_NAME).exists()) {
+                this.installBinary(workDir, appConfig);
+            }
+            if (certsChanged || !new File(workDir, CertificateUtil.CERT_FILE).exists()
+                    || !new File(workDir, CertificateUtil.KEY_FILE).exists()) {
+                this.installCertificates(workDir, appConfig);
+            }
+            this.writeStartupScript(workDir);
+        }
+    }
+
+    private static List<ServerInstance> planInstances(AppConfig appConfig) {
+        List<Integer> ports = appConfig.getHysteria2Ports();
+        List<ServerInstance> planned = new ArrayList<>(ports.size());
+        for (int i = 0; i < ports.size(); i++) {
+            int port = ports.get(i);
+            // a single instance keeps the historical file name and log prefix
+            String configName = ports.size() == 1 ? APP_CONFIG_NAME : "hysteria2-config-" + port + ".json";
+            String outputPrefix = ports.size() == 1 ? APP_NAME : APP_NAME + ":" + port;
+            planned.add(new ServerInstance(i, port, configName, "Hysteria2 server :" + port, outputPrefix));
+        }
+        return Collections.unmodifiableList(planned);
+    }
+
+    private void installBinary(File workDir, AppConfig appConfig) throws Exception {
         File destFile = new File(workDir, APP_NAME);
-        String appDownloadUrl = this.getAppDownloadUrl(appConfig.getHysteria2Version());
-        LogUtil.hysteria2Info("Hysteria2 server download url: " + appDownloadUrl);
-        this.download(appDownloadUrl, destFile);
+        List<String> appDownloadUrls = this.getAppDownloadUrls(appConfig);
+        LogUtil.hysteria2Info("Hysteria2 server download urls: {}", appDownloadUrls);
+        this.downloadArtifact(APP_NAME, appConfig.getHysteria2Version(), appDownloadUrls, destFile);
         LogUtil.hysteria2Info("Hysteria2 server downloaded successfully");
         this.setExecutePermission(destFile.toPath());
         LogUtil.hysteria2Info("Hysteria2 server installed successfully");
+    }
 
-        // Generate TLS certificates
-        LogUtil.hysteria2Info("Generating TLS certificates...");
+    private void installCertificates(File workDir, AppConfig appConfig) throws Exception {
+        // Prepare TLS certificates, reusing the stored keypair while it is still valid
+        LogUtil.hysteria2Info("Preparing TLS certificates...");
         try {
-            CertificateUtil.generateCertificates(workDir);
+            certificateStore.install(workDir, appConfig.getTlsKeyAlgorithm(), appConfig.getDomain());
         } catch (Exception e) {
             LogUtil.error("Certificate generation failed", e);
             throw new Exception("Failed to generate TLS certificates", e);
         }
+    }
 
-        // download config
-        this.downloadConfig(workDir, appConfig);
-        LogUtil.hysteria2Info("Hysteria2 server config downloaded successfully");
+    private void writeStartupScript(File workDir) throws Exception {
+        // isolation settings arrive through the environment and are applied before the server is exec'd
+        String startupScript = String.format("""
+                #!/usr/bin/env sh
 
-        // add startup.sh
-        String startupScript = String.format(
-                "#!/usr/bin/env sh\n\ncd %s\nexec ./hysteria server -c hysteria2-config.json", workDir.getAbsolutePath());
+                cd %1$s
+                if [ -n "$%3$s" ]; then echo $$ > "$%3$s/cgroup.procs"; fi
+                if [ -n "$%4$s" ]; then taskset -pc "$%4$s" $$ > /dev/null; fi
+                if [ -n "$%5$s" ]; then exec nice -n "$%5$s" ./hysteria server -c "${1:-%2$s}"; fi
+                exec ./hysteria server -c "${1:-%2$s}"
+                """, workDir.getAbsolutePath(), APP_CONFIG_NAME, ProcessIsolation.ENV_CGROUP,
+                ProcessIsolation.ENV_CPUS, ProcessIsolation.ENV_NICE);
         Files.writeString(new File(workDir, APP_STARTUP_NAME).toPath(), startupScript);
         LogUtil.hysteria2Info("Startup script created successfully");
-
-        // update sub file
-        this.updateSubFile(appConfig);
     }
 
     private void updateSubFile(AppConfig appConfig) throws Exception {
-        String hysteria2Url = String.format(HYSTERIA2_URL, appConfig.getPassword(),
-                appConfig.getDomain(), appConfig.getHysteria2Port(), appConfig.getDomain(), appConfig.getRemarksPrefix());
-        String base64Url = Base64.getEncoder().encodeToString(hysteria2Url.getBytes(StandardCharsets.UTF_8));
+        // one node entry per instance, newline separated as subscription clients expect
+        List<Integer> ports = appConfig.getHysteria2Ports();
+        StringBuilder nodes = new StringBuilder();
+        for (int i = 0; i < ports.size(); i++) {
+            String remarks = ports.size() == 1 ? appConfig.getRemarksPrefix() : appConfig.getRemarksPrefix() + "-" + (i + 1);
+            if (i > 0) {
+                nodes.append('\n');
+            }
+            nodes.append(String.format(HYSTERIA2_URL, appConfig.getPassword(),
+                    appConfig.getDomain(), ports.get(i), appConfig.getDomain(), remarks));
+        }
+        String base64Url = Base64.getEncoder().encodeToString(nodes.toString().getBytes(StandardCharsets.UTF_8));
         Path nodeFilePath = new File(this.getWorkDir(), appConfig.getUuid()).toPath();
         Files.write(nodeFilePath, Collections.singleton(base64Url));
     }
 
-    private void downloadConfig(File configPath, AppConfig appConfig) throws Exception {
-        LogUtil.hysteria2Info("Downloading Hysteria2 configuration from GitHub...");
-        
-        try (HttpClient client = HttpClient.newHttpClient()) {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(APP_CONFIG_URL))
-                    .GET()
-                    .build();
-            HttpResponse<InputStream> response =
-                    client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-            String content;
-            try (InputStream in = response.body()) {
-                content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    private void loadTemplate() throws Exception {
+        // bundled in the jar, or the last refreshed copy; never waits on the network
+        this.configTemplate = template.load();
+        LogUtil.hysteria2Info("Configuration template loaded");
+    }
+
+    /**
+     * conditionally refresh the template from GitHub in the background; a newer template is used
+     * from the next (re)configuration on
+     */
+    private void refreshTemplate() {
+        try {
+            if (template.refresh()) {
+                this.configTemplate = template.load();
+                LogUtil.info("Hysteria2 config template updated, it applies from the next restart or reload");
+            } else {
+                LogUtil.hysteria2Info("Hysteria2 config template is up to date");
             }
-        
-            LogUtil.hysteria2Info("Configuration downloaded successfully");
-        
-            // Replace configuration placeholders, but keep masquerade.proxy.url unchanged
-            String configText = content
-                    .replace(":10008", ":" + appConfig.getHysteria2Port())
-                    .replace("YOUR_PASSWORD", appConfig.getPassword())
-                    .replace("YOUR_DOMAIN", appConfig.getDomain())
-                    .replace("YOUR_CERT_PATH", configPath.getAbsolutePath() + "/hysteria.crt")
-                    .replace("YOUR_KEY_PATH", configPath.getAbsolutePath() + "/hysteria.key");
-
-            LogUtil.hysteria2Info("Configuration replacements:");
-            LogUtil.hysteria2Info("  - Port: :10008 -> :" + appConfig.getHysteria2Port());
-            LogUtil.hysteria2Info("  - Password: YOUR_PASSWORD -> ***");
-            LogUtil.hysteria2Info("  - Domain: YOUR_DOMAIN -> " + appConfig.getDomain());
-            LogUtil.hysteria2Info("  - Cert Path: YOUR_CERT_PATH -> " + configPath.getAbsolutePath() + "/hysteria.crt");
-            LogUtil.hysteria2Info("  - Key Path: YOUR_KEY_PATH -> " + configPath.getAbsolutePath() + "/hysteria.key");
-            LogUtil.hysteria2Info("  - Masquerade URL: UNCHANGED (kept as https://www.bing.com)");
-
-            File configFile = new File(configPath, APP_CONFIG_NAME);
-            Files.writeString(configFile.toPath(), configText,
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (Exception e) {
+            LogUtil.error("Hysteria2 config template refresh failed, keeping the current one", e);
+        }
+    }
+
+    private static Hysteria2Config serverConfig(File configPath, AppConfig appConfig, int port) {
+        return Hysteria2Config.of(appConfig, port,
+                configPath.getAbsolutePath() + "/" + CertificateUtil.CERT_FILE,
+                configPath.getAbsolutePath() + "/" + CertificateUtil.KEY_FILE);
+    }
+
+    /**
+     * server config of one instance; its trafficStats API, if enabled, listens on the configured
+     * port plus the instance index
+     */
+    private Hysteria2Config instanceConfig(File configPath, AppConfig appConfig, ServerInstance instance) {
+        Hysteria2Config config = serverConfig(configPath, appConfig, instance.getPort());
+        Integer statsPort = appConfig.getTrafficStatsPort();
+        if (statsPort != null) {
+            config.withTrafficStats(statsPort + instance.getIndex(), trafficStatsSecret);
+        }
+        long limit = this.bandwidthLimitMbps;
+        if (limit != TickThrottle.NO_LIMIT) {
+            config.limitBandwidth(limit);
+        }
+        return config;
+    }
+
+    private static String newSecret() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return Md5Util.toHexString(bytes);
+    }
+
+    private void writeConfigs(File configPath, AppConfig appConfig, List<ServerInstance> planned) throws Exception {
+        for (ServerInstance instance : planned) {
+            this.writeConfig(configPath, appConfig, instance);
+        }
+    }
+
+    private void writeConfig(File configPath, AppConfig appConfig, ServerInstance instance) throws Exception {
+        if (this.configTemplate == null) {
+            this.loadTemplate();
         }
+        String content = this.configTemplate;
+
+        // Set listen, tls, auth and tuning on the template, other sections such as masquerade are kept
+        String configText = this.instanceConfig(configPath, appConfig, instance).render(content);
+
+        LogUtil.hysteria2Info("Configuration for instance :{}:", instance.getPort());
+        LogUtil.hysteria2Info("  - Domain: {}", appConfig.getDomain());
+        LogUtil.hysteria2Info(() -> "  - Cert Path: " + configPath.getAbsolutePath() + "/" + CertificateUtil.CERT_FILE);
+        LogUtil.hysteria2Info(() -> "  - Key Path: " + configPath.getAbsolutePath() + "/" + CertificateUtil.KEY_FILE);
+
+        File configFile = new File(configPath, instance.getConfigName());
+        Files.writeString(configFile.toPath(), configText,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
     }
 
     @Override
     public void startup() {
+        LogUtil.hysteria2Info("Starting Hysteria2 server...");
+        this.startAll();
+    }
+
+    private void startAll() {
         File workDir = this.getWorkDir();
-        File appFile = new File(workDir, APP_NAME);
+        for (ServerInstance instance : this.instances) {
+            this.startInstance(instance, workDir);
+        }
+        this.startTrafficStats();
+    }
+
+    private void startInstance(ServerInstance instance, File workDir) {
         File startupFile = new File(workDir, APP_STARTUP_NAME);
+        instance.start(() -> {
+            ProcessBuilder pb = new ProcessBuilder("sh", startupFile.getAbsolutePath(), instance.getConfigName());
+            pb.directory(workDir);
+            return pb;
+        }, this.isolation, this.instances.size(), () -> this.prepareSpawn(instance), PROCESS_OUTPUT_LINES,
+                this::reportStartup);
+    }
+
+    /**
+     * log the startup summary once the first instance listens
+     */
+    private void reportStartup() {
+        if (startupReported.compareAndSet(false, true)) {
+            LogUtil.info(MetricsRegistry.summary("Hysteria2 listening, enable->listen"));
+        }
+    }
+
+    /**
+     * runs before every spawn: clean() removes the installed files shortly after a start, so a
+     * crash restart first restores them from the artifact cache and the certificate store; after a
+     * crash the cached binary is hashed again and the installed copy replaced
+     *
+     * @return false once the instance is no longer part of the installation
+     */
+    private boolean prepareSpawn(ServerInstance instance) {
+        AppConfig current = this.appConfig;
+        if (current == null || !this.instances.contains(instance)) {
+            return false;
+        }
+        this.lastSpawnNanos = System.nanoTime();
         try {
-            while (Files.exists(appFile.toPath())) {
-                ProcessBuilder pb = new ProcessBuilder("sh", startupFile.getAbsolutePath());
-                pb.directory(workDir);
-                pb.redirectOutput(new File("/dev/null"));
-                pb.redirectError(new File("/dev/null"));
-                LogUtil.hysteria2Info("Starting Hysteria2 server...");
-                int exitCode = this.startProcess(pb);
-                if (exitCode == 0) {
-                    LogUtil.hysteria2Info("Hysteria2 server process exited with code: " + exitCode);
-                    break;
-                } else {
-                    LogUtil.hysteria2Info("Hysteria2 server process exited with code: " + exitCode + ", restarting...");
-                    TimeUnit.SECONDS.sleep(3);
+            File workDir = this.initWorkDir();
+            File configFile = new File(workDir, instance.getConfigName());
+            boolean restored;
+            synchronized (installLock) {
+                if (instance.crashedSinceLastCheck()) {
+                    if (!this.verifyCachedArtifact(APP_NAME, current.getHysteria2Version())) {
+                        LogUtil.info("Cached Hysteria2 binary is missing or corrupt after a crash, downloading it again");
+                    }
+                    Files.deleteIfExists(new File(workDir, APP_NAME).toPath());
                 }
+                restored = !new File(workDir, APP_NAME).exists() || !configFile.exists();
+                if (restored) {
+                    this.restoreInstallation(workDir, current, false, false);
+                    if (!configFile.exists()) {
+                        this.writeConfig(workDir, current, instance);
+                    }
+                }
+            }
+            if (restored) {
+                LogUtil.hysteria2Info(() -> "Restored the installation for " + instance.getName());
+                Thread.ofVirtual().name("hysteria2-clean").start(this::clean);
             }
+            return true;
         } catch (Exception e) {
-            LogUtil.error("Hysteria2 server startup failed", e);
+            throw new IllegalStateException("Failed to restore the installation for " + instance.getName(), e);
+        }
+    }
+
+    private void stopAll() {
+        this.stopTrafficStats();
+        List<CompletableFuture<?>> stops = new ArrayList<>();
+        for (ServerInstance instance : this.instances) {
+            stops.add(instance.stop(STOP_GRACE));
+        }
+        try {
+            CompletableFuture.allOf(stops.toArray(new CompletableFuture<?>[0]))
+                    .get(STOP_GRACE.toSeconds() + 2, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            LogUtil.error("Hysteria2 server stop failed", e);
+        }
+        for (ServerInstance instance : this.instances) {
+            instance.release();
+        }
+    }
+
+    private void startTrafficStats() {
+        AppConfig config = this.appConfig;
+        if (config == null || config.getTrafficStatsPort() == null) {
+            return;
+        }
+        List<URI> endpoints = new ArrayList<>();
+        for (ServerInstance instance : this.instances) {
+            endpoints.add(URI.create("http://127.0.0.1:" + (config.getTrafficStatsPort() + instance.getIndex())));
+        }
+        TrafficStatsPoller poller = new TrafficStatsPoller(endpoints, trafficStatsSecret,
+                Duration.ofSeconds(Math.max(1, config.getTrafficStatsInterval())), Math.max(2, config.getTrafficStatsWindow()));
+        poller.start();
+        this.trafficStats = poller;
+    }
+
+    private void stopTrafficStats() {
+        TrafficStatsPoller poller = this.trafficStats;
+        this.trafficStats = null;
+        if (poller != null) {
+            poller.stop();
         }
     }
 
+    /**
+     * @return traffic statistics of all instances, null unless traffic-stats-port is set
+     */
+    public TrafficStatsPoller getTrafficStats() {
+        return trafficStats;
+    }
+
+    /**
+     * @return all configured server instances
+     */
+    public List<ServerInstance> getInstances() {
+        return instances;
+    }
+
     @Override
     public void clean() {
         File workDir = this.getWorkDir();
         File appFile = new File(workDir, APP_NAME);
-        File configFile = new File(workDir, APP_CONFIG_NAME);
         File startupFile = new File(workDir, APP_STARTUP_NAME);
-        File certFile = new File(workDir, "hysteria.crt");
-        File keyFile = new File(workDir, "hysteria.key");
+        File certFile = new File(workDir, CertificateUtil.CERT_FILE);
+        File keyFile = new File(workDir, CertificateUtil.KEY_FILE);
         try {
             TimeUnit.SECONDS.sleep(30);
-            Files.deleteIfExists(appFile.toPath());
-            Files.deleteIfExists(configFile.toPath());
-            Files.deleteIfExists(startupFile.toPath());
-            Files.deleteIfExists(certFile.toPath());
-            Files.deleteIfExists(keyFile.toPath());
+            // a spawn that just restored the files may not have exec'd them yet
+            while (System.nanoTime() - this.lastSpawnNanos < SPAWN_SETTLE_NANOS) {
+                TimeUnit.SECONDS.sleep(5);
+            }
+            // never delete files a concurrent reconfiguration or respawn is about to start from
+            synchronized (this) {
+                synchronized (installLock) {
+                    Files.deleteIfExists(appFile.toPath());
+                    for (ServerInstance instance : this.instances) {
+                        Files.deleteIfExists(new File(workDir, instance.getConfigName()).toPath());
+                    }
+                    Files.deleteIfExists(startupFile.toPath());
+                    Files.deleteIfExists(certFile.toPath());
+                    Files.deleteIfExists(keyFile.toPath());
+                }
+            }
         } catch (Exception e) {
             LogUtil.error("Hysteria2 server installation package cleanup failed", e);
         }
     }
+
+    @Override
+    public void shutdown() {
+        certificateStore.shutdown();
+        this.stopAll();
+    }
 }
@@ -0,0 +1,113 @@
+package com.github.vevc.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands log records to a single background thread so callers never wait on the server logger.
+ * <p>
+ * The queue is lock-free and bounded by a CAS-guarded counter. When it is full the newest info
+ * record is dropped and counted; the drain thread reports the number of dropped records once it
+ * catches up. Warnings and errors are never dropped, they are written on the caller's thread instead.
+ *
+ * @author vevc
+ */
+final class AsyncLogAppender {
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Logger logger;
+    private final int capacity;
+    private final Queue<LogRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean running = true;
+    private long reportedDropped;
+
+    AsyncLogAppender(Logger logger, int capacity) {
+        this.logger = logger;
+        this.capacity = capacity;
+        this.drainer = Thread.ofPlatform().daemon().name("world-magic-log").unstarted(this::drainLoop);
+        this.drainer.start();
+    }
+
+    /**
+     * enqueue a record without blocking, a warning or error that does not fit is logged directly
+     *
+     * @return false if the record was dropped because the queue is full
+     */
+    boolean append(Level level, String msg, Throwable thrown) {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity || !running) {
+                if (level.intValue() > Level.INFO.intValue()) {
+                    this.log(level, msg, thrown);
+                    return true;
+                }
+                dropped.increment();
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        queue.offer(new LogRecord(level, msg, thrown));
+        return true;
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * stop accepting records and flush what is queued
+     *
+     * @param timeoutMillis max time to wait for the flush
+     */
+    void shutdown(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (running || !queue.isEmpty()) {
+            int drained = 0;
+            LogRecord record;
+            while (drained < BATCH_SIZE && (record = queue.poll()) != null) {
+                size.decrementAndGet();
+                drained++;
+                this.log(record.level, record.msg, record.thrown);
+            }
+            long droppedNow = dropped.sum();
+            if (droppedNow != reportedDropped) {
+                logger.warning("Log queue full, dropped " + (droppedNow - reportedDropped) + " records");
+                reportedDropped = droppedNow;
+            }
+            if (drained == 0 && running) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void log(Level level, String msg, Throwable thrown) {
+        if (thrown != null) {
+            logger.log(level, msg, thrown);
+        } else {
+            logger.log(level, msg);
+        }
+    }
+
+    private record LogRecord(Level level, String msg, Throwable thrown) {
+    }
+}
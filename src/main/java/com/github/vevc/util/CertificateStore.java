@@ -0,0 +1,202 @@
+package com.github.vevc.util;
+
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the TLS keypair across installs.
+ * <p>
+ * The stored certificate is reused while it matches the configured domain and key algorithm and
+ * is not close to expiry. Renewal is done ahead of time on a background thread so a restart
+ * only ever has to copy two small files.
+ *
+ * @author vevc
+ */
+public class CertificateStore {
+
+    private static final Duration RENEW_BEFORE = Duration.ofDays(30);
+    private static final int SAN_DNS = 2;
+    private static final int SAN_IP = 7;
+
+    private final Path storeDir;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("world-magic-cert-renew").factory());
+    private ScheduledFuture<?> renewal;
+
+    public CertificateStore(Path storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    /**
+     * make sure a usable certificate and key exist in the store, then copy them into workDir
+     *
+     * @param workDir      destination directory
+     * @param keyAlgorithm key algorithm
+     * @param domain       configured domain
+     * @throws Exception e
+     */
+    public synchronized void install(File workDir, String keyAlgorithm, String domain) throws Exception {
+        Files.createDirectories(storeDir);
+        X509Certificate cert = loadUsable(keyAlgorithm, domain);
+        if (cert == null) {
+            LogUtil.hysteria2Info("No reusable TLS certificate found, generating a new one");
+            regenerate(keyAlgorithm, domain);
+            cert = loadUsable(keyAlgorithm, domain);
+            if (cert == null) {
+                throw new Exception("Generated certificate could not be verified");
+            }
+        } else {
+            LogUtil.hysteria2Info("Reusing TLS certificate valid until {}", cert.getNotAfter().toInstant());
+        }
+        scheduleRenewal(cert, keyAlgorithm, domain);
+
+        Files.copy(storeDir.resolve(CertificateUtil.CERT_FILE), new File(workDir, CertificateUtil.CERT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(storeDir.resolve(CertificateUtil.KEY_FILE), new File(workDir, CertificateUtil.KEY_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public synchronized void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void scheduleRenewal(X509Certificate cert, String keyAlgorithm, String domain) {
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+        Instant renewAt = cert.getNotAfter().toInstant().minus(RENEW_BEFORE);
+        long delay = Math.max(0, Duration.between(Instant.now(), renewAt).toMillis());
+        renewal = scheduler.schedule(() -> this.renew(keyAlgorithm, domain), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void renew(String keyAlgorithm, String domain) {
+        try {
+            regenerate(keyAlgorithm, domain);
+            X509Certificate cert = loadUsable(keyAlgorithm, domain);
+            if (cert != null) {
+                scheduleRenewal(cert, keyAlgorithm, domain);
+            }
+            LogUtil.hysteria2Info("TLS certificate renewed in background, effective on next restart");
+        } catch (Exception e) {
+            LogUtil.error("Background TLS certificate renewal failed", e);
+        }
+    }
+
+    /**
+     * generate into a staging directory, then move key and certificate into place
+     */
+    private void regenerate(String keyAlgorithm, String domain) throws Exception {
+        Path staging = Files.createTempDirectory(storeDir, "renew");
+        try {
+            CertificateUtil.generateCertificates(staging.toFile(), keyAlgorithm, domain);
+            Files.move(staging.resolve(CertificateUtil.KEY_FILE), storeDir.resolve(CertificateUtil.KEY_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(staging.resolve(CertificateUtil.CERT_FILE), storeDir.resolve(CertificateUtil.CERT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staging.resolve(CertificateUtil.KEY_FILE));
+            Files.deleteIfExists(staging.resolve(CertificateUtil.CERT_FILE));
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    /**
+     * @return the stored certificate if it is present, matches domain and algorithm, pairs with
+     * the stored key and is outside the renewal window; otherwise null
+     */
+    private X509Certificate loadUsable(String keyAlgorithm, String domain) {
+        Path certPath = storeDir.resolve(CertificateUtil.CERT_FILE);
+        Path keyPath = storeDir.resolve(CertificateUtil.KEY_FILE);
+        if (!Files.isRegularFile(certPath) || !Files.isRegularFile(keyPath)) {
+            return null;
+        }
+        try {
+            X509Certificate cert;
+            try (InputStream in = Files.newInputStream(certPath)) {
+                cert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+            }
+            if (cert.getNotAfter().toInstant().isBefore(Instant.now().plus(RENEW_BEFORE))) {
+                LogUtil.hysteria2Info("Stored TLS certificate expires {}", cert.getNotAfter().toInstant());
+                return null;
+            }
+            if (!cert.getPublicKey().getAlgorithm().equalsIgnoreCase(algorithmName(keyAlgorithm))) {
+                LogUtil.hysteria2Info("Stored TLS certificate uses {}", cert.getPublicKey().getAlgorithm());
+                return null;
+            }
+            if (!matchesDomain(cert, domain)) {
+                LogUtil.hysteria2Info("Stored TLS certificate does not match domain {}", domain);
+                return null;
+            }
+            PrivateKey key;
+            try (Reader reader = Files.newBufferedReader(keyPath, StandardCharsets.UTF_8);
+                 PEMParser parser = new PEMParser(reader)) {
+                key = new JcaPEMKeyConverter().getPrivateKey((PrivateKeyInfo) parser.readObject());
+            }
+            if (!isPair(cert, key)) {
+                LogUtil.hysteria2Info("Stored TLS key does not match its certificate");
+                return null;
+            }
+            return cert;
+        } catch (Exception e) {
+            LogUtil.hysteria2Info("Stored TLS certificate is unreadable: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean matchesDomain(X509Certificate cert, String domain) throws Exception {
+        if (domain == null || domain.isBlank()) {
+            return true;
+        }
+        Collection<List<?>> names = cert.getSubjectAlternativeNames();
+        if (names != null) {
+            for (List<?> name : names) {
+                int type = (Integer) name.get(0);
+                if ((type == SAN_DNS || type == SAN_IP) && domain.equalsIgnoreCase(String.valueOf(name.get(1)))) {
+                    return true;
+                }
+            }
+        }
+        return cert.getSubjectX500Principal().getName().equalsIgnoreCase("CN=" + domain);
+    }
+
+    private static boolean isPair(X509Certificate cert, PrivateKey key) throws Exception {
+        String algorithm = "RSA".equals(key.getAlgorithm()) ? "SHA256withRSA" : "SHA256withECDSA";
+        byte[] nonce = new byte[16];
+        new SecureRandom().nextBytes(nonce);
+        Signature signer = Signature.getInstance(algorithm);
+        signer.initSign(key);
+        signer.update(nonce);
+        byte[] signature = signer.sign();
+        Signature verifier = Signature.getInstance(algorithm);
+        verifier.initVerify(cert.getPublicKey());
+        verifier.update(nonce);
+        return verifier.verify(signature);
+    }
+
+    private static String algorithmName(String keyAlgorithm) {
+        return CertificateUtil.KEY_ALGORITHM_RSA.equalsIgnoreCase(keyAlgorithm)
+                ? CertificateUtil.KEY_ALGORITHM_RSA : CertificateUtil.KEY_ALGORITHM_EC;
+    }
+}
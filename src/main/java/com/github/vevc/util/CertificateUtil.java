@@ -1,159 +1,123 @@
 package com.github.vevc.util;
 
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
 import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.util.IPAddress;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.math.BigInteger;
 import java.nio.file.Files;
-import java.security.KeyStore;
-import java.security.PrivateKey;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
 
 /**
- * Certificate utility using system keytool and Bouncy Castle library.
- * Compatible with Java 21 module system - does not use internal APIs.
+ * Certificate utility using the Bouncy Castle library.
+ * The keypair and self-signed certificate are built in memory and written straight to PEM,
+ * without forking keytool or staging keystores on disk.
  */
 public class CertificateUtil {
 
-    private static final String KEYSTORE_FILE = "hysteria.jks";
-    private static final String DER_FILE = "hysteria.der";
-    private static final String CERT_FILE = "hysteria.crt";
-    private static final String P12_FILE = "hysteria.p12";
-    private static final String KEY_FILE = "hysteria.key";
+    public static final String KEY_ALGORITHM_EC = "EC";
+    public static final String KEY_ALGORITHM_RSA = "RSA";
 
-    private static final String KEYSTORE_PWD = "hysteria_pwd";
+    public static final String CERT_FILE = "hysteria.crt";
+    public static final String KEY_FILE = "hysteria.key";
+    private static final String DEFAULT_DOMAIN = "localhost";
+    private static final int VALIDITY_DAYS = 365;
 
     public static void generateCertificates(File workDir) throws Exception {
-        LogUtil.hysteria2Info("Starting certificate generation using keytool...");
+        generateCertificates(workDir, KEY_ALGORITHM_EC, DEFAULT_DOMAIN);
+    }
 
-        // Clean up old certificate files to ensure clean generation environment
-        File keystoreFile = new File(workDir, KEYSTORE_FILE);
-        File derFile = new File(workDir, DER_FILE);
+    /**
+     * generate a self-signed certificate and private key as PEM files
+     *
+     * @param workDir      output directory
+     * @param keyAlgorithm {@link #KEY_ALGORITHM_EC} (P-256) or {@link #KEY_ALGORITHM_RSA} (2048 bit)
+     * @param domain       common name and subject alternative name of the certificate
+     * @throws Exception e
+     */
+    public static void generateCertificates(File workDir, String keyAlgorithm, String domain) throws Exception {
+        if (domain == null || domain.isBlank()) {
+            domain = DEFAULT_DOMAIN;
+        }
+        boolean rsa = KEY_ALGORITHM_RSA.equalsIgnoreCase(keyAlgorithm);
+        LogUtil.hysteria2Info(() -> "Starting certificate generation (" + (rsa ? "RSA 2048" : "ECDSA P-256") + ")...");
         File certFile = new File(workDir, CERT_FILE);
-        File p12File = new File(workDir, P12_FILE);
         File keyFile = new File(workDir, KEY_FILE);
 
-        Files.deleteIfExists(keystoreFile.toPath());
-        Files.deleteIfExists(derFile.toPath());
-        Files.deleteIfExists(p12File.toPath());
-        Files.deleteIfExists(certFile.toPath());
-        Files.deleteIfExists(keyFile.toPath());
-
-        LogUtil.hysteria2Info("Cleaned up old certificate files");
-
-        // Step 1: Generate RSA keypair and save to JKS keystore
-        int step1 = executeCommand(
-                "keytool", "-genkeypair",
-                "-alias", "hysteria",
-                "-keyalg", "RSA",
-                "-keysize", "2048",
-                "-validity", "365",
-                "-keystore", keystoreFile.getAbsolutePath(),
-                "-storepass", KEYSTORE_PWD,
-                "-keypass", KEYSTORE_PWD,
-                "-dname", "CN=localhost"
-        );
-        if (step1 != 0) throw new Exception("keytool -genkeypair failed with code: " + step1);
-        LogUtil.hysteria2Info("Step 1 ✓: Generated RSA keypair");
-
-        // Step 2: Export certificate from JKS to DER format
-        int step2 = executeCommand(
-                "keytool", "-export",
-                "-alias", "hysteria",
-                "-keystore", keystoreFile.getAbsolutePath(),
-                "-storepass", KEYSTORE_PWD,
-                "-file", derFile.getAbsolutePath()
-        );
-        if (step2 != 0) throw new Exception("keytool -export failed with code: " + step2);
-        LogUtil.hysteria2Info("Step 2 ✓: Exported DER certificate");
-
-        // Step 3: Convert DER certificate to PEM format using Bouncy Castle
-        try {
-            byte[] derBytes = Files.readAllBytes(derFile.toPath());
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            X509Certificate cert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(derBytes));
-            try (FileWriter fw = new FileWriter(certFile);
-                 JcaPEMWriter pw = new JcaPEMWriter(fw)) {
-                pw.writeObject(cert);
-            }
-        } catch (Exception e) {
-            throw new Exception("DER to PEM conversion failed: " + e.getMessage(), e);
+        // Step 1: Generate keypair
+        KeyPair keyPair;
+        SecureRandom random = new SecureRandom();
+        if (rsa) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM_RSA);
+            generator.initialize(2048, random);
+            keyPair = generator.generateKeyPair();
+        } else {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM_EC);
+            generator.initialize(new ECGenParameterSpec("secp256r1"), random);
+            keyPair = generator.generateKeyPair();
         }
-        LogUtil.hysteria2Info("Step 3 ✓: Converted to PEM certificate");
-
-        // Step 4: Convert JKS to PKCS12 format (for key extraction)
-        int step4 = executeCommand(
-                "keytool", "-importkeystore",
-                "-srckeystore", keystoreFile.getAbsolutePath(),
-                "-srcstorepass", KEYSTORE_PWD,
-                "-srcalias", "hysteria",
-                "-destkeystore", p12File.getAbsolutePath(),
-                "-deststoretype", "PKCS12",
-                "-deststorepass", KEYSTORE_PWD
-        );
-        if (step4 != 0) throw new Exception("keytool -importkeystore failed with code: " + step4);
-        LogUtil.hysteria2Info("Step 4 ✓: Converted to PKCS12 keystore");
+        LogUtil.hysteria2Info("Step 1 ✓: Generated keypair");
 
-        // Step 5: Extract private key from PKCS12 to PEM format using Bouncy Castle
+        // Step 2: Build and self-sign the X.509 certificate
+        X509CertificateHolder cert;
         try {
-            KeyStore keyStore = KeyStore.getInstance("PKCS12");
-            try (FileInputStream fis = new FileInputStream(p12File)) {
-                keyStore.load(fis, KEYSTORE_PWD.toCharArray());
-            }
-            String alias = keyStore.aliases().nextElement();
-            PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, KEYSTORE_PWD.toCharArray());
-            try (FileWriter fw = new FileWriter(keyFile);
-                 JcaPEMWriter pw = new JcaPEMWriter(fw)) {
-                pw.writeObject(privateKey);
-            }
+            X500Name subject = new X500NameBuilder(BCStyle.INSTANCE).addRDN(BCStyle.CN, domain).build();
+            Instant now = Instant.now();
+            JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                    subject,
+                    new BigInteger(64, random),
+                    Date.from(now.minus(Duration.ofMinutes(5))),
+                    Date.from(now.plus(Duration.ofDays(VALIDITY_DAYS))),
+                    subject,
+                    keyPair.getPublic());
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+            GeneralName san = IPAddress.isValid(domain)
+                    ? new GeneralName(GeneralName.iPAddress, domain)
+                    : new GeneralName(GeneralName.dNSName, domain);
+            builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(san));
+            ContentSigner signer = new JcaContentSignerBuilder(rsa ? "SHA256withRSA" : "SHA256withECDSA")
+                    .build(keyPair.getPrivate());
+            cert = builder.build(signer);
         } catch (Exception e) {
-            throw new Exception("PKCS12 to PEM key extraction failed: " + e.getMessage(), e);
+            throw new Exception("Certificate signing failed: " + e.getMessage(), e);
         }
-        LogUtil.hysteria2Info("Step 5 ✓: Extracted private key to PEM");
+        LogUtil.hysteria2Info("Step 2 ✓: Signed X.509 certificate");
 
-        // Step 6: Clean up temporary files (keep .crt and .key)
-        Files.deleteIfExists(keystoreFile.toPath());
-        Files.deleteIfExists(derFile.toPath());
-        Files.deleteIfExists(p12File.toPath());
-        LogUtil.hysteria2Info("Step 6 ✓: Cleaned temporary files");
-
-        // Verify generated files
-        if (!Files.exists(certFile.toPath())) {
-            throw new Exception("Certificate file not generated: " + certFile.getAbsolutePath());
+        // Step 3: Write certificate and private key as PEM
+        Files.deleteIfExists(certFile.toPath());
+        Files.deleteIfExists(keyFile.toPath());
+        try (FileWriter fw = new FileWriter(certFile);
+             JcaPEMWriter pw = new JcaPEMWriter(fw)) {
+            pw.writeObject(cert);
         }
-        if (!Files.exists(keyFile.toPath())) {
-            throw new Exception("Key file not generated: " + keyFile.getAbsolutePath());
+        try (FileWriter fw = new FileWriter(keyFile);
+             JcaPEMWriter pw = new JcaPEMWriter(fw)) {
+            // PKCS#8 keeps the curve OID with EC keys, which SEC1 output from SunEC keys would drop
+            pw.writeObject(new JcaPKCS8Generator(keyPair.getPrivate(), null));
         }
+        LogUtil.hysteria2Info("Step 3 ✓: Wrote PEM certificate and private key");
 
         LogUtil.hysteria2Info("TLS certificates generated successfully!");
-        LogUtil.hysteria2Info("Certificate: " + certFile.getAbsolutePath());
-        LogUtil.hysteria2Info("Private Key: " + keyFile.getAbsolutePath());
-    }
-
-    private static int executeCommand(String... cmd) throws Exception {
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-
-        try (InputStream in = process.getInputStream();
-             InputStreamReader reader = new InputStreamReader(in);
-             BufferedReader br = new BufferedReader(reader)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                LogUtil.info("[CMD] " + line);
-            }
-        }
-
-        return process.waitFor();
-    }
-
-    public static boolean isKeytoolAvailable() throws Exception {
-        return executeCommand("keytool", "-version") == 0;
+        LogUtil.hysteria2Info("Certificate: {}", certFile.getAbsolutePath());
+        LogUtil.hysteria2Info("Private Key: {}", keyFile.getAbsolutePath());
     }
 }
@@ -4,12 +4,18 @@ import com.github.vevc.constant.AppConst;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 /**
  * @author vevc
@@ -18,18 +24,57 @@ public final class ConfigUtil {
 
     private static final String CONFIG_RELATIVE_PATH = "plugins/application.properties";
     private static final String CONFIG_DIR = "config";
+    private static final String INDEX_FILE = ".world-magic-index";
+    private static final String TEMP_PREFIX = ".world-magic-";
+    private static final Pattern GENERATION_NAME = Pattern.compile("[0-9a-fA-F]{32}");
+    private static final List<String> GENERATED_KEYS = List.of(AppConst.UUID, AppConst.PASSWORD);
 
     public static Properties loadConfiguration() {
-        File baseDir = new File(System.getProperty("user.dir"));
+        return loadConfiguration(new File(System.getProperty("user.dir")));
+    }
+
+    /**
+     * parse a rewritten plain configuration without persisting it; the file is authoritative, only
+     * the generated uuid and password are carried over instead of being regenerated
+     *
+     * @param current configuration currently in use
+     * @return parsed properties, null if there is no readable plain configuration
+     * @see #commitConfiguration(Properties)
+     */
+    public static Properties reloadConfiguration(Properties current) {
+        return reloadConfiguration(new File(System.getProperty("user.dir")), current);
+    }
+
+    /**
+     * encrypt an accepted reload and remove the plain file it was read from
+     *
+     * @param props configuration that has been applied
+     */
+    public static void commitConfiguration(Properties props) {
+        commitConfiguration(new File(System.getProperty("user.dir")), props);
+    }
+
+    /**
+     * @return location of the plain configuration file that is picked up and encrypted
+     */
+    public static Path getPlainConfigPath() {
+        return new File(System.getProperty("user.dir"), CONFIG_RELATIVE_PATH).toPath();
+    }
+
+    /**
+     * load the configuration below a base directory
+     *
+     * @param baseDir server directory
+     * @return loaded properties, null if there is no configuration
+     */
+    static Properties loadConfiguration(File baseDir) {
         File plainConfigFile = new File(baseDir, CONFIG_RELATIVE_PATH);
         File encryptedConfigDir = new File(baseDir, CONFIG_DIR);
         try {
             if (plainConfigFile.exists()) {
                 Properties props = loadPropertiesFromFile(plainConfigFile.toPath());
                 initDefaultConfig(props);
-                StringWriter writer = new StringWriter();
-                props.store(writer, null);
-                persistEncryptedConfig(writer.toString(), encryptedConfigDir.toPath());
+                persistEncryptedConfig(props, encryptedConfigDir.toPath());
                 Files.delete(plainConfigFile.toPath());
                 return props;
             }
@@ -39,10 +84,18 @@ public final class ConfigUtil {
                 return null;
             }
 
-            String decryptedContent = RsaUtil.decryptByPrivateKey(encryptedContent.get(), AppConst.PRIVATE_KEY);
+            String content = encryptedContent.get();
+            // configs written before the envelope format are plain RSA block ciphertext
+            boolean legacy = !EnvelopeUtil.isEnvelope(content);
+            String decryptedContent = legacy
+                    ? RsaUtil.decryptByPrivateKey(content, AppConst.PRIVATE_KEY)
+                    : EnvelopeUtil.open(content, AppConst.PRIVATE_KEY);
             Properties props = new Properties();
             StringReader reader = new StringReader(decryptedContent);
             props.load(reader);
+            if (legacy) {
+                resealLegacyConfig(props, encryptedConfigDir.toPath());
+            }
             return props;
         } catch (Exception e) {
             LogUtil.error("Failed to load configuration", e);
@@ -50,6 +103,39 @@ public final class ConfigUtil {
         }
     }
 
+    static Properties reloadConfiguration(File baseDir, Properties current) {
+        File plainConfigFile = new File(baseDir, CONFIG_RELATIVE_PATH);
+        if (!plainConfigFile.exists()) {
+            return null;
+        }
+        try {
+            Properties props = loadPropertiesFromFile(plainConfigFile.toPath());
+            if (current != null) {
+                // a key removed from the file switches its feature off, so nothing else is merged
+                for (String key : GENERATED_KEYS) {
+                    String value = current.getProperty(key);
+                    if (value != null) {
+                        props.putIfAbsent(key, value);
+                    }
+                }
+            }
+            initDefaultConfig(props);
+            return props;
+        } catch (Exception e) {
+            LogUtil.error("Failed to load configuration", e);
+            return null;
+        }
+    }
+
+    static void commitConfiguration(File baseDir, Properties props) {
+        try {
+            persistEncryptedConfig(props, new File(baseDir, CONFIG_DIR).toPath());
+            Files.deleteIfExists(new File(baseDir, CONFIG_RELATIVE_PATH).toPath());
+        } catch (Exception e) {
+            LogUtil.error("Failed to persist configuration, the plain file is kept", e);
+        }
+    }
+
     private static Properties loadPropertiesFromFile(Path path) throws IOException {
         Properties props = new Properties();
         try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
@@ -67,32 +153,119 @@ public final class ConfigUtil {
         props.putIfAbsent(AppConst.REMARKS_PREFIX, "vevc");
     }
 
-    private static void persistEncryptedConfig(String content, Path configDir) throws Exception {
+    private static void persistEncryptedConfig(Properties props, Path configDir) throws Exception {
+        StringWriter writer = new StringWriter();
+        props.store(writer, null);
         Files.createDirectories(configDir);
-        String encryptedContent = RsaUtil.encryptByPublicKey(content, AppConst.PUBLIC_KEY);
+        String encryptedContent = EnvelopeUtil.seal(writer.toString(), AppConst.PUBLIC_KEY);
         String fileName = Md5Util.md5(encryptedContent);
-        Path target = configDir.resolve(fileName);
-        Files.writeString(target, encryptedContent, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeAtomically(configDir, fileName, encryptedContent);
+        activate(configDir, fileName);
+    }
+
+    /**
+     * rewrite a legacy RSA-only config as an envelope so later starts take the fast path; the
+     * legacy generation stays active if this fails
+     */
+    private static void resealLegacyConfig(Properties props, Path configDir) {
+        try {
+            persistEncryptedConfig(props, configDir);
+            LogUtil.info("Re-encrypted legacy configuration in the envelope format");
+        } catch (Exception e) {
+            LogUtil.error("Failed to re-encrypt legacy configuration", e);
+        }
     }
 
     private static Optional<String> readEncryptedConfig(Path configDir) throws IOException {
         if (!Files.exists(configDir)) {
             return Optional.empty();
         }
-        File[] files = configDir.toFile().listFiles(File::isFile);
-        if (files == null) {
+        Optional<String> indexed = readIndexedConfig(configDir);
+        if (indexed.isPresent()) {
+            return indexed;
+        }
+        Optional<Path> scanned = scanForConfig(configDir);
+        if (scanned.isEmpty()) {
             return Optional.empty();
         }
-        for (File file : files) {
-            String content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
-            if (Md5Util.md5(content).equalsIgnoreCase(file.getName())) {
-                return Optional.of(content);
+        String fileName = scanned.get().getFileName().toString();
+        LogUtil.info("Config index missing or stale, rebuilt it from a scan of " + configDir);
+        activate(configDir, fileName);
+        return Optional.of(Files.readString(scanned.get(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * single read through the index; empty if the index is missing or does not match its generation
+     */
+    private static Optional<String> readIndexedConfig(Path configDir) throws IOException {
+        Path indexFile = configDir.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexFile)) {
+            return Optional.empty();
+        }
+        String fileName = Files.readString(indexFile, StandardCharsets.UTF_8).trim();
+        Path generation = configDir.resolve(fileName);
+        if (!GENERATION_NAME.matcher(fileName).matches() || !Files.isRegularFile(generation)) {
+            return Optional.empty();
+        }
+        String content = Files.readString(generation, StandardCharsets.UTF_8);
+        return Md5Util.md5(content).equalsIgnoreCase(fileName) ? Optional.of(content) : Optional.empty();
+    }
+
+    /**
+     * fallback: find a generation whose name is the md5 of its content
+     */
+    private static Optional<Path> scanForConfig(Path configDir) throws IOException {
+        List<Path> generations = listGenerations(configDir);
+        // hash in parallel and only read the match
+        for (Map.Entry<Path, String> entry : HashUtil.hexAll(generations, HashUtil.Algorithm.MD5).entrySet()) {
+            if (entry.getValue().equalsIgnoreCase(entry.getKey().getFileName().toString())) {
+                return Optional.of(entry.getKey());
             }
         }
         return Optional.empty();
     }
 
+    /**
+     * point the index at a generation and prune all other generations
+     */
+    private static void activate(Path configDir, String fileName) throws IOException {
+        writeAtomically(configDir, INDEX_FILE, fileName);
+        for (Path generation : listGenerations(configDir)) {
+            if (!generation.getFileName().toString().equals(fileName)) {
+                Files.deleteIfExists(generation);
+            }
+        }
+    }
+
+    /**
+     * config/ is shared with the server, so only md5-named files are treated as generations
+     */
+    private static List<Path> listGenerations(Path configDir) {
+        File[] files = configDir.toFile().listFiles(
+                file -> file.isFile() && GENERATION_NAME.matcher(file.getName()).matches());
+        List<Path> generations = new ArrayList<>(files == null ? 0 : files.length);
+        if (files != null) {
+            for (File file : files) {
+                generations.add(file.toPath());
+            }
+        }
+        return generations;
+    }
+
+    private static void writeAtomically(Path dir, String fileName, String content) throws IOException {
+        Path tmp = Files.createTempFile(dir, TEMP_PREFIX, ".tmp");
+        try {
+            Files.writeString(tmp, content, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                Files.move(tmp, dir.resolve(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, dir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
     private ConfigUtil() {
         throw new IllegalStateException("Utility class");
     }
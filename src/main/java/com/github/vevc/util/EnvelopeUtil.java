@@ -0,0 +1,199 @@
+package com.github.vevc.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Hybrid RSA + AES-GCM envelope.
+ * <p>
+ * A random AES-256 data key encrypts the payload with AES-GCM; only the data key is wrapped with
+ * RSA-OAEP, so the payload is encrypted in a single streaming pass instead of 117-byte RSA blocks.
+ * Layout (version 1, big endian):
+ * <pre>
+ * magic "WMCE" | version (1 byte) | wrapped key length (2 bytes) | wrapped key | iv (12 bytes) | ciphertext + tag
+ * </pre>
+ *
+ * @author vevc
+ */
+public final class EnvelopeUtil {
+
+    private static final byte[] MAGIC = {'W', 'M', 'C', 'E'};
+    private static final int VERSION = 1;
+    private static final int HEADER_PREFIX_LENGTH = MAGIC.length + 1;
+    private static final int DATA_KEY_BITS = 256;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String WRAP_TRANSFORMATION = "RSA/ECB/OAEPPadding";
+    private static final String DATA_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final OAEPParameterSpec OAEP_SPEC = new OAEPParameterSpec(
+            "SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * encrypt a stream into an envelope
+     *
+     * @param in        plain data
+     * @param out       receives the binary envelope
+     * @param publicKey RSA key used to wrap the data key
+     * @throws IOException              read or write failure
+     * @throws GeneralSecurityException encryption failure
+     */
+    public static void seal(InputStream in, OutputStream out, PublicKey publicKey)
+            throws IOException, GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(DATA_KEY_BITS, RANDOM);
+        SecretKey dataKey = keyGenerator.generateKey();
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+
+        Cipher wrap = Cipher.getInstance(WRAP_TRANSFORMATION);
+        wrap.init(Cipher.WRAP_MODE, publicKey, OAEP_SPEC);
+        byte[] wrappedKey = wrap.wrap(dataKey);
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeShort(wrappedKey.length);
+        header.write(wrappedKey);
+        header.write(iv);
+        header.flush();
+
+        Cipher cipher = Cipher.getInstance(DATA_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(MAGIC);
+        cipher.updateAAD(new byte[]{VERSION});
+        pump(in, out, cipher);
+    }
+
+    /**
+     * decrypt a binary envelope
+     *
+     * @param in         binary envelope
+     * @param out        receives the plain data, only complete once the tag has been verified
+     * @param privateKey RSA key used to unwrap the data key
+     * @throws IOException              read or write failure, or not an envelope
+     * @throws GeneralSecurityException decryption or authentication failure
+     */
+    public static void open(InputStream in, OutputStream out, PrivateKey privateKey)
+            throws IOException, GeneralSecurityException {
+        DataInputStream header = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        header.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an envelope");
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported envelope version " + version);
+        }
+        byte[] wrappedKey = new byte[header.readUnsignedShort()];
+        header.readFully(wrappedKey);
+        byte[] iv = new byte[IV_LENGTH];
+        header.readFully(iv);
+
+        Cipher unwrap = Cipher.getInstance(WRAP_TRANSFORMATION);
+        unwrap.init(Cipher.UNWRAP_MODE, privateKey, OAEP_SPEC);
+        SecretKey dataKey = (SecretKey) unwrap.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
+
+        Cipher cipher = Cipher.getInstance(DATA_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, dataKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(MAGIC);
+        cipher.updateAAD(new byte[]{(byte) version});
+        pump(in, out, cipher);
+    }
+
+    /**
+     * encrypt a string into a Base64 envelope
+     *
+     * @param data      plain text
+     * @param publicKey Base64 encoded RSA public key
+     * @return Base64 encoded envelope
+     * @throws Exception encryption failure
+     */
+    public static String seal(String data, String publicKey) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream base64 = Base64.getEncoder().wrap(out)) {
+            seal(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), base64,
+                    (PublicKey) RsaUtil.encryptor(publicKey).getKey());
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * decrypt a Base64 envelope
+     *
+     * @param data       Base64 encoded envelope
+     * @param privateKey Base64 encoded RSA private key
+     * @return plain text
+     * @throws Exception decryption failure
+     */
+    public static String open(String data, String privateKey) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Base64.getDecoder().wrap(
+                new ByteArrayInputStream(data.getBytes(StandardCharsets.US_ASCII)))) {
+            open(in, out, (PrivateKey) RsaUtil.decryptor(privateKey).getKey());
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * check whether Base64 content starts with a supported envelope header; legacy RSA block
+     * ciphertext is not an envelope
+     *
+     * @param data Base64 encoded content
+     * @return true if the content is an envelope
+     */
+    public static boolean isEnvelope(String data) {
+        // 8 Base64 chars decode to 6 bytes, enough for magic + version
+        if (data.length() < 8) {
+            return false;
+        }
+        byte[] prefix;
+        try {
+            prefix = Base64.getDecoder().decode(data.substring(0, 8));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return prefix.length >= HEADER_PREFIX_LENGTH
+                && Arrays.equals(prefix, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                && prefix[MAGIC.length] == VERSION;
+    }
+
+    private static void pump(InputStream in, OutputStream out, Cipher cipher)
+            throws IOException, GeneralSecurityException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            byte[] chunk = cipher.update(buffer, 0, read);
+            if (chunk != null) {
+                out.write(chunk);
+            }
+        }
+        out.write(cipher.doFinal());
+        out.flush();
+    }
+
+    private EnvelopeUtil() {
+        throw new IllegalStateException("Utility class");
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.vevc.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streaming file and data hashing.
+ * <p>
+ * Files are read through a {@link FileChannel} in fixed-size windows into pooled direct buffers, so
+ * memory stays constant regardless of the file size and no mapping outlives the call. Several
+ * algorithms can be computed in the same pass. At most {@link #MAX_PARALLEL} files are hashed at
+ * once, which also bounds the number of buffers.
+ *
+ * @author vevc
+ */
+public final class HashUtil {
+
+    /**
+     * supported digest algorithms
+     */
+    public enum Algorithm {
+        MD5("MD5"), SHA256("SHA-256");
+
+        private final String jcaName;
+
+        Algorithm(String jcaName) {
+            this.jcaName = jcaName;
+        }
+
+        private MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance(jcaName);
+            } catch (NoSuchAlgorithmException neverHappened) {
+                throw new RuntimeException(neverHappened);
+            }
+        }
+    }
+
+    /**
+     * incremental hasher feeding one digest per algorithm; not thread-safe
+     */
+    public static final class Hasher {
+
+        private final Algorithm[] algorithms;
+        private final MessageDigest[] digests;
+
+        private Hasher(Algorithm[] algorithms) {
+            this.algorithms = algorithms.clone();
+            this.digests = new MessageDigest[algorithms.length];
+            for (int i = 0; i < algorithms.length; i++) {
+                digests[i] = algorithms[i].newDigest();
+            }
+        }
+
+        public Hasher update(byte[] bytes, int offset, int length) {
+            for (MessageDigest digest : digests) {
+                digest.update(bytes, offset, length);
+            }
+            return this;
+        }
+
+        /**
+         * feed the remaining bytes of a buffer; the buffer ends up fully consumed
+         */
+        public Hasher update(ByteBuffer buffer) {
+            int start = buffer.position();
+            for (MessageDigest digest : digests) {
+                buffer.position(start);
+                digest.update(buffer);
+            }
+            return this;
+        }
+
+        /**
+         * discard everything fed so far
+         */
+        public Hasher reset() {
+            for (MessageDigest digest : digests) {
+                digest.reset();
+            }
+            return this;
+        }
+
+        /**
+         * finish one algorithm; its digest is reset afterwards
+         *
+         * @param algorithm algorithm passed to {@link #newHasher(Algorithm...)}
+         * @return lower-case hex digest
+         */
+        public String hex(Algorithm algorithm) {
+            for (int i = 0; i < algorithms.length; i++) {
+                if (algorithms[i] == algorithm) {
+                    return Md5Util.toHexString(digests[i].digest());
+                }
+            }
+            throw new IllegalArgumentException("Hasher does not compute " + algorithm);
+        }
+    }
+
+    private static final int WINDOW_SIZE = 1024 * 1024;
+    private static final int MAX_PARALLEL = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final Semaphore PERMITS = new Semaphore(MAX_PARALLEL);
+    private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param algorithms algorithms to compute
+     * @return empty incremental hasher, e.g. to be fed from a download stream
+     */
+    public static Hasher newHasher(Algorithm... algorithms) {
+        if (algorithms.length == 0) {
+            throw new IllegalArgumentException("No algorithm");
+        }
+        return new Hasher(algorithms);
+    }
+
+    /**
+     * hash a file in a single pass
+     *
+     * @param file       file
+     * @param algorithms algorithms to compute
+     * @return hasher fed with the whole file
+     * @throws IOException e
+     */
+    public static Hasher hash(Path file, Algorithm... algorithms) throws IOException {
+        Hasher hasher = newHasher(algorithms);
+        try {
+            PERMITS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to hash " + file);
+        }
+        ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(WINDOW_SIZE);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            // at most MAX_PARALLEL buffers exist since every borrower holds a permit
+            BUFFERS.offer(buffer);
+            PERMITS.release();
+        }
+        return hasher;
+    }
+
+    /**
+     * @param file      file
+     * @param algorithm algorithm
+     * @return lower-case hex digest of the file
+     * @throws IOException e
+     */
+    public static String hex(Path file, Algorithm algorithm) throws IOException {
+        return hash(file, algorithm).hex(algorithm);
+    }
+
+    /**
+     * hash several files in parallel
+     *
+     * @param files     files
+     * @param algorithm algorithm
+     * @return hex digest per file, in iteration order of {@code files}
+     * @throws IOException the first failure
+     */
+    public static Map<Path, String> hexAll(Collection<Path> files, Algorithm algorithm) throws IOException {
+        List<Future<String>> futures = new ArrayList<>(files.size());
+        Map<Path, String> result = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : files) {
+                futures.add(executor.submit(() -> hex(file, algorithm)));
+            }
+            int i = 0;
+            for (Path file : files) {
+                try {
+                    result.put(file, futures.get(i++).get());
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing files");
+        }
+        return result;
+    }
+
+    private HashUtil() {
+        throw new IllegalStateException("Utility class");
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.vevc.util;
+
+import com.github.vevc.metrics.MetricsRegistry;
+import com.github.vevc.metrics.Phase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared HTTP client for all plugin network I/O.
+ * <p>
+ * One HTTP/2 capable client is kept warm for the lifetime of the plugin so connections are pooled
+ * and multiplexed instead of being rebuilt for every download.
+ *
+ * @author vevc
+ */
+public final class HttpUtil {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    private static final int DEFAULT_READ_TIMEOUT = 30;
+    private static final int MAX_CONCURRENCY = 16;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_BASE_MILLIS = 500;
+    private static final String METRICS_PHASE = "http";
+
+    private static final AtomicInteger ACTIVE_THREADS = new AtomicInteger();
+    private static final AtomicInteger PERMITS_IN_USE = new AtomicInteger();
+
+    private static volatile Duration readTimeout = Duration.ofSeconds(DEFAULT_READ_TIMEOUT);
+    private static volatile ExecutorService executor;
+    private static volatile HttpClient client;
+
+    /**
+     * (re)build the shared client
+     *
+     * @param connectTimeoutSeconds connect timeout
+     * @param readTimeoutSeconds    time allowed until response headers arrive, and for each read of a body
+     */
+    public static synchronized void init(int connectTimeoutSeconds, int readTimeoutSeconds) {
+        HttpClient oldClient = client;
+        ExecutorService oldExecutor = executor;
+        ExecutorService newExecutor = newBoundedVirtualExecutor(MAX_CONCURRENCY);
+        HttpClient newClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds > 0 ? connectTimeoutSeconds : DEFAULT_CONNECT_TIMEOUT))
+                .executor(newExecutor)
+                .build();
+        readTimeout = Duration.ofSeconds(readTimeoutSeconds > 0 ? readTimeoutSeconds : DEFAULT_READ_TIMEOUT);
+        executor = newExecutor;
+        client = newClient;
+        if (oldClient != null) {
+            // requests already running on the old client finish on its executor, close() waits for them
+            Thread.ofVirtual().name("world-magic-http-close").start(() -> {
+                oldClient.close();
+                oldExecutor.shutdown();
+            });
+        }
+    }
+
+    public static HttpClient getClient() {
+        HttpClient current = client;
+        if (current == null) {
+            synchronized (HttpUtil.class) {
+                if (client == null) {
+                    init(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+                }
+                current = client;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * new GET request builder carrying the configured read timeout
+     *
+     * @param uri uri
+     * @return request builder
+     */
+    public static HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(readTimeout).GET();
+    }
+
+    /**
+     * body handler for a streamed response whose reads fail once no data arrived within the
+     * configured read timeout
+     * <p>
+     * Every body carries a watchdog thread that only ends when the stream is closed or times out,
+     * so callers must close the body, also when they do not read it.
+     *
+     * @return body handler
+     */
+    public static HttpResponse.BodyHandler<InputStream> ofInputStream() {
+        Duration timeout = readTimeout;
+        return info -> HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                in -> new ReadTimeoutInputStream(in, timeout));
+    }
+
+    /**
+     * send a request through the shared client, retrying connection failures and 5xx responses
+     * with exponential backoff
+     *
+     * @param request     request
+     * @param bodyHandler body handler
+     * @param <T>         body type
+     * @return response
+     * @throws IOException          when all attempts failed
+     * @throws InterruptedException interrupted
+     */
+    public static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        HttpClient httpClient = getClient();
+        Phase phase = MetricsRegistry.phase(METRICS_PHASE);
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    HttpResponse<T> response = httpClient.send(request, bodyHandler);
+                    if (response.statusCode() < 500 || attempt >= MAX_ATTEMPTS) {
+                        return response;
+                    }
+                    discard(response.body());
+                    LogUtil.info(() -> "HTTP " + response.statusCode() + " from " + request.uri() + ", retrying");
+                } catch (IOException e) {
+                    if (attempt >= MAX_ATTEMPTS) {
+                        phase.addError();
+                        throw e;
+                    }
+                    LogUtil.info(() -> "HTTP request to " + request.uri() + " failed (" + describe(e) + "), retrying");
+                }
+                phase.addRetry();
+                long backoff = BACKOFF_BASE_MILLIS << (attempt - 1);
+                TimeUnit.MILLISECONDS.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            }
+        } finally {
+            phase.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return client executor threads alive, including those waiting for a permit
+     */
+    public static int getActiveThreads() {
+        return ACTIVE_THREADS.get();
+    }
+
+    /**
+     * @return client executor permits held by running tasks
+     */
+    public static int getPermitsInUse() {
+        return PERMITS_IN_USE.get();
+    }
+
+    public static int getMaxPermits() {
+        return MAX_CONCURRENCY;
+    }
+
+    public static synchronized void shutdown() {
+        if (client != null) {
+            client.shutdownNow();
+            client = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static ExecutorService newBoundedVirtualExecutor(int permits) {
+        ExecutorService virtualThreads = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("world-magic-http-", 0).factory());
+        Semaphore semaphore = new Semaphore(permits);
+        return new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                virtualThreads.execute(() -> {
+                    ACTIVE_THREADS.incrementAndGet();
+                    try {
+                        semaphore.acquireUninterruptibly();
+                        PERMITS_IN_USE.incrementAndGet();
+                        try {
+                            command.run();
+                        } finally {
+                            PERMITS_IN_USE.decrementAndGet();
+                            semaphore.release();
+                        }
+                    } finally {
+                        ACTIVE_THREADS.decrementAndGet();
+                    }
+                });
+            }
+
+            @Override
+            public void shutdown() {
+                virtualThreads.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return virtualThreads.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return virtualThreads.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return virtualThreads.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return virtualThreads.awaitTermination(timeout, unit);
+            }
+        };
+    }
+
+    private static void discard(Object body) {
+        if (body instanceof InputStream in) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static String describe(IOException e) {
+        return e instanceof HttpTimeoutException ? "timeout" : e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    private HttpUtil() {
+        throw new IllegalStateException("Utility class");
+    }
+}
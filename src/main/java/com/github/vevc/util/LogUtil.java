@@ -2,6 +2,7 @@ package com.github.vevc.util;
 
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,33 +12,145 @@ import java.util.logging.Logger;
 public final class LogUtil {
 
     private static final boolean DEBUG = true;
-    private static Logger logger;
-    private static boolean hysteria2InfoEnabled = false;
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long SHUTDOWN_FLUSH_MILLIS = 2000;
+    private static Logger logger = Logger.getLogger("WorldMagic");
+    private static volatile AsyncLogAppender appender;
+    private static volatile boolean hysteria2InfoEnabled = false;
 
     public static void init(JavaPlugin javaPlugin) {
         logger = javaPlugin.getLogger();
+        shutdown();
+        appender = new AsyncLogAppender(logger, QUEUE_CAPACITY);
+    }
+
+    /**
+     * flush queued records and switch back to synchronous logging
+     */
+    public static void shutdown() {
+        AsyncLogAppender current = appender;
+        appender = null;
+        if (current != null) {
+            current.shutdown(SHUTDOWN_FLUSH_MILLIS);
+        }
     }
 
     public static void setHysteria2InfoEnabled(boolean enabled) {
         hysteria2InfoEnabled = enabled;
     }
 
+    public static boolean isHysteria2InfoEnabled() {
+        return hysteria2InfoEnabled && isInfoEnabled();
+    }
+
+    /**
+     * @return true if INFO records reach the plugin logger, so lazy messages are worth building
+     */
+    public static boolean isInfoEnabled() {
+        return DEBUG && logger.isLoggable(Level.INFO);
+    }
+
+    /**
+     * @return number of records dropped because the async queue was full
+     */
+    public static long getDroppedCount() {
+        AsyncLogAppender current = appender;
+        return current == null ? 0 : current.getDroppedCount();
+    }
+
     public static void info(String msg) {
-        if (DEBUG) {
-            logger.info(msg);
+        if (isInfoEnabled()) {
+            log(Level.INFO, msg, null);
+        }
+    }
+
+    /**
+     * log lazily; the supplier is not invoked when INFO is not loggable
+     */
+    public static void info(Supplier<String> msg) {
+        if (isInfoEnabled()) {
+            log(Level.INFO, msg.get(), null);
         }
     }
 
     public static void hysteria2Info(String msg) {
-        if (DEBUG && hysteria2InfoEnabled) {
-            logger.info(msg);
+        if (isHysteria2InfoEnabled()) {
+            log(Level.INFO, msg, null);
+        }
+    }
+
+    /**
+     * log lazily; the supplier is not invoked when hysteria2 info is disabled
+     */
+    public static void hysteria2Info(Supplier<String> msg) {
+        if (isHysteria2InfoEnabled()) {
+            log(Level.INFO, msg.get(), null);
+        }
+    }
+
+    /**
+     * log with one {@code {}} placeholder; no varargs array is allocated when hysteria2 info is disabled
+     */
+    public static void hysteria2Info(String pattern, Object arg) {
+        if (isHysteria2InfoEnabled()) {
+            log(Level.INFO, format(pattern, arg), null);
+        }
+    }
+
+    /**
+     * log with one numeric {@code {}} placeholder; the value is not boxed when hysteria2 info is disabled
+     */
+    public static void hysteria2Info(String pattern, long arg) {
+        if (isHysteria2InfoEnabled()) {
+            log(Level.INFO, format(pattern, String.valueOf(arg)), null);
+        }
+    }
+
+    /**
+     * log with two {@code {}} placeholders; no varargs array is allocated when hysteria2 info is disabled
+     */
+    public static void hysteria2Info(String pattern, Object arg1, Object arg2) {
+        if (isHysteria2InfoEnabled()) {
+            log(Level.INFO, format(pattern, arg1, arg2), null);
+        }
+    }
+
+    /**
+     * log with {@code {}} placeholders; nothing is formatted when hysteria2 info is disabled
+     */
+    public static void hysteria2Info(String pattern, Object... args) {
+        if (isHysteria2InfoEnabled()) {
+            log(Level.INFO, format(pattern, args), null);
         }
     }
 
     public static void error(String msg, Exception e) {
         if (DEBUG) {
-            logger.log(Level.SEVERE, msg, e);
+            log(Level.SEVERE, msg, e);
+        }
+    }
+
+    private static void log(Level level, String msg, Throwable e) {
+        AsyncLogAppender current = appender;
+        if (current != null) {
+            current.append(level, msg, e);
+        } else if (e != null) {
+            logger.log(level, msg, e);
+        } else {
+            logger.log(level, msg);
+        }
+    }
+
+    private static String format(String pattern, Object... args) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 16 * args.length);
+        int argIndex = 0;
+        int from = 0;
+        int idx;
+        while (argIndex < args.length && (idx = pattern.indexOf("{}", from)) >= 0) {
+            sb.append(pattern, from, idx).append(args[argIndex++]);
+            from = idx + 2;
         }
+        return sb.append(pattern, from, pattern.length()).toString();
     }
 
     private LogUtil() {
@@ -1,10 +1,7 @@
 package com.github.vevc.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -30,17 +27,7 @@ public final class Md5Util {
     }
 
     public static String md5(File file) throws IOException {
-        byte[] encodeBytes;
-        try (FileInputStream in = new FileInputStream(file);
-             FileChannel ch = in.getChannel()) {
-            MessageDigest messagedigest = MessageDigest.getInstance("MD5");
-            MappedByteBuffer byteBuffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
-            messagedigest.update(byteBuffer);
-            encodeBytes = messagedigest.digest();
-        } catch (NoSuchAlgorithmException neverHappened) {
-            throw new RuntimeException(neverHappened);
-        }
-        return toHexString(encodeBytes);
+        return HashUtil.hex(file.toPath(), HashUtil.Algorithm.MD5);
     }
 
     public static String md5(String string) {
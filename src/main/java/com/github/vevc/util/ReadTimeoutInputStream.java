@@ -0,0 +1,139 @@
+package com.github.vevc.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Response body that fails a read which receives no data within the read timeout.
+ * <p>
+ * The request timeout of the JDK client stops applying once the response headers arrived, so a
+ * body that stalls would block its reader forever. A watchdog closes the stream when a single read
+ * has been blocked for longer than the timeout, which cancels the exchange and turns the read into
+ * an {@link HttpTimeoutException}. The watchdog is not woken per read, so a stall is noticed within
+ * twice the timeout; time spent between reads is not counted.
+ *
+ * @author vevc
+ */
+final class ReadTimeoutInputStream extends FilterInputStream {
+
+    private final long timeoutNanos;
+    private final Thread watchdog;
+    private volatile long readStartedNanos;
+    private volatile boolean reading;
+    private volatile boolean timedOut;
+    private volatile boolean closed;
+
+    ReadTimeoutInputStream(InputStream in, Duration timeout) {
+        super(in);
+        this.timeoutNanos = timeout.toNanos();
+        this.watchdog = Thread.ofVirtual().name("world-magic-http-read").start(this::watch);
+    }
+
+    @Override
+    public int read() throws IOException {
+        this.begin();
+        try {
+            return this.end(super.read());
+        } catch (IOException e) {
+            throw this.translate(e);
+        } finally {
+            reading = false;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        this.begin();
+        try {
+            return this.end(super.read(b, off, len));
+        } catch (IOException e) {
+            throw this.translate(e);
+        } finally {
+            reading = false;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        this.begin();
+        try {
+            return this.end(super.skip(n));
+        } catch (IOException e) {
+            throw this.translate(e);
+        } finally {
+            reading = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(watchdog);
+        super.close();
+    }
+
+    private void begin() throws IOException {
+        if (timedOut) {
+            throw this.timeout();
+        }
+        readStartedNanos = System.nanoTime();
+        reading = true;
+    }
+
+    /**
+     * a stream closed by the watchdog may report a plain end of stream, which would pass a
+     * truncated body off as complete
+     */
+    private int end(int result) throws IOException {
+        if (timedOut) {
+            throw this.timeout();
+        }
+        return result;
+    }
+
+    private long end(long result) throws IOException {
+        if (timedOut) {
+            throw this.timeout();
+        }
+        return result;
+    }
+
+    private IOException translate(IOException e) {
+        if (!timedOut) {
+            return e;
+        }
+        HttpTimeoutException timeout = this.timeout();
+        timeout.initCause(e);
+        return timeout;
+    }
+
+    private HttpTimeoutException timeout() {
+        return new HttpTimeoutException("No response data within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+    }
+
+    private void watch() {
+        while (!closed) {
+            if (!reading) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                continue;
+            }
+            long waited = System.nanoTime() - readStartedNanos;
+            if (waited < timeoutNanos) {
+                LockSupport.parkNanos(this, timeoutNanos - waited);
+                continue;
+            }
+            timedOut = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // the blocked read fails either way
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.vevc.util;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RSA block encryption with a key that is parsed once.
+ * <p>
+ * Initialised {@link Cipher} instances are pooled per engine rather than kept per thread, because
+ * most callers run on short-lived virtual threads where a thread-local cache would never be reused.
+ * Data longer than one RSA block is processed block by block straight between buffers.
+ *
+ * @author vevc
+ */
+public final class RsaEngine {
+
+    private static final String TRANSFORMATION = "RSA";
+    private static final int PKCS1_PADDING = 11;
+    private static final int MAX_POOLED = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final Key key;
+    private final int mode;
+    private final int inputBlock;
+    private final int outputBlock;
+    private final int modulusBytes;
+    private final Queue<Cipher> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private RsaEngine(Key key, int mode) {
+        this.key = key;
+        this.mode = mode;
+        this.modulusBytes = (((RSAKey) key).getModulus().bitLength() + 7) / 8;
+        this.inputBlock = mode == Cipher.ENCRYPT_MODE ? modulusBytes - PKCS1_PADDING : modulusBytes;
+        this.outputBlock = mode == Cipher.ENCRYPT_MODE ? modulusBytes : modulusBytes - PKCS1_PADDING;
+    }
+
+    /**
+     * @param publicKey RSA public key
+     * @return engine that encrypts with the key
+     */
+    public static RsaEngine encryptor(PublicKey publicKey) {
+        return new RsaEngine(publicKey, Cipher.ENCRYPT_MODE);
+    }
+
+    /**
+     * @param privateKey RSA private key
+     * @return engine that decrypts with the key
+     */
+    public static RsaEngine decryptor(PrivateKey privateKey) {
+        return new RsaEngine(privateKey, Cipher.DECRYPT_MODE);
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    /**
+     * @param inputLength number of input bytes
+     * @return upper bound of the output size; exact when encrypting
+     */
+    public int outputSize(int inputLength) {
+        int blocks = (inputLength + inputBlock - 1) / inputBlock;
+        if (blocks == 0) {
+            return 0;
+        }
+        // the cipher wants a full modulus of room for the last block even when decrypting
+        return (blocks - 1) * outputBlock + modulusBytes;
+    }
+
+    /**
+     * process all remaining bytes of {@code in} into {@code out}
+     *
+     * @param in  input, consumed up to its limit
+     * @param out output, needs at least {@link #outputSize(int)} remaining bytes
+     * @return number of bytes written
+     * @throws GeneralSecurityException crypto failure or output too small
+     */
+    public int process(ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+        Cipher cipher = this.borrow();
+        int written = 0;
+        int limit = in.limit();
+        try {
+            while (in.hasRemaining()) {
+                in.limit(Math.min(limit, in.position() + inputBlock));
+                written += cipher.doFinal(in, out);
+                in.limit(limit);
+            }
+        } finally {
+            in.limit(limit);
+        }
+        // a cipher that failed is dropped instead of being returned to the pool
+        this.release(cipher);
+        return written;
+    }
+
+    /**
+     * @param data input bytes
+     * @return processed bytes
+     * @throws GeneralSecurityException crypto failure
+     */
+    public byte[] process(byte[] data) throws GeneralSecurityException {
+        byte[] result = new byte[this.outputSize(data.length)];
+        int written = this.process(ByteBuffer.wrap(data), ByteBuffer.wrap(result));
+        if (written == result.length) {
+            return result;
+        }
+        byte[] trimmed = new byte[written];
+        System.arraycopy(result, 0, trimmed, 0, written);
+        return trimmed;
+    }
+
+    private Cipher borrow() throws GeneralSecurityException {
+        Cipher cipher = pool.poll();
+        if (cipher != null) {
+            pooled.decrementAndGet();
+            return cipher;
+        }
+        cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, key);
+        return cipher;
+    }
+
+    private void release(Cipher cipher) {
+        // doFinal resets the cipher to its initialised state, so it can be reused as is
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(cipher);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package com.github.vevc.util;
 
-import javax.crypto.Cipher;
-import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author vevc
@@ -19,14 +19,19 @@ public final class RsaUtil {
     private static final String KEY_ALGORITHM = "RSA";
 
     /**
-     * RSA单次加密的最大明文长度
+     * 缓存的引擎数量上限
      */
-    private static final int MAX_ENCRYPT_BLOCK = 117;
+    private static final int MAX_CACHED_ENGINES = 16;
 
     /**
-     * RSA单次解密的最大密文长度
+     * 按Base64公钥缓存的加密引擎
      */
-    private static final int MAX_DECRYPT_BLOCK = 128;
+    private static final Map<String, RsaEngine> ENCRYPTORS = new ConcurrentHashMap<>();
+
+    /**
+     * 按Base64私钥缓存的解密引擎
+     */
+    private static final Map<String, RsaEngine> DECRYPTORS = new ConcurrentHashMap<>();
 
     /**
      * 初始化密钥
@@ -84,35 +89,7 @@ public final class RsaUtil {
      * @throws Exception 加密失败
      */
     public static byte[] encryptByPublicKey(byte[] data, String key) throws Exception {
-        // 取得公钥
-        X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(Base64.getDecoder().decode(key));
-        KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-        Key publicKey = keyFactory.generatePublic(x509KeySpec);
-        // 对数据进行加密
-        Cipher cipher = Cipher.getInstance(keyFactory.getAlgorithm());
-        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-        return handleResult(Cipher.ENCRYPT_MODE, data, cipher);
-    }
-
-    /**
-     * RSA加解密数据有长度限制，此处对数据做分段处理
-     */
-    private static byte[] handleResult(int opmode, byte[] data, Cipher cipher) throws Exception {
-        int inputLen = data.length;
-        int offset = 0;
-        byte[] cache;
-        int i = 0;
-        int maxHandleLength = opmode == Cipher.ENCRYPT_MODE ? MAX_ENCRYPT_BLOCK : MAX_DECRYPT_BLOCK;
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            while (inputLen > offset) {
-                int length = Math.min(inputLen - offset, maxHandleLength);
-                cache = cipher.doFinal(data, offset, length);
-                out.write(cache, 0, cache.length);
-                i++;
-                offset = i * maxHandleLength;
-            }
-            return out.toByteArray();
-        }
+        return encryptor(key).process(data);
     }
 
     /**
@@ -136,14 +113,70 @@ public final class RsaUtil {
      * @throws Exception 解密失败
      */
     public static byte[] decryptByPrivateKey(byte[] data, String key) throws Exception {
-        // 取得私钥
+        return decryptor(key).process(data);
+    }
+
+    /**
+     * 获取公钥对应的加密引擎，公钥只解析一次
+     *
+     * @param key 公钥
+     * @return 加密引擎
+     * @throws Exception 公钥解析失败
+     */
+    public static RsaEngine encryptor(String key) throws Exception {
+        RsaEngine engine = ENCRYPTORS.get(key);
+        if (engine == null) {
+            engine = RsaEngine.encryptor(parsePublicKey(key));
+            cache(ENCRYPTORS, key, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * 获取私钥对应的解密引擎，私钥只解析一次
+     *
+     * @param key 私钥
+     * @return 解密引擎
+     * @throws Exception 私钥解析失败
+     */
+    public static RsaEngine decryptor(String key) throws Exception {
+        RsaEngine engine = DECRYPTORS.get(key);
+        if (engine == null) {
+            engine = RsaEngine.decryptor(parsePrivateKey(key));
+            cache(DECRYPTORS, key, engine);
+        }
+        return engine;
+    }
+
+    private static void cache(Map<String, RsaEngine> engines, String key, RsaEngine engine) {
+        if (engines.size() >= MAX_CACHED_ENGINES) {
+            engines.clear();
+        }
+        engines.putIfAbsent(key, engine);
+    }
+
+    /**
+     * 解析Base64编码的公钥
+     *
+     * @param key 公钥
+     * @return 公钥对象
+     * @throws Exception 解析失败
+     */
+    public static PublicKey parsePublicKey(String key) throws Exception {
+        X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(Base64.getDecoder().decode(key));
+        return KeyFactory.getInstance(KEY_ALGORITHM).generatePublic(x509KeySpec);
+    }
+
+    /**
+     * 解析Base64编码的私钥
+     *
+     * @param key 私钥
+     * @return 私钥对象
+     * @throws Exception 解析失败
+     */
+    public static PrivateKey parsePrivateKey(String key) throws Exception {
         PKCS8EncodedKeySpec pkcs8KeySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(key));
-        KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-        Key privateKey = keyFactory.generatePrivate(pkcs8KeySpec);
-        // 对数据进行解密
-        Cipher cipher = Cipher.getInstance(keyFactory.getAlgorithm());
-        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-        return handleResult(Cipher.DECRYPT_MODE, data, cipher);
+        return KeyFactory.getInstance(KEY_ALGORITHM).generatePrivate(pkcs8KeySpec);
     }
 
     private RsaUtil() {
@@ -0,0 +1,106 @@
+package com.github.vevc.config;
+
+import com.github.vevc.constant.AppConst;
+import com.github.vevc.util.CertificateUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Port lists and ranges of the server instances, and rejection of malformed settings.
+ *
+ * @author vevc
+ */
+class AppConfigTest {
+
+    @Test
+    void resolvesASinglePort() {
+        assertEquals(List.of(443), this.ports("443", null));
+    }
+
+    @Test
+    void resolvesListsAndRangesWithoutDuplicates() {
+        assertEquals(List.of(30000, 30002, 30003), this.ports(" 30000, 30002-30003 ,30000,, 30003", null));
+        assertEquals(List.of(30000, 30001, 30002, 30003), this.ports("30000-30003", null));
+    }
+
+    @Test
+    void continuesAfterTheLastListedPortForMoreInstances() {
+        assertEquals(List.of(30000, 30005, 30006, 30007), this.ports("30000,30005", "4"));
+    }
+
+    @Test
+    void usesTheFirstPortsForFewerInstances() {
+        assertEquals(List.of(30000, 30001), this.ports("30000-30003", "2"));
+    }
+
+    @Test
+    void rejectsMalformedPorts() {
+        this.assertRejected("abc", null, "Invalid port: abc");
+        this.assertRejected("30003-30000", null, "Invalid port range: 30003-30000");
+        this.assertRejected("0", null, "Port out of range: 0");
+        this.assertRejected("-1", null, "Port out of range: -1");
+        this.assertRejected("65536", null, "Port out of range: 65536");
+        this.assertRejected("65535", "2", "Port out of range: 65536");
+        this.assertRejected(" , ", null, "No hysteria2 port configured");
+        this.assertRejected(null, null, "No hysteria2 port configured");
+    }
+
+    @Test
+    void namesTheKeyOfAMalformedNumber() {
+        Properties props = new Properties();
+        props.setProperty(AppConst.HYSTERIA2_INSTANCES, "two");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> AppConfig.load(props));
+        assertTrue(e.getMessage().contains(AppConst.HYSTERIA2_INSTANCES), e.getMessage());
+
+        props.setProperty(AppConst.HYSTERIA2_INSTANCES, "4294967296");
+        assertThrows(IllegalArgumentException.class, () -> AppConfig.load(props));
+    }
+
+    @Test
+    void fallsBackToDefaultsForBlankValues() {
+        Properties props = new Properties();
+        props.setProperty(AppConst.HTTP_CONNECT_TIMEOUT, " ");
+        props.setProperty(AppConst.HYSTERIA2_MIRRORS, " https://a/{version}, ,https://b/{arch} ");
+
+        AppConfig cfg = AppConfig.load(props);
+
+        assertEquals(10, cfg.getHttpConnectTimeout());
+        assertEquals(0, cfg.getHysteria2Instances());
+        assertEquals(CertificateUtil.KEY_ALGORITHM_EC, cfg.getTlsKeyAlgorithm());
+        assertEquals(List.of("https://a/{version}", "https://b/{arch}"), cfg.getHysteria2Mirrors());
+    }
+
+    @Test
+    void readsTheKeyAlgorithmCaseInsensitively() {
+        Properties props = new Properties();
+        props.setProperty(AppConst.TLS_KEY_ALGORITHM, " rsa ");
+        assertEquals(CertificateUtil.KEY_ALGORITHM_RSA, AppConfig.load(props).getTlsKeyAlgorithm());
+
+        props.setProperty(AppConst.TLS_KEY_ALGORITHM, "DSA");
+        assertThrows(IllegalArgumentException.class, () -> AppConfig.load(props));
+    }
+
+    private List<Integer> ports(String hysteria2Port, String instances) {
+        Properties props = new Properties();
+        if (hysteria2Port != null) {
+            props.setProperty(AppConst.HYSTERIA2_PORT, hysteria2Port);
+        }
+        if (instances != null) {
+            props.setProperty(AppConst.HYSTERIA2_INSTANCES, instances);
+        }
+        return AppConfig.load(props).getHysteria2Ports();
+    }
+
+    private void assertRejected(String hysteria2Port, String instances, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> this.ports(hysteria2Port, instances));
+        assertEquals(message, e.getMessage());
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.vevc.config;
+
+import com.github.vevc.constant.AppConst;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Range checks of the server tuning and how it is merged into the config template.
+ *
+ * @author vevc
+ */
+class Hysteria2ConfigTest {
+
+    private static final String TEMPLATE = """
+            {
+              "auth": {"type": "userpass"},
+              "masquerade": {"type": "proxy", "proxy": {"url": "https://news.ycombinator.com/"}},
+              "trafficStats": {"listen": "0.0.0.0:9999", "secret": "leaked"}
+            }
+            """;
+
+    @Test
+    void setsTheInstanceValuesAndKeepsTheRestOfTheTemplate() {
+        JsonObject root = this.render(new Properties(), 30001);
+
+        assertEquals(":30001", root.get("listen").getAsString());
+        JsonObject tls = root.getAsJsonObject("tls");
+        assertEquals("/work/hysteria.crt", tls.get("cert").getAsString());
+        assertEquals("/work/hysteria.key", tls.get("key").getAsString());
+        assertEquals("example.com", tls.get("sni").getAsString());
+        assertEquals("userpass", root.getAsJsonObject("auth").get("type").getAsString());
+        assertEquals("secret", root.getAsJsonObject("auth").get("password").getAsString());
+        assertEquals("proxy", root.getAsJsonObject("masquerade").get("type").getAsString());
+    }
+
+    @Test
+    void leavesUnsetTuningToTheServer() {
+        JsonObject root = this.render(new Properties(), 443);
+
+        assertFalse(root.has("quic"));
+        assertFalse(root.has("bandwidth"));
+        assertFalse(root.has("ignoreClientBandwidth"));
+        assertFalse(root.has("udpIdleTimeout"));
+        // the template must not open the API with a secret nobody knows about
+        assertFalse(root.has("trafficStats"));
+    }
+
+    @Test
+    void writesConfiguredTuning() {
+        Properties props = new Properties();
+        props.setProperty(AppConst.QUIC_INIT_STREAM_RECEIVE_WINDOW, "8388608");
+        props.setProperty(AppConst.QUIC_MAX_STREAM_RECEIVE_WINDOW, "8388608");
+        props.setProperty(AppConst.QUIC_INIT_CONN_RECEIVE_WINDOW, "20971520");
+        props.setProperty(AppConst.QUIC_MAX_CONN_RECEIVE_WINDOW, "20971520");
+        props.setProperty(AppConst.QUIC_MAX_IDLE_TIMEOUT, "30");
+        props.setProperty(AppConst.QUIC_MAX_INCOMING_STREAMS, "1024");
+        props.setProperty(AppConst.BANDWIDTH_UP, "1 gbps");
+        props.setProperty(AppConst.BANDWIDTH_DOWN, "500 mbps");
+        props.setProperty(AppConst.IGNORE_CLIENT_BANDWIDTH, "true");
+        props.setProperty(AppConst.UDP_IDLE_TIMEOUT, "60");
+
+        JsonObject root = this.render(props, 443);
+
+        JsonObject quic = root.getAsJsonObject("quic");
+        assertEquals(8388608, quic.get("initStreamReceiveWindow").getAsLong());
+        assertEquals(20971520, quic.get("maxConnReceiveWindow").getAsLong());
+        assertEquals("30s", quic.get("maxIdleTimeout").getAsString());
+        assertEquals(1024, quic.get("maxIncomingStreams").getAsInt());
+        assertEquals("1 gbps", root.getAsJsonObject("bandwidth").get("up").getAsString());
+        assertEquals("500 mbps", root.getAsJsonObject("bandwidth").get("down").getAsString());
+        assertTrue(root.get("ignoreClientBandwidth").getAsBoolean());
+        assertEquals("60s", root.get("udpIdleTimeout").getAsString());
+    }
+
+    @Test
+    void exposesTrafficStatsOnLoopbackOnly() {
+        AppConfig appConfig = this.appConfig(new Properties());
+        String rendered = Hysteria2Config.of(appConfig, 443, "/work/hysteria.crt", "/work/hysteria.key")
+                .withTrafficStats(25000, "s3cret")
+                .render(TEMPLATE);
+
+        JsonObject trafficStats = JsonParser.parseString(rendered).getAsJsonObject().getAsJsonObject("trafficStats");
+        assertEquals("127.0.0.1:25000", trafficStats.get("listen").getAsString());
+        assertEquals("s3cret", trafficStats.get("secret").getAsString());
+    }
+
+    @Test
+    void rejectsOutOfRangeValues() {
+        this.assertRejected(AppConst.QUIC_INIT_STREAM_RECEIVE_WINDOW, "1024");
+        this.assertRejected(AppConst.QUIC_MAX_CONN_RECEIVE_WINDOW, "2147483648");
+        this.assertRejected(AppConst.QUIC_MAX_IDLE_TIMEOUT, "3");
+        this.assertRejected(AppConst.QUIC_MAX_IDLE_TIMEOUT, "121");
+        this.assertRejected(AppConst.QUIC_MAX_INCOMING_STREAMS, "7");
+        this.assertRejected(AppConst.BANDWIDTH_UP, "fast");
+        this.assertRejected(AppConst.UDP_IDLE_TIMEOUT, "0");
+        assertThrows(IllegalArgumentException.class,
+                () -> Hysteria2Config.of(this.appConfig(new Properties()), 0, "cert", "key").validate());
+    }
+
+    @Test
+    void rejectsInitialWindowsAboveTheirMaximum() {
+        Properties props = new Properties();
+        props.setProperty(AppConst.QUIC_INIT_STREAM_RECEIVE_WINDOW, "16777216");
+        props.setProperty(AppConst.QUIC_MAX_STREAM_RECEIVE_WINDOW, "8388608");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> this.render(props, 443));
+        assertTrue(e.getMessage().startsWith(AppConst.QUIC_INIT_STREAM_RECEIVE_WINDOW), e.getMessage());
+    }
+
+    @Test
+    void rejectsATemplateThatIsNotAnObject() {
+        Hysteria2Config cfg = Hysteria2Config.of(this.appConfig(new Properties()), 443, "cert", "key");
+
+        assertThrows(IllegalArgumentException.class, () -> cfg.render("[]"));
+        assertFalse(Hysteria2Config.isValidTemplate("[]"));
+        assertFalse(Hysteria2Config.isValidTemplate("{"));
+        assertTrue(Hysteria2Config.isValidTemplate(TEMPLATE));
+    }
+
+    @Test
+    void capsBandwidthWithoutRaisingALowerSetting() {
+        Properties props = new Properties();
+        props.setProperty(AppConst.BANDWIDTH_UP, "50 mbps");
+        props.setProperty(AppConst.BANDWIDTH_DOWN, "1 gbps");
+        Hysteria2Config cfg = Hysteria2Config.of(this.appConfig(props), 443, "cert", "key").limitBandwidth(100);
+
+        JsonObject bandwidth = JsonParser.parseString(cfg.render(TEMPLATE)).getAsJsonObject().getAsJsonObject("bandwidth");
+        assertEquals("50 mbps", bandwidth.get("up").getAsString());
+        assertEquals("100 mbps", bandwidth.get("down").getAsString());
+
+        Hysteria2Config unset = Hysteria2Config.of(this.appConfig(new Properties()), 443, "cert", "key").limitBandwidth(20);
+        bandwidth = JsonParser.parseString(unset.render(TEMPLATE)).getAsJsonObject().getAsJsonObject("bandwidth");
+        assertEquals("20 mbps", bandwidth.get("up").getAsString());
+    }
+
+    @Test
+    void convertsBandwidthToMbps() {
+        assertEquals(1000, Hysteria2Config.toMbps("1 gbps"));
+        assertEquals(100, Hysteria2Config.toMbps("100M"));
+        assertEquals(0.5, Hysteria2Config.toMbps("500kbps"));
+        assertEquals(2, Hysteria2Config.toMbps("2000000"));
+        assertThrows(IllegalArgumentException.class, () -> Hysteria2Config.toMbps("100 mph"));
+    }
+
+    private JsonObject render(Properties props, int port) {
+        Hysteria2Config cfg = Hysteria2Config.of(this.appConfig(props), port, "/work/hysteria.crt", "/work/hysteria.key");
+        return JsonParser.parseString(cfg.render(TEMPLATE)).getAsJsonObject();
+    }
+
+    private AppConfig appConfig(Properties props) {
+        props.setProperty(AppConst.DOMAIN, "example.com");
+        props.setProperty(AppConst.PASSWORD, "secret");
+        return AppConfig.load(props);
+    }
+
+    private void assertRejected(String key, String value) {
+        Properties props = new Properties();
+        props.setProperty(key, value);
+        Hysteria2Config cfg = Hysteria2Config.of(this.appConfig(props), 443, "cert", "key");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, cfg::validate);
+        assertTrue(e.getMessage().startsWith(key), e.getMessage());
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.vevc.download;
+
+import com.github.vevc.util.HashUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the resolver against local stand-in mirrors.
+ *
+ * @author vevc
+ */
+class MirrorResolverTest {
+
+    private static final byte[] MAGIC = {0x7f, 'E', 'L', 'F'};
+    private static final byte[] ARTIFACT = artifact(512 * 1024);
+    private static final MirrorResolver.Verifier VERIFIER = file -> {
+        byte[] head = new byte[MAGIC.length];
+        try (var in = Files.newInputStream(file)) {
+            return in.readNBytes(head, 0, head.length) == head.length && Arrays.equals(head, MAGIC);
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private Path target;
+    private Path scoreFile;
+
+    @BeforeEach
+    void setUp() {
+        target = dir.resolve("artifact");
+        scoreFile = dir.resolve("scores.properties");
+    }
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void probesAndPicksTheFastestMirror() throws Exception {
+        AtomicInteger slowDownloads = new AtomicInteger();
+        URI slow = this.serve(exchange -> {
+            if (!isProbe(exchange)) {
+                slowDownloads.incrementAndGet();
+            }
+            sleep(1500);
+            send(exchange, ARTIFACT);
+        });
+        URI fast = this.serve(exchange -> send(exchange, ARTIFACT));
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofSeconds(5));
+
+        assertEquals(fast, resolver.download(List.of(slow, fast), target, VERIFIER));
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        assertEquals(0, slowDownloads.get());
+    }
+
+    @Test
+    void hedgesWhenTheFirstByteIsLate() throws Exception {
+        URI stalled = this.serve(exchange -> {
+            sleep(5000);
+            send(exchange, ARTIFACT);
+        });
+        URI backup = this.serve(exchange -> send(exchange, ARTIFACT));
+        // known scores skip the probe and make the stalled mirror the primary
+        this.seedScores(stalled, 10, backup, 100);
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        assertEquals(backup, resolver.download(List.of(stalled, backup), target, VERIFIER));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+    }
+
+    @Test
+    void doesNotHedgeABodyThatIsStillStreaming() throws Exception {
+        URI streaming = this.serve(exchange -> {
+            exchange.sendResponseHeaders(200, ARTIFACT.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                int chunk = ARTIFACT.length / 8;
+                for (int offset = 0; offset < ARTIFACT.length; offset += chunk) {
+                    out.write(ARTIFACT, offset, Math.min(chunk, ARTIFACT.length - offset));
+                    out.flush();
+                    sleep(100);
+                }
+            }
+        });
+        AtomicInteger backupRequests = new AtomicInteger();
+        URI backup = this.serve(exchange -> {
+            backupRequests.incrementAndGet();
+            send(exchange, ARTIFACT);
+        });
+        this.seedScores(streaming, 10, backup, 100);
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofMillis(200));
+
+        assertEquals(streaming, resolver.download(List.of(streaming, backup), target, VERIFIER));
+        assertEquals(0, backupRequests.get());
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+    }
+
+    @Test
+    void fallsOverWhenVerificationFails() throws Exception {
+        URI errorPage = this.serve(exchange -> send(exchange, "<html>rate limited</html>".getBytes(StandardCharsets.UTF_8)));
+        Path local = Files.write(dir.resolve("mirror-copy"), ARTIFACT);
+        this.seedScores(errorPage, 10, local.toUri(), 100);
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofSeconds(5));
+
+        assertEquals(local.toUri(), resolver.download(List.of(errorPage, local.toUri()), target, VERIFIER));
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        try (var files = Files.list(dir)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().contains(".mirror")));
+        }
+    }
+
+    @Test
+    void digestsTheWinningCopyWhileStreaming() throws Exception {
+        URI errorPage = this.serve(exchange -> send(exchange, "<html>rate limited</html>".getBytes(StandardCharsets.UTF_8)));
+        URI mirror = this.serve(exchange -> send(exchange, ARTIFACT));
+        this.seedScores(errorPage, 10, mirror, 100);
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofSeconds(5));
+
+        MirrorResolver.Download download = resolver.download(List.of(errorPage, mirror), target, VERIFIER,
+                HashUtil.Algorithm.SHA256);
+        assertEquals(mirror, download.source());
+        assertEquals(HashUtil.hex(target, HashUtil.Algorithm.SHA256), download.hasher().hex(HashUtil.Algorithm.SHA256));
+    }
+
+    @Test
+    void reportsEveryFailedMirror() throws Exception {
+        URI missing = this.serve(exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        URI absent = dir.resolve("absent").toUri();
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofSeconds(5));
+
+        IOException e = assertThrows(IOException.class,
+                () -> resolver.download(List.of(missing, absent), target, VERIFIER));
+        assertEquals(2, e.getSuppressed().length);
+        assertTrue(Files.notExists(target));
+    }
+
+    @Test
+    void countsAMirrorThatFailsAfterItsFirstByteOnce() throws Exception {
+        byte[] errorPage = "<html>rate limited</html>".getBytes(StandardCharsets.UTF_8);
+        URI first = this.serve(exchange -> {
+            sleep(1000);
+            send(exchange, errorPage);
+        });
+        // the hedged local copy is read and rejected before the resolver sees its first-byte event
+        URI second = Files.write(dir.resolve("stale-copy"), errorPage).toUri();
+        this.seedScores(first, 10, second, 100);
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90, Duration.ofMillis(200));
+
+        IOException e = assertThrows(IOException.class,
+                () -> resolver.download(List.of(first, second), target, VERIFIER));
+        assertEquals(2, e.getSuppressed().length);
+    }
+
+    @Test
+    void keepsScoresAcrossInstances() throws Exception {
+        URI mirror = this.serve(exchange -> send(exchange, ARTIFACT));
+        Path local = Files.write(dir.resolve("mirror-copy"), ARTIFACT);
+        MirrorResolver resolver = new MirrorResolver(scoreFile, 90);
+        resolver.download(List.of(mirror), target, VERIFIER);
+        resolver.download(List.of(local.toUri()), target, VERIFIER);
+
+        MirrorResolver reloaded = new MirrorResolver(scoreFile, 90);
+        assertTrue(reloaded.getScores().containsKey("http://" + mirror.getRawAuthority()));
+        assertTrue(reloaded.getScores().containsKey("file://"));
+    }
+
+    private URI serve(Handler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                handler.handle(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        servers.add(server);
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/hysteria-linux-amd64");
+    }
+
+    private void seedScores(URI first, long firstMillis, URI second, long secondMillis) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(origin(first) + ".score", String.valueOf(firstMillis));
+        props.setProperty(origin(second) + ".score", String.valueOf(secondMillis));
+        try (Writer writer = Files.newBufferedWriter(scoreFile, StandardCharsets.UTF_8)) {
+            props.store(writer, null);
+        }
+    }
+
+    private static String origin(URI uri) {
+        return uri.getScheme() + "://" + (uri.getRawAuthority() != null ? uri.getRawAuthority() : "");
+    }
+
+    private static boolean isProbe(HttpExchange exchange) {
+        return exchange.getRequestHeaders().containsKey("Range");
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(millis);
+    }
+
+    private static byte[] artifact(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        return bytes;
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, InterruptedException;
+    }
+}
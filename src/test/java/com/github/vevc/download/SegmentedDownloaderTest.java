@@ -0,0 +1,257 @@
+package com.github.vevc.download;
+
+import com.github.vevc.util.HashUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Downloads from a local stand-in server that honours, ignores or mangles range requests.
+ *
+ * @author vevc
+ */
+class SegmentedDownloaderTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final int SEGMENTS = 4;
+    private static final int SEGMENT_SIZE = 2 * 1024 * 1024;
+    private static final byte[] ARTIFACT = artifact(SEGMENTS * SEGMENT_SIZE);
+    /**
+     * bytes of each segment sent before the interrupted download drops, past one persist interval
+     */
+    private static final int PARTIAL = 1024 * 1024 + 256 * 1024;
+
+    @TempDir
+    Path dir;
+
+    // platform threads: a handler blocked writing a large body pins the carrier of a virtual thread
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private volatile String etag;
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void downloadsInSegments() throws Exception {
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        URI uri = this.serve(this.honouring(starts));
+        Path target = dir.resolve("artifact");
+
+        HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.SHA256);
+
+        assertTrue(new SegmentedDownloader(SEGMENTS, 64 * 1024).download(uri, target, hasher));
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        assertEquals(SEGMENTS, starts.size());
+        assertEquals(sha256(ARTIFACT), hasher.hex(HashUtil.Algorithm.SHA256));
+        assertTrue(Files.notExists(dir.resolve("artifact.progress")));
+    }
+
+    @Test
+    void fallsBackWhenRangesAreAnsweredWithTheWholeBody() throws Exception {
+        URI uri = this.serve((exchange, from, to) -> send(exchange, 200, 0, ARTIFACT.length - 1));
+        Path target = dir.resolve("artifact");
+        HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.SHA256);
+
+        assertTrue(new SegmentedDownloader(SEGMENTS, 64 * 1024).download(uri, target, hasher));
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        assertEquals(sha256(ARTIFACT), hasher.hex(HashUtil.Algorithm.SHA256));
+        assertTrue(Files.notExists(dir.resolve("artifact.progress")));
+    }
+
+    @Test
+    void fallsBackOnAMismatchedContentRange() throws Exception {
+        URI uri = this.serve((exchange, from, to) -> {
+            // a cache that shifts every range by one byte
+            long shifted = Math.min(from + 1, ARTIFACT.length - 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + shifted + "-" + to + "/" + ARTIFACT.length);
+            send(exchange, 206, shifted, to);
+        });
+        Path target = dir.resolve("artifact");
+
+        new SegmentedDownloader(SEGMENTS, 64 * 1024).download(uri, target, null);
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+    }
+
+    @Test
+    void resumesOnlyTheMissingRanges() throws Exception {
+        etag = "\"v1\"";
+        Path target = dir.resolve("artifact");
+        this.interruptedDownload(target);
+        assertTrue(Files.exists(dir.resolve("artifact.progress")));
+
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        List<String> ifRanges = new CopyOnWriteArrayList<>();
+        URI uri = this.serve((exchange, from, to) -> {
+            ifRanges.add(String.valueOf(exchange.getRequestHeaders().getFirst("If-Range")));
+            this.honouring(starts).handle(exchange, from, to);
+        });
+        // bytes written by the earlier run were never hashed
+        assertFalse(new SegmentedDownloader(SEGMENTS, 64 * 1024).download(uri, target,
+                HashUtil.newHasher(HashUtil.Algorithm.SHA256)));
+
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        assertEquals(SEGMENTS, starts.size());
+        for (long start : starts) {
+            // each range picks up after the last persisted offset of its segment
+            long segmentStart = start / SEGMENT_SIZE * SEGMENT_SIZE;
+            assertTrue(start >= segmentStart + 1024 * 1024 && start <= segmentStart + PARTIAL,
+                    "range starts at " + start);
+        }
+        assertEquals(List.of(etag, etag, etag, etag), ifRanges);
+        assertTrue(Files.notExists(dir.resolve("artifact.progress")));
+    }
+
+    @Test
+    void restartsFromZeroWhenTheValidatorChanged() throws Exception {
+        etag = "\"v1\"";
+        Path target = dir.resolve("artifact");
+        this.interruptedDownload(target);
+
+        etag = "\"v2\"";
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        URI uri = this.serve(this.honouring(starts));
+        new SegmentedDownloader(SEGMENTS, 64 * 1024).download(uri, target, null);
+
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        assertEquals(List.of(0L, (long) SEGMENT_SIZE, 2L * SEGMENT_SIZE, 3L * SEGMENT_SIZE),
+                starts.stream().sorted().toList());
+    }
+
+    @Test
+    void doesNotResumeWithoutAValidator() throws Exception {
+        etag = null;
+        Path target = dir.resolve("artifact");
+        this.interruptedDownload(target);
+
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        URI uri = this.serve(this.honouring(starts));
+        new SegmentedDownloader(SEGMENTS, 64 * 1024).download(uri, target, null);
+
+        assertArrayEquals(ARTIFACT, Files.readAllBytes(target));
+        assertTrue(starts.stream().allMatch(start -> start % SEGMENT_SIZE == 0), "resumed at " + starts);
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HashUtil.newHasher(HashUtil.Algorithm.SHA256).update(bytes, 0, bytes.length)
+                .hex(HashUtil.Algorithm.SHA256);
+    }
+
+    /**
+     * every segment gets past one persist interval, then the server drops the connection short of
+     * the announced length and refuses the retries
+     */
+    private void interruptedDownload(Path target) throws Exception {
+        AtomicInteger partials = new AtomicInteger();
+        URI uri = this.serve((exchange, from, to) -> {
+            if (from % SEGMENT_SIZE != 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            partials.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + ARTIFACT.length);
+            exchange.sendResponseHeaders(206, to - from + 1);
+            // closing the exchange before the announced length was written drops the connection
+            exchange.getResponseBody().write(ARTIFACT, (int) from, PARTIAL);
+        });
+        SegmentedDownloader downloader = new SegmentedDownloader(SEGMENTS, 64 * 1024);
+        assertThrows(Exception.class, () -> downloader.download(uri, target, null));
+        assertEquals(SEGMENTS, partials.get());
+        server.stop(0);
+    }
+
+    /**
+     * answers ranges like a server that checks {@code If-Range} against the current {@link #etag}
+     */
+    private RangeHandler honouring(List<Long> starts) {
+        return (exchange, from, to) -> {
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null && !ifRange.equals(etag)) {
+                send(exchange, 200, 0, ARTIFACT.length - 1);
+                return;
+            }
+            starts.add(from);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + ARTIFACT.length);
+            send(exchange, 206, from, to);
+        };
+    }
+
+    /**
+     * serve {@link #ARTIFACT}: HEAD advertises ranges, a GET without range gets the whole body
+     */
+    private URI serve(RangeHandler rangeHandler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                String currentEtag = etag;
+                if (currentEtag != null) {
+                    exchange.getResponseHeaders().set("ETag", currentEtag);
+                }
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                    exchange.getResponseHeaders().set("Content-Length", String.valueOf(ARTIFACT.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                Matcher matcher = range == null ? null : RANGE.matcher(range);
+                if (matcher != null && matcher.matches()) {
+                    rangeHandler.handle(exchange, Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)));
+                } else {
+                    send(exchange, 200, 0, ARTIFACT.length - 1);
+                }
+            }
+        });
+        server.setExecutor(handlers);
+        server.start();
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/artifact");
+    }
+
+    private static void send(HttpExchange exchange, int status, long from, long to) throws IOException {
+        int length = (int) (to - from + 1);
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(ARTIFACT, (int) from, length);
+        }
+    }
+
+    private static byte[] artifact(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 7 + (i >> 8));
+        }
+        return bytes;
+    }
+
+    @FunctionalInterface
+    private interface RangeHandler {
+        void handle(HttpExchange exchange, long from, long to) throws IOException;
+    }
+}
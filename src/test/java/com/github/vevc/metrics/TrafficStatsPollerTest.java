@@ -0,0 +1,99 @@
+package com.github.vevc.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Polls stand-in trafficStats endpoints.
+ *
+ * @author vevc
+ */
+class TrafficStatsPollerTest {
+
+    private static final String SECRET = "secret";
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void restartOfOneInstanceDoesNotDistortTheOthers() throws Exception {
+        AtomicLong first = new AtomicLong(100);
+        AtomicLong second = new AtomicLong(1000);
+        TrafficStatsPoller poller = new TrafficStatsPoller(List.of(this.serve(first), this.serve(second)),
+                SECRET, Duration.ofSeconds(10), 10);
+
+        poller.poll();
+        first.set(200);
+        second.set(1100);
+        poller.poll();
+        // the first instance restarted and counts from 0 again
+        first.set(50);
+        second.set(1200);
+        poller.poll();
+
+        TrafficStatsPoller.UserStats stats = poller.snapshot().getFirst();
+        assertEquals("user", stats.getUser());
+        assertEquals(100 + 100 + 50 + 100, stats.getTxBytes());
+        assertEquals(2, stats.getOnline());
+    }
+
+    @Test
+    void userJoiningLaterCountsAllItsTraffic() throws Exception {
+        AtomicLong counter = new AtomicLong(-1);
+        TrafficStatsPoller poller = new TrafficStatsPoller(List.of(this.serve(counter)), SECRET, Duration.ofSeconds(10), 10);
+
+        poller.poll();
+        counter.set(300);
+        poller.poll();
+
+        assertEquals(300, poller.snapshot().getFirst().getTxBytes());
+    }
+
+    /**
+     * @param tx cumulative tx bytes of the single user, negative while the user is not connected
+     */
+    private URI serve(AtomicLong tx) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/traffic", exchange -> {
+            long value = tx.get();
+            respond(exchange, value < 0 ? "{}" : "{\"user\":{\"tx\":" + value + ",\"rx\":0}}", SECRET);
+        });
+        server.createContext("/online", exchange -> respond(exchange, tx.get() < 0 ? "{}" : "{\"user\":1}", SECRET));
+        server.start();
+        servers.add(server);
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    private static void respond(HttpExchange exchange, String body, String secret)
+            throws IOException {
+        try (exchange) {
+            if (!secret.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.vevc.process;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Backoff and circuit breaker arithmetic, and the restart policy against real {@code sh} children.
+ *
+ * @author vevc
+ */
+class ProcessSupervisorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private ProcessSupervisor supervisor;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (supervisor != null) {
+            supervisor.stop(Duration.ofSeconds(5)).get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void doublesTheBackoffWithJitter() {
+        ProcessSupervisor idle = idle();
+        long backoff = 1000;
+        for (int failure = 0; failure < 4; failure++, backoff *= 2) {
+            long delay = idle.recordFailure(failure * SECOND);
+            assertTrue(delay >= backoff / 2 && delay <= backoff, "delay " + delay + " for backoff " + backoff);
+            assertEquals(ProcessSupervisor.State.BACKOFF, idle.getState());
+        }
+    }
+
+    @Test
+    void opensTheCircuitAfterFiveCrashesInTheWindow() {
+        ProcessSupervisor idle = idle();
+        for (int failure = 0; failure < 4; failure++) {
+            idle.recordFailure(failure * SECOND);
+        }
+
+        assertEquals(TimeUnit.MINUTES.toMillis(5), idle.recordFailure(4 * SECOND));
+        assertEquals(ProcessSupervisor.State.CIRCUIT_OPEN, idle.getState());
+
+        // the breaker starts over with the shortest backoff
+        long delay = idle.recordFailure(6 * MINUTE);
+        assertTrue(delay >= 500 && delay <= 1000, "delay " + delay);
+        assertEquals(ProcessSupervisor.State.BACKOFF, idle.getState());
+    }
+
+    @Test
+    void forgetsCrashesOutsideTheWindow() {
+        ProcessSupervisor idle = idle();
+        for (int failure = 0; failure < 4; failure++) {
+            idle.recordFailure(failure * SECOND);
+        }
+
+        idle.recordFailure(3 * MINUTE);
+
+        assertEquals(ProcessSupervisor.State.BACKOFF, idle.getState());
+    }
+
+    @Test
+    void capsTheBackoff() {
+        ProcessSupervisor idle = idle();
+        long delay = 0;
+        for (int failure = 0; failure < 20; failure++) {
+            // spaced out so the circuit never opens
+            delay = idle.recordFailure(failure * 3 * MINUTE);
+        }
+
+        assertTrue(delay >= 30_000 && delay <= 60_000, "delay " + delay);
+    }
+
+    @Test
+    void restartsACrashedProcess() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        supervisor = new ProcessSupervisor("crashing", () -> new ProcessBuilder("sh", "-c", "exit 3"),
+                () -> true, process -> started.incrementAndGet());
+        supervisor.start();
+
+        await(() -> supervisor.getCrashCount() >= 2 && started.get() >= 2, 10);
+        assertTrue(supervisor.getRestartCount() >= 1);
+    }
+
+    @Test
+    void doesNotRestartACleanExit() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        supervisor = new ProcessSupervisor("clean", () -> new ProcessBuilder("sh", "-c", "exit 0"),
+                () -> true, process -> started.countDown());
+        supervisor.start();
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        await(() -> supervisor.getState() == ProcessSupervisor.State.STOPPED, 10);
+        TimeUnit.MILLISECONDS.sleep(1500);
+        assertEquals(0, supervisor.getCrashCount());
+        assertEquals(0, supervisor.getRestartCount());
+    }
+
+    @Test
+    void stopsTheProcessAndDisablesRestarts() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        supervisor = new ProcessSupervisor("sleeping", () -> new ProcessBuilder("sleep", "30"),
+                () -> true, process -> started.countDown());
+        supervisor.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(ProcessSupervisor.State.RUNNING, supervisor.getState());
+        assertTrue(supervisor.getPid() > 0);
+
+        Process stopped = supervisor.stop(Duration.ofSeconds(5)).get(10, TimeUnit.SECONDS);
+
+        assertFalse(stopped.isAlive());
+        assertEquals(ProcessSupervisor.State.STOPPED, supervisor.getState());
+        TimeUnit.MILLISECONDS.sleep(1500);
+        assertEquals(0, supervisor.getCrashCount());
+        assertEquals(0, supervisor.getRestartCount());
+    }
+
+    @Test
+    void doesNotStartWhatIsNoLongerInstalled() throws Exception {
+        CountDownLatch prepared = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        supervisor = new ProcessSupervisor("removed", () -> new ProcessBuilder("sleep", "30"),
+                () -> {
+                    prepared.countDown();
+                    return false;
+                }, process -> started.incrementAndGet());
+        supervisor.start();
+
+        assertTrue(prepared.await(10, TimeUnit.SECONDS));
+        await(() -> supervisor.getState() == ProcessSupervisor.State.STOPPED, 10);
+        assertEquals(0, started.get());
+    }
+
+    private static ProcessSupervisor idle() {
+        return new ProcessSupervisor("idle", () -> new ProcessBuilder("true"), () -> true, null);
+    }
+
+    private static void await(BooleanSupplier condition, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met within " + seconds + "s");
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+    }
+}
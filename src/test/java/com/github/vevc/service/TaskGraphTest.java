@@ -0,0 +1,106 @@
+package com.github.vevc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ordering, concurrency and failure handling of the install step graph.
+ *
+ * @author vevc
+ */
+class TaskGraphTest {
+
+    @Test
+    void runsStepsAfterTheirDependencies() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        new TaskGraph()
+                .add("binary", () -> {
+                    TimeUnit.MILLISECONDS.sleep(50);
+                    events.add("binary");
+                })
+                .add("certs", () -> events.add("certs"))
+                .add("config", () -> events.add("config"), "binary", "certs")
+                .run();
+
+        assertEquals(3, events.size());
+        assertEquals("config", events.getLast());
+    }
+
+    @Test
+    void runsIndependentStepsConcurrently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        TaskGraph.Task step = () -> {
+            bothStarted.countDown();
+            // only returns true if the other step runs at the same time
+            if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("steps ran one after the other");
+            }
+        };
+
+        new TaskGraph().add("a", step).add("b", step).run();
+    }
+
+    @Test
+    void rethrowsTheFirstFailureAndInterruptsSiblings() throws Exception {
+        IOException boom = new IOException("boom");
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean dependentRan = new AtomicBoolean();
+        TaskGraph graph = new TaskGraph()
+                .add("slow", () -> {
+                    try {
+                        TimeUnit.SECONDS.sleep(30);
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                        throw e;
+                    }
+                })
+                .add("failing", () -> {
+                    throw boom;
+                })
+                .add("dependent", () -> dependentRan.set(true), "failing");
+
+        long start = System.nanoTime();
+        assertSame(boom, assertThrows(IOException.class, graph::run));
+
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10, "waited for the slow step");
+        assertTrue(interrupted.get());
+        assertFalse(dependentRan.get());
+    }
+
+    @Test
+    void rejectsUnknownDependencies() {
+        TaskGraph graph = new TaskGraph().add("binary", () -> {
+        });
+
+        assertThrows(IllegalArgumentException.class, () -> graph.add("config", () -> {
+        }, "certs"));
+    }
+
+    @Test
+    void describesTheLongestChain() throws Exception {
+        TaskGraph graph = new TaskGraph()
+                .add("binary", () -> TimeUnit.MILLISECONDS.sleep(100))
+                .add("certs", () -> {
+                })
+                .add("config", () -> TimeUnit.MILLISECONDS.sleep(100), "binary", "certs")
+                .add("script", () -> {
+                }, "certs");
+        graph.run();
+
+        assertTrue(graph.describeCriticalPath().startsWith("binary -> config ("), graph.describeCriticalPath());
+        assertEquals(4, graph.getDurations().size());
+        assertEquals("empty", new TaskGraph().describeCriticalPath());
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.vevc.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Hysteresis of the bandwidth limit against a simulated clock: 45/30 ms marks, 20 to 1000 Mbps.
+ *
+ * @author vevc
+ */
+class TickThrottleTest {
+
+    private static final double OVER = 50;
+    private static final double WITHIN = 40;
+    private static final double RECOVERED = 10;
+    /**
+     * CPU time of a proxy that keeps one core busy, in clock ticks per second
+     */
+    private static final long BUSY = 100;
+
+    private TickThrottle throttle;
+    private long base;
+
+    @BeforeEach
+    void setUp() {
+        throttle = new TickThrottle(45, 30, 20, 1000, () -> -1, limit -> {
+        });
+        base = System.nanoTime();
+    }
+
+    @Test
+    void halvesAfterTwoSamplesOverBudget() {
+        assertEquals(-1, this.sample(OVER, 0));
+        assertEquals(500, this.sample(OVER, 1));
+        assertEquals(500, throttle.getLimitMbps());
+    }
+
+    @Test
+    void ignoresSamplesWhileALimitIsApplied() {
+        this.sample(OVER, 0);
+        this.sample(OVER, 1);
+
+        // the restart costs ticks of its own
+        for (int second = 2; second < 30; second++) {
+            assertEquals(-1, this.sample(OVER, second));
+        }
+        this.applied(30);
+        assertEquals(-1, this.sample(OVER, 31));
+        assertEquals(-1, this.sample(OVER, 44));
+    }
+
+    @Test
+    void dropsToTheMinimumWhenTheOverloadSurvivesADecrease() {
+        this.sample(OVER, 0);
+        this.sample(OVER, 1);
+        this.applied(1);
+
+        for (int second = 2; second < 16; second++) {
+            assertEquals(-1, this.sample(OVER, second), "decrease hold at " + second);
+        }
+        assertEquals(20, this.sample(OVER, 16));
+    }
+
+    @Test
+    void halvesAgainWhenTheOverloadCameBack() {
+        this.sample(OVER, 0);
+        this.sample(OVER, 1);
+        this.applied(1);
+
+        this.sample(WITHIN, 2);
+        this.sample(OVER, 15);
+        assertEquals(250, this.sample(OVER, 16));
+    }
+
+    @Test
+    void raisesAfterARecoveryAndLiftsTheLimitAtTheMaximum() {
+        this.sample(OVER, 0);
+        this.sample(OVER, 1);
+        this.applied(1);
+
+        for (int second = 2; second < 61; second++) {
+            assertEquals(-1, this.sample(RECOVERED, second), "increase hold at " + second);
+        }
+        assertEquals(750, this.sample(RECOVERED, 61));
+        this.applied(61);
+
+        for (int second = 62; second < 121; second++) {
+            assertEquals(-1, this.sample(RECOVERED, second));
+        }
+        assertEquals(TickThrottle.NO_LIMIT, this.sample(RECOVERED, 121));
+    }
+
+    @Test
+    void restartsTheRecoveryCountOnASlowTick() {
+        this.sample(OVER, 0);
+        this.sample(OVER, 1);
+        this.applied(1);
+        for (int second = 2; second < 61; second++) {
+            this.sample(RECOVERED, second);
+        }
+
+        this.sample(WITHIN, 61);
+        for (int second = 62; second < 73; second++) {
+            assertEquals(-1, this.sample(RECOVERED, second));
+        }
+        assertEquals(750, this.sample(RECOVERED, 73));
+    }
+
+    @Test
+    void keepsTheLimitWhenTheProxyIsIdle() {
+        assertEquals(-1, this.sample(OVER, 0, 1000));
+        assertEquals(-1, this.sample(OVER, 1, 1000));
+        assertEquals(-1, this.sample(OVER, 2, 1000));
+        assertEquals(-1, this.sample(OVER, 3, 1000));
+        assertEquals(TickThrottle.NO_LIMIT, throttle.getLimitMbps());
+    }
+
+    @Test
+    void lowersTheLimitWhenTheProxyIsBusy() {
+        assertEquals(-1, this.sample(OVER, 0, 0));
+        assertEquals(500, this.sample(OVER, 1, BUSY));
+    }
+
+    @Test
+    void ignoresACpuCounterThatWentBackwards() {
+        // a restarted process counts from zero; the drop says nothing about its load
+        assertEquals(-1, this.sample(OVER, 0, 5000));
+        assertEquals(500, this.sample(OVER, 1, 10));
+    }
+
+    @Test
+    void stopsDecidingWhenClosed() {
+        throttle.close();
+
+        this.sample(OVER, 0);
+        assertEquals(-1, this.sample(OVER, 1));
+    }
+
+    @Test
+    void rejectsInvertedMarks() {
+        assertThrows(IllegalArgumentException.class, () -> new TickThrottle(30, 45, 20, 1000, () -> -1, limit -> {
+        }));
+        assertThrows(IllegalArgumentException.class, () -> new TickThrottle(45, 30, 2000, 1000, () -> -1, limit -> {
+        }));
+    }
+
+    private long sample(double mspt, int second) {
+        return this.sample(mspt, second, -1);
+    }
+
+    private long sample(double mspt, int second, long cpuTicks) {
+        return throttle.decide(mspt, cpuTicks, this.at(second));
+    }
+
+    private void applied(int second) {
+        throttle.applied(this.at(second));
+    }
+
+    private long at(int second) {
+        return base + TimeUnit.SECONDS.toNanos(second);
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.vevc.util;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reuse of the stored TLS keypair and the cases that force a new one.
+ *
+ * @author vevc
+ */
+class CertificateStoreTest {
+
+    private static final String DOMAIN = "example.com";
+
+    @TempDir
+    Path dir;
+
+    private Path storeDir;
+    private CertificateStore store;
+
+    @BeforeEach
+    void setUp() {
+        storeDir = dir.resolve("store");
+        store = new CertificateStore(storeDir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    void generatesOnceAndCopiesIntoTheWorkDir() throws Exception {
+        Path workDir = this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+
+        assertArrayEquals(Files.readAllBytes(storeDir.resolve(CertificateUtil.CERT_FILE)),
+                Files.readAllBytes(workDir.resolve(CertificateUtil.CERT_FILE)));
+        assertArrayEquals(Files.readAllBytes(storeDir.resolve(CertificateUtil.KEY_FILE)),
+                Files.readAllBytes(workDir.resolve(CertificateUtil.KEY_FILE)));
+        assertEquals(List.of(CertificateUtil.CERT_FILE, CertificateUtil.KEY_FILE), this.storeFiles());
+    }
+
+    @Test
+    void reusesAMatchingCertificate() throws Exception {
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+        byte[] cert = this.storedCert();
+        byte[] key = Files.readAllBytes(storeDir.resolve(CertificateUtil.KEY_FILE));
+
+        // a new store on the same directory, as after a server restart
+        store.shutdown();
+        store = new CertificateStore(storeDir);
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN.toUpperCase());
+
+        assertArrayEquals(cert, this.storedCert());
+        assertArrayEquals(key, Files.readAllBytes(storeDir.resolve(CertificateUtil.KEY_FILE)));
+    }
+
+    @Test
+    void regeneratesForAnotherDomain() throws Exception {
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, "other.example.com");
+
+        assertEquals("CN=other.example.com", this.parse(this.storedCert()).getSubjectX500Principal().getName());
+    }
+
+    @Test
+    void regeneratesForAnotherKeyAlgorithm() throws Exception {
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+
+        this.install(CertificateUtil.KEY_ALGORITHM_RSA, DOMAIN);
+
+        assertEquals("RSA", this.parse(this.storedCert()).getPublicKey().getAlgorithm());
+    }
+
+    @Test
+    void regeneratesWhenTheKeyDoesNotMatch() throws Exception {
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+        byte[] cert = this.storedCert();
+        Path otherDir = Files.createDirectories(dir.resolve("other"));
+        CertificateUtil.generateCertificates(otherDir.toFile(), CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+        Files.copy(otherDir.resolve(CertificateUtil.KEY_FILE), storeDir.resolve(CertificateUtil.KEY_FILE),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+
+        assertFalse(Arrays.equals(cert, this.storedCert()));
+    }
+
+    @Test
+    void renewsACertificateCloseToExpiry() throws Exception {
+        Files.createDirectories(storeDir);
+        this.writeExpiringCertificate(Duration.ofDays(10));
+
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+
+        Instant notAfter = this.parse(this.storedCert()).getNotAfter().toInstant();
+        assertTrue(notAfter.isAfter(Instant.now().plus(Duration.ofDays(300))), "valid until " + notAfter);
+        assertEquals(List.of(CertificateUtil.CERT_FILE, CertificateUtil.KEY_FILE), this.storeFiles());
+    }
+
+    @Test
+    void replacesAnUnreadableCertificate() throws Exception {
+        Files.createDirectories(storeDir);
+        Files.writeString(storeDir.resolve(CertificateUtil.CERT_FILE), "not a certificate");
+        Files.writeString(storeDir.resolve(CertificateUtil.KEY_FILE), "not a key");
+
+        this.install(CertificateUtil.KEY_ALGORITHM_EC, DOMAIN);
+
+        assertEquals("CN=" + DOMAIN, this.parse(this.storedCert()).getSubjectX500Principal().getName());
+    }
+
+    private Path install(String keyAlgorithm, String domain) throws Exception {
+        Path workDir = Files.createTempDirectory(dir, "work");
+        store.install(workDir.toFile(), keyAlgorithm, domain);
+        return workDir;
+    }
+
+    private byte[] storedCert() throws IOException {
+        return Files.readAllBytes(storeDir.resolve(CertificateUtil.CERT_FILE));
+    }
+
+    private X509Certificate parse(byte[] pem) throws Exception {
+        try (InputStream in = new ByteArrayInputStream(pem)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+    }
+
+    private List<String> storeFiles() throws IOException {
+        try (Stream<Path> files = Files.list(storeDir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    /**
+     * a valid pair for {@link #DOMAIN} that is inside the renewal window
+     */
+    private void writeExpiringCertificate(Duration validFor) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name subject = new X500Name("CN=" + DOMAIN);
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject, BigInteger.ONE,
+                Date.from(now.minus(Duration.ofDays(300))), Date.from(now.plus(validFor)), subject, keyPair.getPublic());
+        builder.addExtension(Extension.subjectAlternativeName, false,
+                new GeneralNames(new GeneralName(GeneralName.dNSName, DOMAIN)));
+        try (Writer writer = Files.newBufferedWriter(storeDir.resolve(CertificateUtil.CERT_FILE));
+             JcaPEMWriter pem = new JcaPEMWriter(writer)) {
+            pem.writeObject(builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+        }
+        try (Writer writer = Files.newBufferedWriter(storeDir.resolve(CertificateUtil.KEY_FILE));
+             JcaPEMWriter pem = new JcaPEMWriter(writer)) {
+            pem.writeObject(new JcaPKCS8Generator(keyPair.getPrivate(), null));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.vevc.util;
+
+import com.github.vevc.constant.AppConst;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encrypted config generations, the index that points at the active one and the scan fallback.
+ *
+ * @author vevc
+ */
+class ConfigUtilTest {
+
+    private static final String INDEX_FILE = ".world-magic-index";
+
+    @TempDir
+    Path baseDir;
+
+    @Test
+    void encryptsThePlainFileIntoAnIndexedGeneration() throws Exception {
+        Properties loaded = this.loadFromPlainFile();
+
+        assertEquals("example.com", loaded.getProperty(AppConst.DOMAIN));
+        assertNotNull(loaded.getProperty(AppConst.UUID));
+        assertFalse(Files.exists(baseDir.resolve("plugins/application.properties")));
+        Path generation = this.onlyGeneration();
+        assertEquals(generation.getFileName().toString(), this.index());
+        assertEquals(Md5Util.md5(Files.readString(generation)), generation.getFileName().toString());
+        assertTrue(EnvelopeUtil.isEnvelope(Files.readString(generation)));
+
+        assertEquals(loaded, ConfigUtil.loadConfiguration(baseDir.toFile()));
+    }
+
+    @Test
+    void rebuildsAMissingIndexFromAScan() throws Exception {
+        Properties loaded = this.loadFromPlainFile();
+        String generation = this.index();
+        Files.delete(baseDir.resolve("config").resolve(INDEX_FILE));
+
+        assertEquals(loaded, ConfigUtil.loadConfiguration(baseDir.toFile()));
+        assertEquals(generation, this.index());
+    }
+
+    @Test
+    void fallsBackWhenTheIndexedGenerationDoesNotMatchItsName() throws Exception {
+        Properties loaded = this.loadFromPlainFile();
+        String generation = this.index();
+        // e.g. a crash that left a half written file behind the index
+        Path config = baseDir.resolve("config");
+        String broken = "0123456789abcdef0123456789abcdef";
+        Files.writeString(config.resolve(broken), "truncated");
+        Files.writeString(config.resolve(INDEX_FILE), broken);
+
+        assertEquals(loaded, ConfigUtil.loadConfiguration(baseDir.toFile()));
+        assertEquals(generation, this.index());
+        assertFalse(Files.exists(config.resolve(broken)));
+    }
+
+    @Test
+    void ignoresAnIndexThatIsNotAGenerationName() throws Exception {
+        Properties loaded = this.loadFromPlainFile();
+        String generation = this.index();
+        Files.writeString(baseDir.resolve("config").resolve(INDEX_FILE), "../plugins/application.properties");
+
+        assertEquals(loaded, ConfigUtil.loadConfiguration(baseDir.toFile()));
+        assertEquals(generation, this.index());
+    }
+
+    @Test
+    void leavesServerFilesInTheConfigDirectoryAlone() throws Exception {
+        Path config = Files.createDirectories(baseDir.resolve("config"));
+        Path serverFile = Files.writeString(config.resolve("paper-global.yml"), "chunk-system: {}\n");
+
+        this.loadFromPlainFile();
+        this.writePlainFile("domain=other.example.com\n");
+        ConfigUtil.loadConfiguration(baseDir.toFile());
+
+        assertTrue(Files.exists(serverFile));
+        this.onlyGeneration();
+    }
+
+    @Test
+    void resealsALegacyGeneration() throws Exception {
+        String legacy = RsaUtil.encryptByPublicKey("domain=legacy.example.com\n", AppConst.PUBLIC_KEY);
+        Path config = Files.createDirectories(baseDir.resolve("config"));
+        Files.writeString(config.resolve(Md5Util.md5(legacy)), legacy);
+
+        Properties loaded = ConfigUtil.loadConfiguration(baseDir.toFile());
+
+        assertEquals("legacy.example.com", loaded.getProperty(AppConst.DOMAIN));
+        Path generation = this.onlyGeneration();
+        assertTrue(EnvelopeUtil.isEnvelope(Files.readString(generation)));
+        assertEquals(generation.getFileName().toString(), this.index());
+        assertEquals(loaded, ConfigUtil.loadConfiguration(baseDir.toFile()));
+    }
+
+    private Properties loadFromPlainFile() throws IOException {
+        this.writePlainFile("domain=example.com\nport=25565\n");
+        Properties loaded = ConfigUtil.loadConfiguration(baseDir.toFile());
+        assertNotNull(loaded);
+        return loaded;
+    }
+
+    private void writePlainFile(String content) throws IOException {
+        Path plain = baseDir.resolve("plugins/application.properties");
+        Files.createDirectories(plain.getParent());
+        Files.writeString(plain, content, StandardCharsets.UTF_8);
+    }
+
+    private String index() throws IOException {
+        return Files.readString(baseDir.resolve("config").resolve(INDEX_FILE)).trim();
+    }
+
+    private Path onlyGeneration() throws IOException {
+        try (Stream<Path> files = Files.list(baseDir.resolve("config"))) {
+            List<Path> generations = files.filter(file -> file.getFileName().toString().matches("[0-9a-f]{32}")).toList();
+            assertEquals(1, generations.size(), "generations " + generations);
+            return generations.getFirst();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.vevc.util;
+
+import com.github.vevc.constant.AppConst;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Envelope round trips, format detection and tamper detection.
+ *
+ * @author vevc
+ */
+class EnvelopeUtilTest {
+
+    private static final String CONFIG = "domain=example.com\nport=25565\nremarks-prefix=世界\n";
+
+    @Test
+    void roundTripsText() throws Exception {
+        String sealed = EnvelopeUtil.seal(CONFIG, AppConst.PUBLIC_KEY);
+
+        assertTrue(EnvelopeUtil.isEnvelope(sealed));
+        assertEquals(CONFIG, EnvelopeUtil.open(sealed, AppConst.PRIVATE_KEY));
+    }
+
+    @Test
+    void roundTripsStreamsLongerThanOneBuffer() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+
+        assertArrayEquals(data, open(seal(data)));
+    }
+
+    @Test
+    void usesAFreshDataKeyForEverySeal() throws Exception {
+        assertNotEquals(EnvelopeUtil.seal(CONFIG, AppConst.PUBLIC_KEY), EnvelopeUtil.seal(CONFIG, AppConst.PUBLIC_KEY));
+    }
+
+    @Test
+    void doesNotMistakeLegacyCiphertextForAnEnvelope() throws Exception {
+        String legacy = RsaUtil.encryptByPublicKey(CONFIG, AppConst.PUBLIC_KEY);
+
+        assertFalse(EnvelopeUtil.isEnvelope(legacy));
+        assertFalse(EnvelopeUtil.isEnvelope("WMCE"));
+        assertFalse(EnvelopeUtil.isEnvelope("not base64 at all"));
+    }
+
+    @Test
+    void detectsATamperedCiphertext() throws Exception {
+        byte[] sealed = seal(CONFIG.getBytes(StandardCharsets.UTF_8));
+        sealed[sealed.length - 20] ^= 1;
+
+        assertThrows(GeneralSecurityException.class, () -> open(sealed));
+    }
+
+    @Test
+    void detectsATamperedTag() throws Exception {
+        byte[] sealed = seal(CONFIG.getBytes(StandardCharsets.UTF_8));
+        sealed[sealed.length - 1] ^= 1;
+
+        assertThrows(GeneralSecurityException.class, () -> open(sealed));
+    }
+
+    @Test
+    void rejectsAnUnknownVersion() throws Exception {
+        byte[] sealed = seal(CONFIG.getBytes(StandardCharsets.UTF_8));
+        sealed[4] = 2;
+
+        IOException e = assertThrows(IOException.class, () -> open(sealed));
+        assertEquals("Unsupported envelope version 2", e.getMessage());
+    }
+
+    @Test
+    void rejectsDataWithoutTheMagic() throws Exception {
+        byte[] sealed = seal(CONFIG.getBytes(StandardCharsets.UTF_8));
+        sealed[0] = 'X';
+
+        assertThrows(IOException.class, () -> open(sealed));
+    }
+
+    private static byte[] seal(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EnvelopeUtil.seal(new ByteArrayInputStream(data), out, RsaUtil.parsePublicKey(AppConst.PUBLIC_KEY));
+        return out.toByteArray();
+    }
+
+    private static byte[] open(byte[] envelope) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrivateKey privateKey = RsaUtil.parsePrivateKey(AppConst.PRIVATE_KEY);
+        EnvelopeUtil.open(new ByteArrayInputStream(envelope), out, privateKey);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.vevc.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Windowed file hashing and the incremental hasher.
+ *
+ * @author vevc
+ */
+class HashUtilTest {
+
+    private static final byte[] ABC = "abc".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesKnownDigests() {
+        HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.MD5, HashUtil.Algorithm.SHA256)
+                .update(ABC, 0, ABC.length);
+
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hasher.hex(HashUtil.Algorithm.MD5));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                hasher.hex(HashUtil.Algorithm.SHA256));
+    }
+
+    @Test
+    void hashesFilesLargerThanOneWindow() throws Exception {
+        // three full windows and a partial one
+        byte[] data = random(3 * 1024 * 1024 + 7);
+        Path file = Files.write(dir.resolve("large"), data);
+
+        HashUtil.Hasher hasher = HashUtil.hash(file, HashUtil.Algorithm.MD5, HashUtil.Algorithm.SHA256);
+
+        assertEquals(reference("MD5", data), hasher.hex(HashUtil.Algorithm.MD5));
+        assertEquals(reference("SHA-256", data), hasher.hex(HashUtil.Algorithm.SHA256));
+    }
+
+    @Test
+    void hashesAnEmptyFile() throws Exception {
+        Path file = Files.createFile(dir.resolve("empty"));
+
+        assertEquals(reference("SHA-256", new byte[0]), HashUtil.hex(file, HashUtil.Algorithm.SHA256));
+    }
+
+    @Test
+    void consumesByteBuffersForEveryAlgorithm() {
+        ByteBuffer buffer = ByteBuffer.wrap(ABC);
+        HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.MD5, HashUtil.Algorithm.SHA256).update(buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hasher.hex(HashUtil.Algorithm.MD5));
+        assertEquals(reference("SHA-256", ABC), hasher.hex(HashUtil.Algorithm.SHA256));
+    }
+
+    @Test
+    void resetDiscardsEverythingFed() {
+        HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.SHA256).update(new byte[100], 0, 100);
+
+        hasher.reset().update(ABC, 0, ABC.length);
+
+        assertEquals(reference("SHA-256", ABC), hasher.hex(HashUtil.Algorithm.SHA256));
+    }
+
+    @Test
+    void hashesSeveralFilesInIterationOrder() throws Exception {
+        List<Path> files = List.of(
+                Files.write(dir.resolve("b"), random(1000)),
+                Files.write(dir.resolve("a"), random(2 * 1024 * 1024)),
+                Files.write(dir.resolve("c"), ABC));
+
+        Map<Path, String> result = HashUtil.hexAll(files, HashUtil.Algorithm.MD5);
+
+        assertEquals(files, List.copyOf(result.keySet()));
+        for (Path file : files) {
+            assertEquals(reference("MD5", Files.readAllBytes(file)), result.get(file));
+        }
+    }
+
+    @Test
+    void rejectsAlgorithmsThatWereNotRequested() {
+        HashUtil.Hasher hasher = HashUtil.newHasher(HashUtil.Algorithm.MD5);
+
+        assertThrows(IllegalArgumentException.class, () -> hasher.hex(HashUtil.Algorithm.SHA256));
+        assertThrows(IllegalArgumentException.class, () -> HashUtil.newHasher());
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static String reference(String algorithm, byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance(algorithm).digest(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
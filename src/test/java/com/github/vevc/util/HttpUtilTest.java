@@ -0,0 +1,93 @@
+package com.github.vevc.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Read timeout of streamed bodies against a local stand-in server.
+ *
+ * @author vevc
+ */
+class HttpUtilTest {
+
+    private static final byte[] HALF = new byte[64 * 1024];
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+    private URI uri;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        HttpUtil.init(1, 1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // sends half of the body, then stalls until the test releases it
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.sendResponseHeaders(200, HALF.length * 2L);
+                OutputStream out = exchange.getResponseBody();
+                out.write(HALF);
+                out.flush();
+                release.await(10, TimeUnit.SECONDS);
+                out.write(HALF);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ignored) {
+                // the client gave up
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/artifact");
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+        HttpUtil.init(10, 30);
+    }
+
+    @Test
+    void failsABodyThatStallsMidway() throws Exception {
+        HttpResponse<InputStream> response = HttpUtil.send(HttpUtil.newRequest(uri).build(), HttpUtil.ofInputStream());
+        long start = System.nanoTime();
+        try (InputStream in = response.body()) {
+            assertEquals(200, response.statusCode());
+            assertThrows(HttpTimeoutException.class, in::readAllBytes);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed < 5000, "read took " + elapsed + " ms");
+    }
+
+    @Test
+    void doesNotCountTimeBetweenReads() throws Exception {
+        HttpResponse<InputStream> response = HttpUtil.send(HttpUtil.newRequest(uri).build(), HttpUtil.ofInputStream());
+        try (InputStream in = response.body()) {
+            byte[] first = in.readNBytes(HALF.length);
+            // the consumer is busy for longer than the timeout while the server is ready again
+            release.countDown();
+            TimeUnit.MILLISECONDS.sleep(2500);
+            byte[] second = in.readAllBytes();
+            assertArrayEquals(HALF, first);
+            assertArrayEquals(HALF, second);
+        }
+    }
+}
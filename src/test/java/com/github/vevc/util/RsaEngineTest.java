@@ -0,0 +1,116 @@
+package com.github.vevc.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Block math of the pooled RSA engine with a 1024 bit key: 117 plain bytes per 128 byte block.
+ *
+ * @author vevc
+ */
+class RsaEngineTest {
+
+    private static final KeyPair KEY_PAIR = RsaUtil.initKey();
+    private static final RsaEngine ENCRYPTOR = RsaEngine.encryptor(KEY_PAIR.getPublic());
+    private static final RsaEngine DECRYPTOR = RsaEngine.decryptor(KEY_PAIR.getPrivate());
+
+    @Test
+    void sizesOutputByWholeBlocks() {
+        assertEquals(0, ENCRYPTOR.outputSize(0));
+        assertEquals(128, ENCRYPTOR.outputSize(1));
+        assertEquals(128, ENCRYPTOR.outputSize(117));
+        assertEquals(256, ENCRYPTOR.outputSize(118));
+        assertEquals(256, ENCRYPTOR.outputSize(234));
+        assertEquals(384, ENCRYPTOR.outputSize(235));
+        // room for a full modulus in the last block
+        assertEquals(128, DECRYPTOR.outputSize(128));
+        assertEquals(117 + 128, DECRYPTOR.outputSize(256));
+    }
+
+    @Test
+    void roundTripsAroundBlockBoundaries() throws Exception {
+        for (int length : new int[]{0, 1, 116, 117, 118, 234, 235, 1000}) {
+            byte[] data = random(length);
+            byte[] encrypted = ENCRYPTOR.process(data);
+
+            assertEquals(ENCRYPTOR.outputSize(length), encrypted.length, "encrypted length of " + length);
+            assertArrayEquals(data, DECRYPTOR.process(encrypted), "round trip of " + length);
+        }
+    }
+
+    @Test
+    void encryptsEveryBlockOnItsOwn() throws Exception {
+        byte[] data = random(300);
+        byte[] encrypted = ENCRYPTOR.process(data);
+
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.DECRYPT_MODE, KEY_PAIR.getPrivate());
+        for (int block = 0; block < 3; block++) {
+            byte[] plain = cipher.doFinal(encrypted, block * 128, 128);
+            assertArrayEquals(Arrays.copyOfRange(data, block * 117, Math.min(data.length, (block + 1) * 117)), plain);
+        }
+    }
+
+    @Test
+    void processesBetweenBuffersAtTheirPositions() throws Exception {
+        byte[] data = random(200);
+        ByteBuffer in = ByteBuffer.allocate(210).position(10);
+        in.put(data).flip().position(10);
+        ByteBuffer out = ByteBuffer.allocateDirect(300).position(5);
+
+        int written = ENCRYPTOR.process(in, out);
+
+        assertEquals(256, written);
+        assertFalse(in.hasRemaining());
+        assertEquals(210, in.limit());
+        assertEquals(5 + 256, out.position());
+        byte[] encrypted = new byte[written];
+        out.flip().position(5);
+        out.get(encrypted);
+        assertArrayEquals(data, DECRYPTOR.process(encrypted));
+    }
+
+    @Test
+    void failsWhenTheOutputIsTooSmall() {
+        ByteBuffer in = ByteBuffer.wrap(random(118));
+        ByteBuffer out = ByteBuffer.allocate(200);
+
+        assertThrows(GeneralSecurityException.class, () -> ENCRYPTOR.process(in, out));
+    }
+
+    @Test
+    void sharesPooledCiphersBetweenThreads() throws Exception {
+        List<Future<Boolean>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 64; i++) {
+                byte[] data = random(100 + i * 7);
+                results.add(executor.submit(() -> Arrays.equals(data, DECRYPTOR.process(ENCRYPTOR.process(data)))));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(Boolean.TRUE, result.get());
+            }
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}